@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DigestBenchmark {
+
+  @Param({"100", "500", "2000"})
+  int proteinLength;
+
+  private String sequence;
+  private Digester digester;
+  private Pattern pattern;
+
+  @Setup
+  public void setup() {
+    sequence = ShuffleBenchmark.randomProtein(new Random(1), proteinLength);
+    digester = new Digester("KR", "P", true);
+    pattern = Pattern.compile("[KR](?![P])");
+  }
+
+  @Benchmark
+  public int[] digester() {
+    return digester.cleavageSites(sequence);
+  }
+
+  // The regular expression that the Digester replaced, as a reference.
+  @Benchmark
+  public void regex(Blackhole blackhole) {
+    Matcher matcher = pattern.matcher(sequence);
+    while (matcher.find()) {
+      blackhole.consume(matcher.start());
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bins the CScores and calculates the entrapment q-values like DiannEntrapmentQValue, without the parsing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class QValueBenchmark {
+
+  @Param({"100000", "1000000"})
+  int precursors;
+
+  private double[] cscores;
+  private double[] decoyCscores;
+  private boolean[] entrapments;
+  private double[] qValues;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(1);
+    cscores = new double[precursors];
+    decoyCscores = new double[precursors];
+    entrapments = new boolean[precursors];
+    qValues = new double[precursors];
+    for (int i = 0; i < precursors; ++i) {
+      cscores[i] = random.nextDouble();
+      decoyCscores[i] = random.nextInt(5) == 0 ? random.nextDouble() * cscores[i] : 0;
+      entrapments[i] = random.nextInt(10) == 0;
+      qValues[i] = (1 - cscores[i]) * 0.02;
+    }
+  }
+
+  @Benchmark
+  public double[] qValues() {
+    SparseScoreHistogram histogram = new SparseScoreHistogram(DiannEntrapmentQValue.binSize);
+    for (int i = 0; i < precursors; ++i) {
+      histogram.add(cscores[i], decoyCscores[i], entrapments[i], qValues[i], qValues[i] / 2);
+    }
+    SparseScoreHistogram.Bins bins = histogram.compact();
+    return DiannEntrapmentQValue.calculateQValue(bins.targetCounts, bins.decoyCounts, bins.entrapmentTargetCounts, bins.entrapmentDecoyCounts, 3);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses a report.tsv from GenerateReports the way CalculateFDP and DiannEntrapmentQValue do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReportBenchmark {
+
+  private static final String entrapmentMarker = "entrapment_";
+
+  @Param({"200000"})
+  int rows;
+
+  @Param({"1", "4"})
+  int threads;
+
+  private Path reportPath;
+
+  @Setup
+  public void setup() throws Exception {
+    List<GenerateReports.Protein> targetProteins = new ArrayList<>();
+    List<GenerateReports.Protein> entrapmentProteins = new ArrayList<>();
+    Random random = new Random(1);
+    for (int i = 0; i < 20000; ++i) {
+      targetProteins.add(new GenerateReports.Protein("sp|P" + i + "|PROT" + i + "_HUMAN GN=G" + i, ShuffleBenchmark.randomProtein(random, 500), i));
+      entrapmentProteins.add(new GenerateReports.Protein("entrapment_0_sp|entrapment_0_P" + i + "|entrapment_0_PROT" + i + "_HUMAN GN=entrapment_0_G" + i, ShuffleBenchmark.randomProtein(random, 500), -1 - i));
+    }
+    String[] args = {"--runs=10", "--precursors=" + rows / 10};
+    reportPath = Files.createTempFile("report", ".tsv");
+    BufferedWriter writer = Files.newBufferedWriter(reportPath);
+    new GenerateReports(targetProteins, entrapmentProteins, Options.parse(args, 0, GenerateReports.optionKeys)).writeReport(writer);
+    writer.close();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    Files.delete(reportPath);
+  }
+
+  @Benchmark
+  public DiannReport.Counts calculateFDP() throws Exception {
+    return CalculateFDP.diannParser(reportPath, entrapmentMarker, new double[]{0.01}, new double[]{0.01}, new double[]{0.01}, new double[]{0.01}, threads);
+  }
+
+  @Benchmark
+  public DiannEntrapmentQValue.Entry diannEntrapmentQValue() throws Exception {
+    return DiannEntrapmentQValue.calculate(reportPath, entrapmentMarker, 0.01, 0.01, 0.01, 0.01, threads);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ShuffleBenchmark {
+
+  @Param({"100", "500", "2000"})
+  int proteinLength;
+
+  @Param({"1", "10"})
+  int N;
+
+  private String sequence;
+  private Digester digester;
+  private PeptideIndex index;
+
+  @Setup
+  public void setup() {
+    sequence = randomProtein(new Random(1), proteinLength);
+    digester = new Digester("KR", "P", true);
+    index = new PeptideIndex(64 << 20, PeptideRule.defaultRule.minLength);
+    Random random = new Random(2);
+    for (int i = 0; i < 1000; ++i) {
+      index.addTargetPeptides(randomProtein(random, 500), digester);
+    }
+    index.finishTargetPeptides();
+  }
+
+  @Benchmark
+  public String[] shuffle(Residues residues) {
+    residues.residues += (long) proteinLength * N;
+    return GenerateDatabase.shuffleSeqFY(sequence, digester, N);
+  }
+
+  // The --unique mode. The session is not committed, so every invocation sees the same index.
+  @Benchmark
+  public String[] shuffleUnique(Residues residues) {
+    residues.residues += (long) proteinLength * N;
+    return GenerateDatabase.shuffleSeqFY(sequence, digester, N, index.newSession(false));
+  }
+
+  // The shuffled residues, reported by JMH as residues per second next to the proteins per second.
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Residues {
+
+    public long residues;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      residues = 0;
+    }
+  }
+
+  // Starts with M like most UniProt proteins, followed by uniformly drawn residues.
+  static String randomProtein(Random random, int length) {
+    StringBuilder sb = new StringBuilder(length);
+    sb.append('M');
+    for (int i = 1; i < length; ++i) {
+      sb.append("ACDEFGHIKLMNPQRSTVWY".charAt(random.nextInt(20)));
+    }
+    return sb.toString();
+  }
+}
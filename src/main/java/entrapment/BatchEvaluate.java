@@ -0,0 +1,359 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs many CalculateFDP, CalculateFDPPeptideTsv, CalculateFDPProteinTsv and DiannEntrapmentQValue jobs in one JVM and writes all of their
+ * counts and FDPs into one table. Each line of the job file is a tool name followed by the positional arguments of that tool, separated by tabs
+ * (or by spaces if there is no tab). The r of DiannEntrapmentQValue can also be a fasta file path. Empty lines and lines starting with # are
+ * skipped. Each fasta file is summarized once, however many jobs use it.
+ */
+public class BatchEvaluate {
+
+  static final String[] tools = {"CalculateFDP", "CalculateFDPPeptideTsv", "CalculateFDPProteinTsv", "DiannEntrapmentQValue"};
+  private static final int[] argumentCounts = {7, 3, 3, 8}; // by tool
+  static final String[] columns = {"job", "tool", "fasta", "result", "level", "run_q_value_threshold", "global_q_value_threshold", "r", "target_count", "decoy_count", "entrapment_count", "entrapment_decoy_count", "combined_fdp", "lower_bound_fdp", "sample_fdp", "entrapment_q_value_filtered_count", "error"};
+  private static final List<String> textColumns = Arrays.asList("tool", "fasta", "result", "level", "error");
+
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.out.println("Usage: java -cp EntrapBench.jar entrapment.BatchEvaluate <job file path> <output CSV file path> [--threads=<number of concurrent jobs, 0 = all cores>] [--job-threads=<number of threads of each job, 0 = all cores>] [--job-memory=<MB of heap reserved for each running job>] [--json=<JSON file path of the same table>]");
+      System.out.println("Each line of the job file is a tool name (" + String.join(", ", tools) + ") followed by the positional arguments of that tool, separated by tabs.");
+      System.exit(1);
+    }
+
+    Path jobPath = Paths.get(args[0]);
+    Path outputPath = Paths.get(args[1]);
+    Options options = Options.parse(args, 2, "threads", "job-threads", "job-memory", "json");
+    int threads = options.getThreads();
+    int jobThreads = options.getInt("job-threads", 1);
+    if (jobThreads <= 0) {
+      jobThreads = Runtime.getRuntime().availableProcessors();
+    }
+    int jobMemory = options.getInt("job-memory", 512);
+    if (jobMemory <= 0) {
+      System.out.println("The job memory needs to be positive.");
+      System.exit(1);
+    }
+
+    if (!Files.exists(jobPath) || !Files.isReadable(jobPath) || !Files.isRegularFile(jobPath)) {
+      System.out.println("The job file " + args[0] + " is not valid.");
+      System.exit(1);
+    }
+
+    try {
+      List<Job> jobs = readJobs(jobPath);
+      long start = System.nanoTime();
+      List<List<String[]>> rows = run(jobs, threads, jobThreads, jobMemory);
+      writeCsv(outputPath, rows);
+      if (options.has("json")) {
+        writeJson(Paths.get(options.getString("json", null)), rows);
+      }
+      int failed = 0;
+      for (List<String[]> jobRows : rows) {
+        if (!jobRows.get(0)[columns.length - 1].isEmpty()) {
+          ++failed;
+        }
+      }
+      System.out.println(jobs.size() + " jobs (" + failed + " failed) in " + Math.round((System.nanoTime() - start) * 1e-9) + " s, written to " + outputPath);
+    } catch (Exception ex) {
+      ex.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  // Checks every line before any job runs, so that a typo does not show up after hours of work. Prints a message and exits on invalid lines.
+  static List<Job> readJobs(Path jobPath) throws Exception {
+    List<Job> jobs = new ArrayList<>();
+    int lineNumber = 0;
+    for (String line : Files.readAllLines(jobPath)) {
+      ++lineNumber;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split(line.indexOf('\t') >= 0 ? "\\s*\t\\s*" : "\\s+");
+      int tool = Arrays.asList(tools).indexOf(fields[0]);
+      String problem = null;
+      if (tool < 0) {
+        problem = "unknown tool " + fields[0];
+      } else if (fields.length - 1 != argumentCounts[tool]) {
+        problem = fields[0] + " needs " + argumentCounts[tool] + " arguments";
+      } else {
+        Job job = new Job(jobs.size() + 1, tool, Arrays.copyOfRange(fields, 1, fields.length));
+        problem = job.check();
+        if (problem == null) {
+          jobs.add(job);
+        }
+      }
+      if (problem != null) {
+        System.out.println("Line " + lineNumber + " of the job file " + jobPath + " is not valid: " + problem + ".");
+        System.exit(1);
+      }
+    }
+    return jobs;
+  }
+
+  // The rows of each job in job order. A job that throws gets one row with the error instead of failing the batch.
+  static List<List<String[]>> run(List<Job> jobs, int threads, int jobThreads, int jobMemory) throws Exception {
+    // The heap is shared, so a job cannot be limited to its memory. Instead, jobs only start while the heap has room for their reservation.
+    int heapMemory = (int) Math.max(1, Runtime.getRuntime().maxMemory() >> 20);
+    int reservation = Math.min(jobMemory, heapMemory);
+    Semaphore memory = new Semaphore(heapMemory, true);
+    FastaSummaries summaries = new FastaSummaries();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<List<String[]>>> futures = new ArrayList<>();
+    for (Job job : jobs) {
+      futures.add(executor.submit(() -> {
+        memory.acquire(reservation);
+        long start = System.nanoTime();
+        List<String[]> rows;
+        try {
+          rows = job.evaluate(summaries, jobThreads);
+        } catch (Throwable ex) {
+          String[] row = job.row("", "", "", Double.NaN);
+          row[columns.length - 1] = String.valueOf(ex);
+          rows = new ArrayList<>();
+          rows.add(row);
+        } finally {
+          memory.release(reservation);
+        }
+        System.out.println("Job " + job.number + " of " + jobs.size() + " (" + job.toolName() + " " + job.resultPath().getFileName() + ") " + (rows.get(0)[columns.length - 1].isEmpty() ? "finished" : "failed") + " in " + Math.round((System.nanoTime() - start) * 1e-6) + " ms.");
+        return rows;
+      }));
+    }
+    List<List<String[]>> rows = new ArrayList<>();
+    try {
+      for (Future<List<String[]>> future : futures) {
+        rows.add(future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    return rows;
+  }
+
+  private static void writeCsv(Path path, List<List<String[]>> rows) throws Exception {
+    BufferedWriter writer = Files.newBufferedWriter(path);
+    writer.write(String.join(",", columns) + "\n");
+    for (List<String[]> jobRows : rows) {
+      for (String[] row : jobRows) {
+        for (int i = 0; i < row.length; ++i) {
+          if (i > 0) {
+            writer.write(',');
+          }
+          writer.write(RunBreakdown.csvField(row[i]));
+        }
+        writer.write('\n');
+      }
+    }
+    writer.close();
+  }
+
+  // An array of objects with the CSV columns as keys. Empty fields, NaN and infinite values are null.
+  private static void writeJson(Path path, List<List<String[]>> rows) throws Exception {
+    BufferedWriter writer = Files.newBufferedWriter(path);
+    writer.write("[");
+    boolean first = true;
+    for (List<String[]> jobRows : rows) {
+      for (String[] row : jobRows) {
+        writer.write(first ? "\n  {" : ",\n  {");
+        first = false;
+        for (int i = 0; i < row.length; ++i) {
+          writer.write((i > 0 ? ", \"" : "\"") + columns[i] + "\": ");
+          if (row[i].isEmpty() || row[i].equals("NaN") || row[i].endsWith("Infinity")) {
+            writer.write("null");
+          } else if (textColumns.contains(columns[i])) {
+            writer.write(jsonString(row[i]));
+          } else {
+            writer.write(row[i]);
+          }
+        }
+        writer.write("}");
+      }
+    }
+    writer.write("\n]\n");
+    writer.close();
+  }
+
+  private static String jsonString(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+
+  static class Job {
+
+    final int number;
+    final int tool;
+    final String[] args;
+
+    Job(int number, int tool, String[] args) {
+      this.number = number;
+      this.tool = tool;
+      this.args = args;
+    }
+
+    String toolName() {
+      return tools[tool];
+    }
+
+    // Null if the arguments are valid, otherwise the problem.
+    String check() {
+      try {
+        int entrapmentStyle = Integer.parseInt(args[tool == 3 ? 0 : 1]);
+        if (entrapmentStyle != 0 && entrapmentStyle != 1) {
+          return "unknown entrapment style " + entrapmentStyle;
+        }
+        if (tool == 0) {
+          for (int i = 3; i < 7; ++i) {
+            CalculateFDP.parseThresholds(args[i]);
+          }
+        } else if (tool == 3) {
+          for (int i = 2; i < 6; ++i) {
+            Double.parseDouble(args[i]);
+          }
+        }
+      } catch (NumberFormatException ex) {
+        return ex.getMessage();
+      }
+      Path fastaPath = fastaPath();
+      if (fastaPath != null && (!Files.isReadable(fastaPath) || !Files.isRegularFile(fastaPath))) {
+        return "the fasta file " + fastaPath + " is not valid";
+      }
+      if (!Files.isReadable(resultPath()) || !Files.isRegularFile(resultPath())) {
+        return "the result file " + resultPath() + " is not valid";
+      }
+      return null;
+    }
+
+    // Null for DiannEntrapmentQValue with a given r.
+    Path fastaPath() {
+      if (tool != 3) {
+        return Paths.get(args[0]);
+      }
+      try {
+        Double.parseDouble(args[1]);
+        return null;
+      } catch (NumberFormatException ex) {
+        return Paths.get(args[1]);
+      }
+    }
+
+    Path resultPath() {
+      return Paths.get(args[tool == 3 ? 6 : 2]);
+    }
+
+    List<String[]> evaluate(FastaSummaries summaries, int threads) throws Exception {
+      int entrapmentStyle = Integer.parseInt(args[tool == 3 ? 0 : 1]);
+      String entrapmentMarker = FastaSummary.entrapmentMarkers[entrapmentStyle];
+      double r;
+      if (fastaPath() == null) {
+        r = Double.parseDouble(args[1]);
+      } else {
+        FastaSummary summary = summaries.get(fastaPath());
+        r = (double) summary.entrapmentProteinCounts[entrapmentStyle] / (double) summary.nonEntrapmentProteinCounts[entrapmentStyle];
+      }
+      List<String[]> rows = new ArrayList<>();
+      if (tool == 0) {
+        DiannReport.Counts counts = CalculateFDP.diannParser(resultPath(), entrapmentMarker, CalculateFDP.parseThresholds(args[3]), CalculateFDP.parseThresholds(args[4]), CalculateFDP.parseThresholds(args[5]), CalculateFDP.parseThresholds(args[6]), threads);
+        long[] targetPrecursorCounts = counts.targetPrecursorCounts();
+        long[] decoyPrecursorCounts = counts.decoyPrecursorCounts();
+        long[] entrapmentPrecursorCounts = counts.entrapmentPrecursorCounts();
+        long[] decoyEntrapmentPrecursorCounts = counts.decoyEntrapmentPrecursorCounts();
+        for (int i = 0; i < counts.precursorGrid.cellCount(); ++i) {
+          rows.add(row("precursor", String.valueOf(counts.precursorGrid.runThreshold(i)), String.valueOf(counts.precursorGrid.globalThreshold(i)), r, targetPrecursorCounts[i], decoyPrecursorCounts[i], entrapmentPrecursorCounts[i], decoyEntrapmentPrecursorCounts[i]));
+        }
+        long[] targetProteinCounts = counts.targetProteinCounts();
+        long[] entrapmentProteinCounts = counts.entrapmentProteinCounts();
+        for (int i = 0; i < counts.pgGrid.cellCount(); ++i) {
+          rows.add(row("protein", String.valueOf(counts.pgGrid.runThreshold(i)), String.valueOf(counts.pgGrid.globalThreshold(i)), r, targetProteinCounts[i], -1, entrapmentProteinCounts[i], -1));
+        }
+      } else if (tool == 1) {
+        CalculateFDPPeptideTsv.PeptideTsvResult result = CalculateFDPPeptideTsv.peptideTsvParser(resultPath(), entrapmentMarker, threads);
+        rows.add(row("peptide", "", "", r, result.targetPeptideCount, -1, result.entrapmentPeptideCount, -1));
+      } else if (tool == 2) {
+        CalculateFDPProteinTsv.ProteinTsvResult result = CalculateFDPProteinTsv.proteinTsvParser(resultPath(), entrapmentMarker, threads);
+        rows.add(row("protein", "", "", r, result.targetProteinCount, -1, result.entrapmentProteinCount, -1));
+      } else {
+        DiannEntrapmentQValue.Entry entry = DiannEntrapmentQValue.calculate(resultPath(), entrapmentMarker, Double.parseDouble(args[2]), Double.parseDouble(args[3]), Double.parseDouble(args[4]), Double.parseDouble(args[5]), threads);
+        DiannEntrapmentQValue.writeQValues(Paths.get(args[7]), entry);
+        String[] precursorRow = row("precursor", args[2], args[3], r, entry.reportedTargetPrecursorCount, entry.reportedDecoyPrecursorCount, entry.reportedEntrapmentPrecursorCount, entry.reportedEntrapmentDecoyPrecursorCount);
+        precursorRow[columns.length - 2] = String.valueOf(entry.entrapmentQValueFilteredPrecursorCount);
+        rows.add(precursorRow);
+        rows.add(row("protein", args[4], args[5], r, entry.targetProteinCount, -1, entry.entrapmentProteinCount, -1));
+      }
+      return rows;
+    }
+
+    // A negative count is an empty field, like the decoy protein counts of RunBreakdown.
+    String[] row(String level, String runThreshold, String globalThreshold, double r, long targetCount, long decoyCount, long entrapmentCount, long entrapmentDecoyCount) {
+      String[] fdps = CalculateFDP.fdps(targetCount, entrapmentCount, r, 1).split(",");
+      return new String[]{String.valueOf(number), toolName(), fastaPath() == null ? "" : fastaPath().toString(), resultPath().toString(), level, runThreshold, globalThreshold, String.valueOf(r), String.valueOf(targetCount), decoyCount < 0 ? "" : String.valueOf(decoyCount), String.valueOf(entrapmentCount), entrapmentDecoyCount < 0 ? "" : String.valueOf(entrapmentDecoyCount), fdps[0], fdps[1], fdps[2], "", ""};
+    }
+
+    String[] row(String level, String runThreshold, String globalThreshold, double r) {
+      String[] row = row(level, runThreshold, globalThreshold, r, 0, -1, 0, -1);
+      Arrays.fill(row, 4, columns.length, "");
+      return row;
+    }
+  }
+
+
+  // The summaries by fasta file, loaded once by the first job that needs them while the other jobs wait.
+  static class FastaSummaries {
+
+    private final ConcurrentHashMap<Path, CompletableFuture<FastaSummary>> summaries = new ConcurrentHashMap<>();
+
+    FastaSummary get(Path fastaPath) throws Exception {
+      Path key = fastaPath.toAbsolutePath().normalize();
+      CompletableFuture<FastaSummary> future = new CompletableFuture<>();
+      CompletableFuture<FastaSummary> existing = summaries.putIfAbsent(key, future);
+      if (existing != null) {
+        return existing.get();
+      }
+      try {
+        future.complete(FastaSummary.load(fastaPath));
+      } catch (Throwable ex) {
+        future.completeExceptionally(ex);
+      }
+      return future.get();
+    }
+  }
+}
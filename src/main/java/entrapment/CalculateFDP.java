@@ -14,29 +14,28 @@
 
 package entrapment;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
-import java.util.Set;
 
 public class CalculateFDP {
 
   public static void main(String[] args) {
-    if (args.length != 7) {
-      System.out.println("Usage: java -cp EntrapBench.jar entrapment.CalculateFDP <fasta file path> <entrapment style> <result file path> <run precursor FDR> <global precursor FDR> <run protein group FDR> <global protein group FDR>");
+    if (args.length < 7) {
+      System.out.println("Usage: java -cp EntrapBench.jar entrapment.CalculateFDP <fasta file path> <entrapment style> <result file path> <run precursor FDR> <global precursor FDR> <run protein group FDR> <global protein group FDR> [--threads=<number of threads, 0 = all cores>] [--per-run=<CSV file path of the per-run counts and FDPs>]");
+      System.out.println("Each FDR can be a comma-separated list, e.g. 0.005,0.01,0.05. Then every combination of the run and global FDRs is calculated in one pass and written as a table.");
       System.exit(1);
     }
 
     Path fastaPath = Paths.get(args[0]);
     int entrapmentStyle = Integer.parseInt(args[1]);
     Path resultPath = Paths.get(args[2]);
-    double runPrecursorFdrT = Double.parseDouble(args[3]);
-    double globalPrecursorFdrT = Double.parseDouble(args[4]);
-    double runPGFdrT = Double.parseDouble(args[5]);
-    double globalPGFdrT = Double.parseDouble(args[6]);
+    double[] runPrecursorFdrTs = parseThresholds(args[3]);
+    double[] globalPrecursorFdrTs = parseThresholds(args[4]);
+    double[] runPGFdrTs = parseThresholds(args[5]);
+    double[] globalPGFdrTs = parseThresholds(args[6]);
+    boolean sweep = runPrecursorFdrTs.length > 1 || globalPrecursorFdrTs.length > 1 || runPGFdrTs.length > 1 || globalPGFdrTs.length > 1;
+    Options options = Options.parse(args, 7, "threads", "per-run");
 
     if (entrapmentStyle != 0 && entrapmentStyle != 1) {
       System.out.println("Unknown entrapment style.");
@@ -56,32 +55,30 @@ public class CalculateFDP {
     }
 
     try {
-      Entry1 entry1 = summaryEntrapments(fastaPath, entrapmentMarker);
-      Entry2 entry2 = diannParser(resultPath, entrapmentMarker, runPrecursorFdrT, globalPrecursorFdrT, runPGFdrT, globalPGFdrT);
+      Entry1 entry1 = FastaSummary.summaryEntrapments(fastaPath, entrapmentMarker);
+      DiannReport.Counts counts = diannParser(resultPath, entrapmentMarker, runPrecursorFdrTs, globalPrecursorFdrTs, runPGFdrTs, globalPGFdrTs, options.getThreads());
       double r = (double) entry1.entrapmentProteinCount / (double) entry1.nonEntrapmentProteinCount;
 
       System.out.println("Non-entrapment proteins in the database: " + entry1.nonEntrapmentProteinCount);
       System.out.println("Entrapment proteins in the database: " + entry1.entrapmentProteinCount);
       System.out.println("r: " + r);
+      System.out.println(counts.classifier.counters());
       System.out.println();
-      if (entry2.thereAreDecoyScoreLargerThanTargetScore) {
+      if (counts.thereAreDecoyScoreLargerThanTargetScore) {
         System.out.println("WARNING: There are decoy scores larger than target scores.");
       }
-      System.out.println("Precursor level filtered with " + runPrecursorFdrT + " run q-value and " + globalPrecursorFdrT + " global q-value:");
-      System.out.println("Target: " + entry2.targetPrecursorCount);
-      System.out.println("Decoy (not accurate because DIA-NN does not report all decoys and the decoys are not FDR filtered): " + entry2.decoyPrecursorCount);
-      System.out.println("Entrapment: " + entry2.entrapmentPrecursorCount);
-      System.out.println("Decoy entrapment (not accurate because DIA-NN does not report all decoys and the decoys are not FDR filtered): " + entry2.decoyEntrapmentPrecursorCount);
-      System.out.println("ET * (1 + 1/r) / (NT + ET): " + (entry2.entrapmentPrecursorCount * (1 + 1 / r) * 100.0 / (entry2.targetPrecursorCount + entry2.entrapmentPrecursorCount)) + "%");
-      System.out.println("ET / (NT + ET): " + (entry2.entrapmentPrecursorCount * 100.0 / (entry2.targetPrecursorCount + entry2.entrapmentPrecursorCount)) + "%");
-      System.out.println("ET * (1/r) / NT: " + (entry2.entrapmentPrecursorCount * (1 / r) * 100.0 / entry2.targetPrecursorCount) + "%");
-      System.out.println();
-      System.out.println("Protein level filtered with " + runPGFdrT + " run q-value and " + globalPGFdrT + " global q-value:");
-      System.out.println("Target: " + entry2.targetProteinCount);
-      System.out.println("Entrapment: " + entry2.entrapmentProteinCount);
-      System.out.println("ET * (1 + 1/r) / (NT + ET): " + (entry2.entrapmentProteinCount * (1 + 1 / r) * 100.0 / (entry2.targetProteinCount + entry2.entrapmentProteinCount)) + "%");
-      System.out.println("ET / (NT + ET): " + (entry2.entrapmentProteinCount * 100.0 / (entry2.targetProteinCount + entry2.entrapmentProteinCount)) + "%");
-      System.out.println("ET * (1/r) / NT: " + (entry2.entrapmentProteinCount * (1 / r) * 100.0 / entry2.targetProteinCount) + "%");
+      if (sweep) {
+        printSweep(counts, r);
+      } else {
+        printTotals(counts, r, runPrecursorFdrTs[0], globalPrecursorFdrTs[0], runPGFdrTs[0], globalPGFdrTs[0]);
+      }
+
+      if (options.has("per-run")) {
+        RunBreakdown runBreakdown = new RunBreakdown(counts);
+        runBreakdown.write(Paths.get(options.getString("per-run", null)), r);
+        System.out.println();
+        runBreakdown.printDistribution(r);
+      }
     } catch (Exception ex) {
       ex.printStackTrace();
       System.exit(1);
@@ -89,121 +86,64 @@ public class CalculateFDP {
 
   }
 
-  private static Entry1 summaryEntrapments(Path fastaPath, String entrapmentMarker) throws Exception {
-    String line;
-    BufferedReader reader = new BufferedReader(new FileReader(fastaPath.toFile()));
-    long entrapmentProteinCount = 0;
-    long nonEntrapmentProteinCount = 0;
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.startsWith(">")) {
-        if (line.contains(entrapmentMarker)) {
-          ++entrapmentProteinCount;
-        } else {
-          ++nonEntrapmentProteinCount;
-        }
-      }
-    }
-    reader.close();
+  static DiannReport.Counts diannParser(Path resultPath, String entrapmentMarker, double[] runPrecursorFdrTs, double[] globalPrecursorFdrTs, double[] runPGFdrTs, double[] globalPGFdrTs, int threads) throws Exception {
+    return new DiannReport(entrapmentMarker, runPrecursorFdrTs, globalPrecursorFdrTs, runPGFdrTs, globalPGFdrTs, 0).parse(resultPath, threads);
+  }
 
-    return new Entry1(nonEntrapmentProteinCount, entrapmentProteinCount);
+  // A comma-separated list of thresholds.
+  static double[] parseThresholds(String arg) {
+    String[] parts = arg.split(",");
+    double[] thresholds = new double[parts.length];
+    for (int i = 0; i < parts.length; ++i) {
+      thresholds[i] = Double.parseDouble(parts[i].trim());
+    }
+    return thresholds;
   }
 
-  private static Entry2 diannParser(Path resultPath, String entrapmentMarker, double runPrecursorFdrT, double globalPrecursorFdrT, double runPGFdrT, double globalPGFdrT) throws Exception {
-    long targetPrecursorCount = 0, entrapmentPrecursorCount = 0, decoyPrecursorCount = 0, decoyEntrapmentPrecursorCount = 0;
-    Set<String> targetProteins = new HashSet<>(), entrapmentProteins = new HashSet<>();
-    String line;
-    BufferedReader reader = new BufferedReader(new FileReader(resultPath.toFile()));
-    int runColumnIdx = -1;
-    int pgColumnIdx = -1;
-    int cscoreColumnIdx = -1;
-    int decoyCscoreColumnIdx = -1;
-    int runPrecursorFdrColumnIdx = -1;
-    int globalPrecursorFdrColumnIdx = -1;
-    int runPGFdrColumnIdx = -1;
-    int globalPGFdrColumnIdx = -1;
-    boolean thereAreDecoyScoreLargerThanTargetScore = false;
-
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.isEmpty()) {
-        continue;
-      }
+  private static void printTotals(DiannReport.Counts counts, double r, double runPrecursorFdrT, double globalPrecursorFdrT, double runPGFdrT, double globalPGFdrT) {
+    Entry2 entry2 = new Entry2(counts.targetPrecursorCounts()[0], counts.decoyPrecursorCounts()[0], counts.entrapmentPrecursorCounts()[0], counts.decoyEntrapmentPrecursorCounts()[0], counts.targetProteinCounts()[0], counts.entrapmentProteinCounts()[0], counts.thereAreDecoyScoreLargerThanTargetScore);
+    System.out.println("Precursor level filtered with " + runPrecursorFdrT + " run q-value and " + globalPrecursorFdrT + " global q-value:");
+    System.out.println("Target: " + entry2.targetPrecursorCount);
+    System.out.println("Decoy (not accurate because DIA-NN does not report all decoys and the decoys are not FDR filtered): " + entry2.decoyPrecursorCount);
+    System.out.println("Entrapment: " + entry2.entrapmentPrecursorCount);
+    System.out.println("Decoy entrapment (not accurate because DIA-NN does not report all decoys and the decoys are not FDR filtered): " + entry2.decoyEntrapmentPrecursorCount);
+    System.out.println("ET * (1 + 1/r) / (NT + ET): " + (entry2.entrapmentPrecursorCount * (1 + 1 / r) * 100.0 / (entry2.targetPrecursorCount + entry2.entrapmentPrecursorCount)) + "%");
+    System.out.println("ET / (NT + ET): " + (entry2.entrapmentPrecursorCount * 100.0 / (entry2.targetPrecursorCount + entry2.entrapmentPrecursorCount)) + "%");
+    System.out.println("ET * (1/r) / NT: " + (entry2.entrapmentPrecursorCount * (1 / r) * 100.0 / entry2.targetPrecursorCount) + "%");
+    System.out.println();
+    System.out.println("Protein level filtered with " + runPGFdrT + " run q-value and " + globalPGFdrT + " global q-value:");
+    System.out.println("Target: " + entry2.targetProteinCount);
+    System.out.println("Entrapment: " + entry2.entrapmentProteinCount);
+    System.out.println("ET * (1 + 1/r) / (NT + ET): " + (entry2.entrapmentProteinCount * (1 + 1 / r) * 100.0 / (entry2.targetProteinCount + entry2.entrapmentProteinCount)) + "%");
+    System.out.println("ET / (NT + ET): " + (entry2.entrapmentProteinCount * 100.0 / (entry2.targetProteinCount + entry2.entrapmentProteinCount)) + "%");
+    System.out.println("ET * (1/r) / NT: " + (entry2.entrapmentProteinCount * (1 / r) * 100.0 / entry2.targetProteinCount) + "%");
+  }
 
-      String[] parts = line.split("\t");
-      if (line.startsWith("File.Name")) {
-        for (int i = 0; i < parts.length; ++i) {
-          if (parts[i].trim().equalsIgnoreCase("Run")) {
-            runColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Protein.Group")) {
-            pgColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("CScore")) {
-            cscoreColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Decoy.CScore")) {
-            decoyCscoreColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Q.Value")) {
-            runPrecursorFdrColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Global.Q.Value")) {
-            globalPrecursorFdrColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("PG.Q.Value")) {
-            runPGFdrColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Global.PG.Q.Value")) {
-            globalPGFdrColumnIdx = i;
-          }
-        }
-        if (runColumnIdx < 0 || pgColumnIdx < 0 || cscoreColumnIdx < 0 || decoyCscoreColumnIdx < 0 || runPrecursorFdrColumnIdx < 0 || globalPrecursorFdrColumnIdx < 0 || runPGFdrColumnIdx < 0 || globalPGFdrColumnIdx < 0) {
-          System.out.println("Some columns are missing in the result file: " + resultPath.toAbsolutePath());
-          System.exit(1);
-        }
-      } else {
-        String run = parts[runColumnIdx].trim();
-        String pg = parts[pgColumnIdx].trim();
-        double cscore = Double.parseDouble(parts[cscoreColumnIdx]);
-        double decoyCscore = Double.parseDouble(parts[decoyCscoreColumnIdx]);
-        double runPrecursorFdr = Double.parseDouble(parts[runPrecursorFdrColumnIdx]);
-        double globalPrecursorFdr = Double.parseDouble(parts[globalPrecursorFdrColumnIdx]);
-        double runPGFdr = Double.parseDouble(parts[runPGFdrColumnIdx]);
-        double globalPGFdr = Double.parseDouble(parts[globalPGFdrColumnIdx]);
-
-        if (cscore <= decoyCscore) {
-          thereAreDecoyScoreLargerThanTargetScore = true;
-        }
-
-        String[] parts2 = pg.split(";");
-        boolean isEntrapment = true;
-        for (String p : parts2) {
-          if (!p.contains(entrapmentMarker)) { // As long as there is a non-entrapment protein, it is not an entrapment.
-            isEntrapment = false;
-            break;
-          }
-        }
-
-        if (runPrecursorFdr < runPrecursorFdrT && globalPrecursorFdr < globalPrecursorFdrT) {
-          if (isEntrapment) {
-            ++entrapmentPrecursorCount;
-            if (decoyCscore > 0) {
-              ++decoyEntrapmentPrecursorCount;
-            }
-          } else {
-            ++targetPrecursorCount;
-            if (decoyCscore > 0) {
-              ++decoyPrecursorCount;
-            }
-          }
-        }
-
-        if (runPGFdr < runPGFdrT && globalPGFdr < globalPGFdrT) {
-          if (isEntrapment) {
-            entrapmentProteins.add(run + "_" + pg);
-          } else {
-            targetProteins.add(run + "_" + pg);
-          }
-        }
-      }
+  // One row per combination of the run and global thresholds, with the thresholds in ascending order.
+  private static void printSweep(DiannReport.Counts counts, double r) {
+    long[] targetPrecursorCounts = counts.targetPrecursorCounts();
+    long[] decoyPrecursorCounts = counts.decoyPrecursorCounts();
+    long[] entrapmentPrecursorCounts = counts.entrapmentPrecursorCounts();
+    long[] decoyEntrapmentPrecursorCounts = counts.decoyEntrapmentPrecursorCounts();
+    System.out.println("Precursor level (decoys are not accurate because DIA-NN does not report all decoys and the decoys are not FDR filtered):");
+    System.out.println("run q-value,global q-value,target,decoy,entrapment,decoy entrapment,ET * (1 + 1/r) / (NT + ET) (%),ET / (NT + ET) (%),ET * (1/r) / NT (%)");
+    for (int i = 0; i < targetPrecursorCounts.length; ++i) {
+      System.out.println(counts.precursorGrid.runThreshold(i) + "," + counts.precursorGrid.globalThreshold(i) + "," + targetPrecursorCounts[i] + "," + decoyPrecursorCounts[i] + "," + entrapmentPrecursorCounts[i] + "," + decoyEntrapmentPrecursorCounts[i] + "," + fdps(targetPrecursorCounts[i], entrapmentPrecursorCounts[i], r, 100.0));
+    }
+    System.out.println();
+
+    long[] targetProteinCounts = counts.targetProteinCounts();
+    long[] entrapmentProteinCounts = counts.entrapmentProteinCounts();
+    System.out.println("Protein level:");
+    System.out.println("run q-value,global q-value,target,entrapment,ET * (1 + 1/r) / (NT + ET) (%),ET / (NT + ET) (%),ET * (1/r) / NT (%)");
+    for (int i = 0; i < targetProteinCounts.length; ++i) {
+      System.out.println(counts.pgGrid.runThreshold(i) + "," + counts.pgGrid.globalThreshold(i) + "," + targetProteinCounts[i] + "," + entrapmentProteinCounts[i] + "," + fdps(targetProteinCounts[i], entrapmentProteinCounts[i], r, 100.0));
     }
-    reader.close();
+  }
 
-    return new Entry2(targetPrecursorCount, decoyPrecursorCount, entrapmentPrecursorCount, decoyEntrapmentPrecursorCount, targetProteins.size(), entrapmentProteins.size(), thereAreDecoyScoreLargerThanTargetScore);
+  // The combined, the lower bound and the sample FDPs times the scale, i.e. 100 for percentages and 1 for fractions.
+  static String fdps(double targetCount, double entrapmentCount, double r, double scale) {
+    return (entrapmentCount * (1 + 1 / r) * scale / (targetCount + entrapmentCount)) + "," + (entrapmentCount * scale / (targetCount + entrapmentCount)) + "," + (entrapmentCount * (1 / r) * scale / targetCount);
   }
 
 
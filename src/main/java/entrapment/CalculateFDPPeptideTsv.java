@@ -14,8 +14,7 @@
 
 package entrapment;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -23,14 +22,15 @@ import java.nio.file.Paths;
 public class CalculateFDPPeptideTsv {
 
   public static void main(String[] args) {
-    if (args.length != 3) {
-      System.out.println("Usage: java -cp EntrapBench.jar entrapment.CalculateFDPPeptideTsv <fasta file path> <entrapment style> <peptide.tsv file path>");
+    if (args.length < 3) {
+      System.out.println("Usage: java -cp EntrapBench.jar entrapment.CalculateFDPPeptideTsv <fasta file path> <entrapment style> <peptide.tsv file path> [--threads=<number of threads, 0 = all cores>]");
       System.exit(1);
     }
 
     Path fastaPath = Paths.get(args[0]);
     int entrapmentStyle = Integer.parseInt(args[1]);
     Path resultPath = Paths.get(args[2]);
+    Options options = Options.parse(args, 3, "threads");
 
     if (entrapmentStyle != 0 && entrapmentStyle != 1) {
       System.out.println("Unknown entrapment style.");
@@ -50,13 +50,14 @@ public class CalculateFDPPeptideTsv {
     }
 
     try {
-      CalculateFDP.Entry1 entry1 = summaryEntrapments(fastaPath, entrapmentMarker);
-      PeptideTsvResult entry2 = peptideTsvParser(resultPath, entrapmentMarker);
+      CalculateFDP.Entry1 entry1 = FastaSummary.summaryEntrapments(fastaPath, entrapmentMarker);
+      PeptideTsvResult entry2 = peptideTsvParser(resultPath, entrapmentMarker, options.getThreads());
       double r = (double) entry1.entrapmentProteinCount / (double) entry1.nonEntrapmentProteinCount;
 
       System.out.println("Non-entrapment proteins in the database: " + entry1.nonEntrapmentProteinCount);
       System.out.println("Entrapment proteins in the database: " + entry1.entrapmentProteinCount);
       System.out.println("r: " + r);
+      System.out.println(entry2.classifier.counters());
       System.out.println();
       System.out.println("Peptide level:");
       System.out.println("Target: " + entry2.targetPeptideCount);
@@ -70,43 +71,16 @@ public class CalculateFDPPeptideTsv {
     }
   }
 
-  private static CalculateFDP.Entry1 summaryEntrapments(Path fastaPath, String entrapmentMarker) throws Exception {
-    String line;
-    BufferedReader reader = new BufferedReader(new FileReader(fastaPath.toFile()));
-    long entrapmentProteinCount = 0;
-    long nonEntrapmentProteinCount = 0;
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.startsWith(">")) {
-        if (line.contains(entrapmentMarker)) {
-          ++entrapmentProteinCount;
-        } else {
-          ++nonEntrapmentProteinCount;
-        }
-      }
-    }
-    reader.close();
+  static PeptideTsvResult peptideTsvParser(Path resultPath, String entrapmentMarker, int threads) throws Exception {
+    return new TsvParser<PeptideTsvResult>("Peptide\t") {
 
-    return new CalculateFDP.Entry1(nonEntrapmentProteinCount, entrapmentProteinCount);
-  }
-
-  private static PeptideTsvResult peptideTsvParser(Path resultPath, String entrapmentMarker) throws Exception {
-    long targetPeptideCount = 0, entrapmentPeptideCount = 0;
-    String line;
-    BufferedReader reader = new BufferedReader(new FileReader(resultPath.toFile()));
-    int proteinColumnIdx = -1;
-    int mappedProteinsColumnIdx = -1;
-
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.isEmpty()) {
-        continue;
-      }
+      private int proteinColumnIdx = -1;
+      private int mappedProteinsColumnIdx = -1;
 
-      String[] parts = line.split("\t", -1);
-      if (line.startsWith("Peptide\t")) {
-        for (int i = 0; i < parts.length; ++i) {
-          String col = parts[i].trim();
+      @Override
+      int parseHeader(TsvTokenizer tokenizer, Path path) throws IOException {
+        for (int i = 0; i < tokenizer.fieldCount(); ++i) {
+          String col = tokenizer.getString(i);
           if (col.equalsIgnoreCase("Protein")) {
             proteinColumnIdx = i;
           } else if (col.equalsIgnoreCase("Mapped Proteins")) {
@@ -114,46 +88,54 @@ public class CalculateFDPPeptideTsv {
           }
         }
         if (proteinColumnIdx < 0) {
-          System.out.println("Protein column is missing in the result file: " + resultPath.toAbsolutePath());
-          System.exit(1);
+          throw new IOException("Protein column is missing in the result file: " + path.toAbsolutePath());
         }
-      } else {
-        String protein = parts[proteinColumnIdx].trim();
-        String mappedProteins = (mappedProteinsColumnIdx >= 0 && mappedProteinsColumnIdx < parts.length) ? parts[mappedProteinsColumnIdx].trim() : "";
-
-        // Combine primary protein and mapped proteins for entrapment check
-        boolean isEntrapment = protein.contains(entrapmentMarker);
-        if (isEntrapment && !mappedProteins.isEmpty()) {
-          String[] mapped = mappedProteins.split(",");
-          for (String m : mapped) {
-            if (!m.trim().contains(entrapmentMarker)) {
-              isEntrapment = false;
-              break;
-            }
+        return Math.max(proteinColumnIdx, mappedProteinsColumnIdx);
+      }
+
+      @Override
+      PeptideTsvResult newAccumulator() {
+        return new PeptideTsvResult(new EntrapmentClassifier(entrapmentMarker, ',', true, EntrapmentClassifier.defaultCapacity));
+      }
+
+      @Override
+      void parseRow(TsvTokenizer tokenizer, PeptideTsvResult result) {
+        // The protein needs the marker, and so does every one of the mapped proteins if there are any.
+        byte[] buffer = tokenizer.buffer();
+        boolean isEntrapment = result.classifier.containsMarker(buffer, tokenizer.start(proteinColumnIdx), tokenizer.end(proteinColumnIdx));
+        if (isEntrapment && mappedProteinsColumnIdx >= 0 && mappedProteinsColumnIdx < tokenizer.fieldCount()) {
+          int start = tokenizer.start(mappedProteinsColumnIdx);
+          int end = tokenizer.end(mappedProteinsColumnIdx);
+          if (start < end) {
+            isEntrapment = result.classifier.isEntrapment(buffer, start, end);
           }
         }
 
         if (isEntrapment) {
-          ++entrapmentPeptideCount;
+          ++result.entrapmentPeptideCount;
         } else {
-          ++targetPeptideCount;
+          ++result.targetPeptideCount;
         }
       }
-    }
-    reader.close();
-
-    return new PeptideTsvResult(targetPeptideCount, entrapmentPeptideCount);
+    }.parse(resultPath, threads);
   }
 
 
-  static class PeptideTsvResult {
+  static class PeptideTsvResult implements TsvParser.Accumulator<PeptideTsvResult> {
+
+    long targetPeptideCount = 0;
+    long entrapmentPeptideCount = 0;
+    final EntrapmentClassifier classifier;
 
-    final long targetPeptideCount;
-    final long entrapmentPeptideCount;
+    PeptideTsvResult(EntrapmentClassifier classifier) {
+      this.classifier = classifier;
+    }
 
-    public PeptideTsvResult(long targetPeptideCount, long entrapmentPeptideCount) {
-      this.targetPeptideCount = targetPeptideCount;
-      this.entrapmentPeptideCount = entrapmentPeptideCount;
+    @Override
+    public void merge(PeptideTsvResult other) {
+      targetPeptideCount += other.targetPeptideCount;
+      entrapmentPeptideCount += other.entrapmentPeptideCount;
+      classifier.merge(other.classifier);
     }
   }
 }
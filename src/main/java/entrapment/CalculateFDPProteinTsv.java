@@ -14,8 +14,7 @@
 
 package entrapment;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -23,14 +22,15 @@ import java.nio.file.Paths;
 public class CalculateFDPProteinTsv {
 
   public static void main(String[] args) {
-    if (args.length != 3) {
-      System.out.println("Usage: java -cp EntrapBench.jar entrapment.CalculateFDPProteinTsv <fasta file path> <entrapment style> <protein.tsv file path>");
+    if (args.length < 3) {
+      System.out.println("Usage: java -cp EntrapBench.jar entrapment.CalculateFDPProteinTsv <fasta file path> <entrapment style> <protein.tsv file path> [--threads=<number of threads, 0 = all cores>]");
       System.exit(1);
     }
 
     Path fastaPath = Paths.get(args[0]);
     int entrapmentStyle = Integer.parseInt(args[1]);
     Path resultPath = Paths.get(args[2]);
+    Options options = Options.parse(args, 3, "threads");
 
     if (entrapmentStyle != 0 && entrapmentStyle != 1) {
       System.out.println("Unknown entrapment style.");
@@ -50,13 +50,14 @@ public class CalculateFDPProteinTsv {
     }
 
     try {
-      CalculateFDP.Entry1 entry1 = summaryEntrapments(fastaPath, entrapmentMarker);
-      ProteinTsvResult entry2 = proteinTsvParser(resultPath, entrapmentMarker);
+      CalculateFDP.Entry1 entry1 = FastaSummary.summaryEntrapments(fastaPath, entrapmentMarker);
+      ProteinTsvResult entry2 = proteinTsvParser(resultPath, entrapmentMarker, options.getThreads());
       double r = (double) entry1.entrapmentProteinCount / (double) entry1.nonEntrapmentProteinCount;
 
       System.out.println("Non-entrapment proteins in the database: " + entry1.nonEntrapmentProteinCount);
       System.out.println("Entrapment proteins in the database: " + entry1.entrapmentProteinCount);
       System.out.println("r: " + r);
+      System.out.println(entry2.classifier.counters());
       System.out.println();
       System.out.println("Protein level:");
       System.out.println("Target: " + entry2.targetProteinCount);
@@ -70,43 +71,16 @@ public class CalculateFDPProteinTsv {
     }
   }
 
-  private static CalculateFDP.Entry1 summaryEntrapments(Path fastaPath, String entrapmentMarker) throws Exception {
-    String line;
-    BufferedReader reader = new BufferedReader(new FileReader(fastaPath.toFile()));
-    long entrapmentProteinCount = 0;
-    long nonEntrapmentProteinCount = 0;
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.startsWith(">")) {
-        if (line.contains(entrapmentMarker)) {
-          ++entrapmentProteinCount;
-        } else {
-          ++nonEntrapmentProteinCount;
-        }
-      }
-    }
-    reader.close();
+  static ProteinTsvResult proteinTsvParser(Path resultPath, String entrapmentMarker, int threads) throws Exception {
+    return new TsvParser<ProteinTsvResult>("Protein\t") {
 
-    return new CalculateFDP.Entry1(nonEntrapmentProteinCount, entrapmentProteinCount);
-  }
-
-  private static ProteinTsvResult proteinTsvParser(Path resultPath, String entrapmentMarker) throws Exception {
-    long targetProteinCount = 0, entrapmentProteinCount = 0;
-    String line;
-    BufferedReader reader = new BufferedReader(new FileReader(resultPath.toFile()));
-    int proteinColumnIdx = -1;
-    int indistinguishableProteinsColumnIdx = -1;
-
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.isEmpty()) {
-        continue;
-      }
+      private int proteinColumnIdx = -1;
+      private int indistinguishableProteinsColumnIdx = -1;
 
-      String[] parts = line.split("\t", -1);
-      if (line.startsWith("Protein\t")) {
-        for (int i = 0; i < parts.length; ++i) {
-          String col = parts[i].trim();
+      @Override
+      int parseHeader(TsvTokenizer tokenizer, Path path) throws IOException {
+        for (int i = 0; i < tokenizer.fieldCount(); ++i) {
+          String col = tokenizer.getString(i);
           if (col.equalsIgnoreCase("Protein")) {
             proteinColumnIdx = i;
           } else if (col.equalsIgnoreCase("Indistinguishable Proteins")) {
@@ -114,46 +88,54 @@ public class CalculateFDPProteinTsv {
           }
         }
         if (proteinColumnIdx < 0) {
-          System.out.println("Protein column is missing in the result file: " + resultPath.toAbsolutePath());
-          System.exit(1);
+          throw new IOException("Protein column is missing in the result file: " + path.toAbsolutePath());
         }
-      } else {
-        String protein = parts[proteinColumnIdx].trim();
-        String indistinguishableProteins = (indistinguishableProteinsColumnIdx >= 0 && indistinguishableProteinsColumnIdx < parts.length) ? parts[indistinguishableProteinsColumnIdx].trim() : "";
-
-        // Combine primary protein and indistinguishable proteins for entrapment check
-        boolean isEntrapment = protein.contains(entrapmentMarker);
-        if (isEntrapment && !indistinguishableProteins.isEmpty()) {
-          String[] indist = indistinguishableProteins.split(",");
-          for (String p : indist) {
-            if (!p.trim().contains(entrapmentMarker)) {
-              isEntrapment = false;
-              break;
-            }
+        return Math.max(proteinColumnIdx, indistinguishableProteinsColumnIdx);
+      }
+
+      @Override
+      ProteinTsvResult newAccumulator() {
+        return new ProteinTsvResult(new EntrapmentClassifier(entrapmentMarker, ',', true, EntrapmentClassifier.defaultCapacity));
+      }
+
+      @Override
+      void parseRow(TsvTokenizer tokenizer, ProteinTsvResult result) {
+        // The protein needs the marker, and so does every one of the indistinguishable proteins if there are any.
+        byte[] buffer = tokenizer.buffer();
+        boolean isEntrapment = result.classifier.containsMarker(buffer, tokenizer.start(proteinColumnIdx), tokenizer.end(proteinColumnIdx));
+        if (isEntrapment && indistinguishableProteinsColumnIdx >= 0 && indistinguishableProteinsColumnIdx < tokenizer.fieldCount()) {
+          int start = tokenizer.start(indistinguishableProteinsColumnIdx);
+          int end = tokenizer.end(indistinguishableProteinsColumnIdx);
+          if (start < end) {
+            isEntrapment = result.classifier.isEntrapment(buffer, start, end);
           }
         }
 
         if (isEntrapment) {
-          ++entrapmentProteinCount;
+          ++result.entrapmentProteinCount;
         } else {
-          ++targetProteinCount;
+          ++result.targetProteinCount;
         }
       }
-    }
-    reader.close();
-
-    return new ProteinTsvResult(targetProteinCount, entrapmentProteinCount);
+    }.parse(resultPath, threads);
   }
 
 
-  static class ProteinTsvResult {
+  static class ProteinTsvResult implements TsvParser.Accumulator<ProteinTsvResult> {
+
+    long targetProteinCount = 0;
+    long entrapmentProteinCount = 0;
+    final EntrapmentClassifier classifier;
 
-    final long targetProteinCount;
-    final long entrapmentProteinCount;
+    ProteinTsvResult(EntrapmentClassifier classifier) {
+      this.classifier = classifier;
+    }
 
-    public ProteinTsvResult(long targetProteinCount, long entrapmentProteinCount) {
-      this.targetProteinCount = targetProteinCount;
-      this.entrapmentProteinCount = entrapmentProteinCount;
+    @Override
+    public void merge(ProteinTsvResult other) {
+      targetProteinCount += other.targetProteinCount;
+      entrapmentProteinCount += other.entrapmentProteinCount;
+      classifier.merge(other.classifier);
     }
   }
 }
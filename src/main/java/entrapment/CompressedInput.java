@@ -0,0 +1,381 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import com.github.luben.zstd.ZstdInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * The uncompressed bytes of a gzip or zstd compressed file, which is recognized by its first bytes rather than its name. The file is decompressed on
+ * a thread of its own into a bounded queue of buffers, so the reader parses one buffer while the next ones are decompressed. BGZF files (gzip
+ * files of independent blocks, e.g. from bgzip) and zstd files of several frames (e.g. from pzstd) are split at the block or frame boundaries
+ * and the pieces are decompressed on several threads. Other files are decompressed sequentially. Not thread-safe.
+ */
+class CompressedInput implements ReadableByteChannel {
+
+  private static final int chunkSize = 1 << 20; // uncompressed bytes of a sequential buffer, compressed bytes of a parallel piece
+  private static final int zstdMagic = 0xfd2fb528;
+  private static final ByteBuffer endOfInput = ByteBuffer.allocate(0);
+
+  private final FileChannel channel;
+  private final long size;
+  private final int compression;
+  private final ExecutorService executor; // null if there is one thread
+  private final BlockingQueue<Future<ByteBuffer>> queue;
+  private final Thread producer;
+  private ByteBuffer current = ByteBuffer.allocate(0);
+  private boolean open = true;
+
+  // With threads > 1, BGZF blocks and zstd frames are decompressed on that many threads besides the thread reading the file.
+  CompressedInput(Path path, int threads) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    size = channel.size();
+    compression = compression(channel);
+    if (compression == 0) {
+      channel.close();
+      throw new IOException(path + " is neither gzip nor zstd compressed.");
+    }
+    executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    queue = new ArrayBlockingQueue<>(Math.max(threads, 1) * 2 + 2);
+    producer = new Thread(this::produce, "decompress " + path.getFileName());
+    producer.setDaemon(true);
+    producer.start();
+  }
+
+  // The file itself if it is not compressed.
+  static ReadableByteChannel open(Path path, int threads) throws IOException {
+    if (compression(path) == 0) {
+      return FileChannel.open(path, StandardOpenOption.READ);
+    }
+    return new CompressedInput(path, threads);
+  }
+
+  // The index in FastaWriter.compressions from the magic number at the start of the file, 0 if it is neither gzip nor zstd.
+  static int compression(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return compression(channel);
+    }
+  }
+
+  private static int compression(FileChannel channel) throws IOException {
+    ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+    }
+    if (magic.position() >= 2 && (magic.get(0) & 0xff) == 0x1f && (magic.get(1) & 0xff) == 0x8b) {
+      return 1;
+    }
+    if (magic.position() == 4 && (magic.getInt(0) == zstdMagic || isSkippableFrame(magic.getInt(0)))) {
+      return 2;
+    }
+    return 0;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    if (!open) {
+      throw new ClosedChannelException();
+    }
+    while (!current.hasRemaining()) {
+      if (current == endOfInput) {
+        return -1;
+      }
+      current = next();
+    }
+    int n = Math.min(dst.remaining(), current.remaining());
+    ByteBuffer slice = current.duplicate();
+    slice.limit(slice.position() + n);
+    dst.put(slice);
+    current.position(current.position() + n);
+    return n;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (open) {
+      open = false;
+      producer.interrupt();
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      channel.close();
+    }
+  }
+
+  private ByteBuffer next() throws IOException {
+    try {
+      return queue.take().get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException(ex.getCause());
+    }
+  }
+
+  private void produce() {
+    try {
+      long position = 0;
+      if (executor != null) {
+        position = compression == 1 ? produceBgzfBlocks() : produceZstdFrames();
+      }
+      if (position < size) {
+        produceSequentially(position);
+      }
+      queue.put(CompletableFuture.completedFuture(endOfInput));
+    } catch (InterruptedException ex) {
+      // closed
+    } catch (Exception ex) {
+      CompletableFuture<ByteBuffer> failed = new CompletableFuture<>();
+      failed.completeExceptionally(ex);
+      try {
+        queue.put(failed);
+      } catch (InterruptedException ignored) {
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  // GZIPInputStream also reads the concatenated members of a gzip file.
+  private void produceSequentially(long position) throws Exception {
+    InputStream fileStream = Channels.newInputStream(channel.position(position));
+    try (InputStream inputStream = compression == 1 ? new GZIPInputStream(fileStream, 1 << 16) : new ZstdInputStream(fileStream)) {
+      byte[] chunk = new byte[chunkSize];
+      int length = 0;
+      int n;
+      while ((n = inputStream.read(chunk, length, chunk.length - length)) >= 0) {
+        length += n;
+        if (length == chunk.length) {
+          queue.put(CompletableFuture.completedFuture(ByteBuffer.wrap(chunk)));
+          chunk = new byte[chunkSize];
+          length = 0;
+        }
+      }
+      if (length > 0) {
+        queue.put(CompletableFuture.completedFuture(ByteBuffer.wrap(chunk, 0, length)));
+      }
+    }
+  }
+
+  // Queues pieces of whole BGZF blocks from the start of the file. Returns the offset of the first gzip member that is not a BGZF block, which
+  // is left to the sequential path.
+  private long produceBgzfBlocks() throws Exception {
+    ByteBuffer header = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+    long position = 0;
+    while (position < size) {
+      long start = position;
+      while (position < size && position - start < chunkSize) {
+        int blockSize = bgzfBlockSize(header, position);
+        if (blockSize < 0) {
+          break;
+        }
+        position += blockSize;
+      }
+      if (position == start) {
+        break;
+      }
+      byte[] piece = readFully(start, (int) (position - start));
+      queue.put(executor.submit(() -> inflateBgzfBlocks(piece)));
+    }
+    return position;
+  }
+
+  // The size of the BGZF block at the offset from its header, or -1 if there is no complete BGZF block.
+  private int bgzfBlockSize(ByteBuffer header, long position) throws IOException {
+    if (size - position < 18) {
+      return -1;
+    }
+    header.clear();
+    readFully(header, position);
+    // ID1 ID2 CM FLG, only FEXTRA, XLEN 6 of one subfield "BC" of 2 bytes
+    if (header.getInt(0) != 0x04088b1f || header.getShort(10) != 6 || header.get(12) != 'B' || header.get(13) != 'C' || header.getShort(14) != 2) {
+      return -1;
+    }
+    int blockSize = (header.getShort(16) & 0xffff) + 1;
+    return blockSize < 26 || position + blockSize > size ? -1 : blockSize;
+  }
+
+  private static ByteBuffer inflateBgzfBlocks(byte[] piece) throws IOException, DataFormatException {
+    ByteBuffer blocks = ByteBuffer.wrap(piece).order(ByteOrder.LITTLE_ENDIAN);
+    int length = 0;
+    for (int offset = 0; offset < piece.length; offset += (blocks.getShort(offset + 16) & 0xffff) + 1) {
+      int blockEnd = offset + (blocks.getShort(offset + 16) & 0xffff) + 1;
+      length += blocks.getInt(blockEnd - 4);
+    }
+    byte[] output = new byte[length];
+    Inflater inflater = new Inflater(true);
+    CRC32 crc32 = new CRC32();
+    try {
+      int outputOffset = 0;
+      for (int offset = 0; offset < piece.length; offset += (blocks.getShort(offset + 16) & 0xffff) + 1) {
+        int blockEnd = offset + (blocks.getShort(offset + 16) & 0xffff) + 1;
+        int uncompressedSize = blocks.getInt(blockEnd - 4);
+        inflater.reset();
+        inflater.setInput(piece, offset + 18, blockEnd - 8 - (offset + 18));
+        int n = 0;
+        while (n < uncompressedSize) {
+          int inflated = inflater.inflate(output, outputOffset + n, uncompressedSize - n);
+          if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          n += inflated;
+        }
+        crc32.reset();
+        crc32.update(output, outputOffset, n);
+        if (n != uncompressedSize || (int) crc32.getValue() != blocks.getInt(blockEnd - 8)) {
+          throw new IOException("Corrupt BGZF block.");
+        }
+        outputOffset += n;
+      }
+    } finally {
+      inflater.end();
+    }
+    return ByteBuffer.wrap(output);
+  }
+
+  // Queues pieces of whole frames if the file has several frames. Returns 0 for a single frame, which can only be decompressed sequentially.
+  private long produceZstdFrames() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    if (zstdFrameEnd(buffer, 0) >= size) {
+      return 0;
+    }
+    long position = 0;
+    while (position < size) {
+      long start = position;
+      while (position < size && position - start < chunkSize) {
+        position = zstdFrameEnd(buffer, position);
+      }
+      if (position - start > Integer.MAX_VALUE - 8) {
+        throw new IOException("A zstd frame at offset " + start + " is too large to be decompressed in parallel.");
+      }
+      byte[] piece = readFully(start, (int) (position - start));
+      queue.put(executor.submit(() -> decompressZstdFrames(piece)));
+    }
+    return position;
+  }
+
+  // The end of the (possibly skippable) zstd frame at the offset, found by walking the block headers of the frame.
+  private long zstdFrameEnd(ByteBuffer buffer, long position) throws IOException {
+    int magic = readInt(buffer, position);
+    if (isSkippableFrame(magic)) {
+      return checkedEnd(position + 8 + (readInt(buffer, position + 4) & 0xffffffffL), position);
+    }
+    if (magic != zstdMagic) {
+      throw new IOException("There is no zstd frame at offset " + position + ".");
+    }
+    int descriptor = readInt(buffer, position + 4) & 0xff;
+    boolean singleSegment = (descriptor & 0x20) != 0;
+    int[] dictionaryIdSizes = {0, 1, 2, 4};
+    int[] contentSizeSizes = {singleSegment ? 1 : 0, 2, 4, 8};
+    long end = position + 5 + (singleSegment ? 0 : 1) + dictionaryIdSizes[descriptor & 3] + contentSizeSizes[descriptor >>> 6];
+    boolean lastBlock = false;
+    while (!lastBlock) {
+      int blockHeader = readInt(buffer, end) & 0xffffff;
+      lastBlock = (blockHeader & 1) != 0;
+      int blockType = (blockHeader >>> 1) & 3;
+      if (blockType == 3) {
+        throw new IOException("Corrupt zstd block at offset " + end + ".");
+      }
+      end = checkedEnd(end + 3 + (blockType == 1 ? 1 : blockHeader >>> 3), position);
+    }
+    return checkedEnd(end + ((descriptor & 4) != 0 ? 4 : 0), position);
+  }
+
+  private long checkedEnd(long end, long frameStart) throws EOFException {
+    if (end > size) {
+      throw new EOFException("The zstd frame at offset " + frameStart + " is truncated.");
+    }
+    return end;
+  }
+
+  private static ByteBuffer decompressZstdFrames(byte[] piece) throws IOException {
+    try (ZstdInputStream inputStream = new ZstdInputStream(new ByteArrayInputStream(piece))) {
+      byte[] output = new byte[piece.length * 4 + 64];
+      int length = 0;
+      int n;
+      while ((n = inputStream.read(output, length, output.length - length)) >= 0) {
+        length += n;
+        if (length == output.length) {
+          output = Arrays.copyOf(output, (int) Math.min(Integer.MAX_VALUE - 8, length * 2L));
+        }
+      }
+      return ByteBuffer.wrap(output, 0, length);
+    }
+  }
+
+  private static boolean isSkippableFrame(int magic) {
+    return (magic & 0xfffffff0) == 0x184d2a50;
+  }
+
+  // Up to four bytes at the offset, zero-padded at the end of the file.
+  private int readInt(ByteBuffer buffer, long position) throws IOException {
+    buffer.clear();
+    buffer.putInt(0, 0);
+    buffer.limit((int) Math.min(4, Math.max(0, size - position)));
+    readFully(buffer, position);
+    buffer.clear();
+    return buffer.getInt(0);
+  }
+
+  private byte[] readFully(long position, int length) throws IOException {
+    byte[] bytes = new byte[length];
+    readFully(ByteBuffer.wrap(bytes), position);
+    return bytes;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = channel.read(buffer, position);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      position += n;
+    }
+  }
+}
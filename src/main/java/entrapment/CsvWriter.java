@@ -0,0 +1,311 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes CSV rows through one large buffer. Numbers are formatted into the buffer directly instead of through boxed values and Strings.
+ * <p>
+ * A double is written with the fewest digits that parse back to it (the closest of them if there are several), in the layout of Double.toString,
+ * which gives the same digits since Java 19. The digits are checked with exact double arithmetic, the fast path of decimal parsing, which
+ * covers up to 16 digits and powers of ten up to 10^22. The values outside of it are written with Double.toString.
+ */
+class CsvWriter implements Closeable {
+
+  private static final double[] powersOfTen = new double[23];
+  private static final long[] longPowersOfTen = new long[18];
+  private static final long none = -1;
+  private static final long uncheckable = -2;
+
+  static {
+    powersOfTen[0] = 1;
+    for (int i = 1; i < powersOfTen.length; ++i) {
+      powersOfTen[i] = powersOfTen[i - 1] * 10;
+    }
+    longPowersOfTen[0] = 1;
+    for (int i = 1; i < longPowersOfTen.length; ++i) {
+      longPowersOfTen[i] = longPowersOfTen[i - 1] * 10;
+    }
+  }
+
+  private final FileChannel channel;
+  private final byte[] buffer = new byte[1 << 20];
+  private final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+  private final byte[] digits = new byte[20];
+  private int position = 0;
+  private boolean firstField = true;
+
+  CsvWriter(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+  }
+
+  // The header or any other text without quoting.
+  CsvWriter field(String value) throws IOException {
+    separate();
+    append(value);
+    return this;
+  }
+
+  CsvWriter field(long value) throws IOException {
+    separate();
+    if (value == Long.MIN_VALUE) {
+      append("-9223372036854775808");
+      return this;
+    }
+    if (value < 0) {
+      buffer[position++] = '-';
+      value = -value;
+    }
+    int count = 0;
+    do {
+      digits[count++] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value > 0);
+    while (count > 0) {
+      buffer[position++] = digits[--count];
+    }
+    return this;
+  }
+
+  CsvWriter field(double value) throws IOException {
+    separate();
+    if (!appendShortest(value)) {
+      append(Double.toString(value));
+    }
+    return this;
+  }
+
+  void endRow() throws IOException {
+    ensure(1);
+    buffer[position++] = '\n';
+    firstField = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void separate() throws IOException {
+    ensure(32);
+    if (!firstField) {
+      buffer[position++] = ',';
+    }
+    firstField = false;
+  }
+
+  private void append(String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < bytes.length; i += buffer.length) {
+      int length = Math.min(buffer.length, bytes.length - i);
+      ensure(length);
+      System.arraycopy(bytes, i, buffer, position, length);
+      position += length;
+    }
+  }
+
+  // Returns false without writing anything if the digits cannot be checked.
+  private boolean appendShortest(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value) || value == 0) {
+      return false;
+    }
+    double magnitude = Math.abs(value);
+    int exponent = (int) Math.floor(Math.log10(magnitude)); // of the first digit
+    boolean exactExponent = exponent >= -21 && exponent <= 21;
+    if (exactExponent) {
+      if (compareToPowerOfTen(magnitude, exponent) < 0) {
+        --exponent;
+      } else if (compareToPowerOfTen(magnitude, exponent + 1) >= 0) {
+        ++exponent;
+      }
+    }
+    // The significand is magnitude * 10^scale rounded. If some number of digits parses to the value, so does every larger number, so the smallest
+    // scale is found by bisection. Seventeen digits always parse to the value.
+    int lowScale = Math.max(-22, -exponent);
+    int highScale = Math.min(22, 16 - exponent);
+    if (lowScale > highScale) {
+      return false;
+    }
+    long significand = closestDigits(magnitude, highScale, !(exactExponent && highScale == 16 - exponent));
+    if (significand == uncheckable || significand == none) {
+      return false;
+    }
+    int scale = highScale;
+    while (lowScale < scale) {
+      int middleScale = (lowScale + scale) >> 1;
+      long middleSignificand = closestDigits(magnitude, middleScale, true);
+      if (middleSignificand == uncheckable) {
+        return false;
+      }
+      if (middleSignificand != none) {
+        significand = middleSignificand;
+        scale = middleScale;
+      } else {
+        lowScale = middleScale + 1;
+      }
+    }
+    int digitCount = 1;
+    while (digitCount < longPowersOfTen.length && significand >= longPowersOfTen[digitCount]) {
+      ++digitCount;
+    }
+    if (value < 0) {
+      buffer[position++] = '-';
+    }
+    appendDigits(significand, digitCount, digitCount - 1 - scale);
+    return true;
+  }
+
+  // The integer closest to magnitude * 10^scale that parses back to the magnitude when divided by 10^scale, none if there is none, or with
+  // check, uncheckable if it cannot be checked exactly.
+  private static long closestDigits(double magnitude, int scale, boolean check) {
+    // magnitude * 10^scale = high + low exactly
+    double high;
+    double low;
+    if (scale >= 0) {
+      high = magnitude * powersOfTen[scale];
+      low = Math.fma(magnitude, powersOfTen[scale], -high);
+    } else {
+      high = magnitude / powersOfTen[-scale];
+      low = Math.fma(-high, powersOfTen[-scale], magnitude) / powersOfTen[-scale];
+    }
+    long nearest;
+    double distance; // nearest - magnitude * 10^scale
+    if (high < 0x1p53) {
+      nearest = Math.round(high);
+      distance = (nearest - high) - low;
+      if (distance > 0.5) {
+        distance -= 1;
+        --nearest;
+      } else if (distance < -0.5) {
+        distance += 1;
+        ++nearest;
+      }
+    } else {
+      long adjustment = Math.round(low);
+      nearest = (long) high + adjustment;
+      distance = adjustment - low;
+    }
+    if ((distance == 0.5 || distance == -0.5) && (nearest & 1) == 1) {
+      // a tie goes to the even digit
+      nearest += distance > 0 ? -1 : 1;
+      distance = -distance;
+    }
+    if (!check) {
+      return nearest;
+    }
+    if (nearest > 1L << 53) {
+      return uncheckable;
+    }
+    // The decimals that parse to the value are an interval around it, so only the nearest integer and the one on the other side of the value
+    // can be the closest one.
+    if (parsesTo(nearest, scale, magnitude)) {
+      return nearest;
+    }
+    long other = distance > 0 ? nearest - 1 : nearest + 1;
+    return parsesTo(other, scale, magnitude) ? other : none;
+  }
+
+  // Exact because both operands are exact doubles and the division or multiplication rounds once.
+  private static boolean parsesTo(long significand, int scale, double magnitude) {
+    return (scale >= 0 ? significand / powersOfTen[scale] : significand * powersOfTen[-scale]) == magnitude;
+  }
+
+  // Negative, zero or positive as the magnitude is below, at or above 10^exponent, for an exponent from -22 to 22.
+  private static int compareToPowerOfTen(double magnitude, int exponent) {
+    if (exponent >= 0) {
+      return Double.compare(magnitude, powersOfTen[exponent]);
+    }
+    double high = magnitude * powersOfTen[-exponent];
+    double low = Math.fma(magnitude, powersOfTen[-exponent], -high);
+    return high != 1 ? Double.compare(high, 1) : Double.compare(low, 0);
+  }
+
+  // The layout of Double.toString: plain from 10^-3 to below 10^7, otherwise d.dddE<exponent>, with at least one digit after the point.
+  private void appendDigits(long value, int precision, int exponent) {
+    for (int i = precision - 1; i >= 0; --i) {
+      digits[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    if (exponent >= -3 && exponent < 7) {
+      if (exponent < 0) {
+        buffer[position++] = '0';
+        buffer[position++] = '.';
+        for (int i = -1; i > exponent; --i) {
+          buffer[position++] = '0';
+        }
+        for (int i = 0; i < precision; ++i) {
+          buffer[position++] = digits[i];
+        }
+      } else {
+        for (int i = 0; i <= exponent; ++i) {
+          buffer[position++] = i < precision ? digits[i] : (byte) '0';
+        }
+        buffer[position++] = '.';
+        if (precision <= exponent + 1) {
+          buffer[position++] = '0';
+        }
+        for (int i = exponent + 1; i < precision; ++i) {
+          buffer[position++] = digits[i];
+        }
+      }
+    } else {
+      buffer[position++] = digits[0];
+      buffer[position++] = '.';
+      if (precision == 1) {
+        buffer[position++] = '0';
+      }
+      for (int i = 1; i < precision; ++i) {
+        buffer[position++] = digits[i];
+      }
+      buffer[position++] = 'E';
+      if (exponent < 0) {
+        buffer[position++] = '-';
+        exponent = -exponent;
+      }
+      if (exponent >= 100) {
+        buffer[position++] = (byte) ('0' + exponent / 100);
+      }
+      if (exponent >= 10) {
+        buffer[position++] = (byte) ('0' + exponent / 10 % 10);
+      }
+      buffer[position++] = (byte) ('0' + exponent % 10);
+    }
+  }
+
+  private void ensure(int length) throws IOException {
+    if (position + length > buffer.length) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    byteBuffer.clear().limit(position);
+    while (byteBuffer.hasRemaining()) {
+      channel.write(byteBuffer);
+    }
+    position = 0;
+  }
+}
@@ -14,23 +14,19 @@
 
 package entrapment;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
 
 public class DiannEntrapmentQValue {
 
-  private static final double binSize = 0.0000001;
+  static final double binSize = 0.0000001;
+  static final int exactBins = -1; // maxBins of one bin per distinct CScore
+  static final int curveBreakpoints = Integer.MAX_VALUE; // maxPoints of every breakpoint
 
   public static void main(String[] args) {
-    if (args.length != 8) {
-      System.out.println("Usage: java -cp EntrapBench.jar entrapment.DiannEntrapmentQValue <entrapment style> <entrapment to target ratio> <run-wise precursor q-value threshold> <global precursor q-value threshold> <run-wise protein q-value threshold> <global protein q-value threshold> <result file path> <output file path>\n");
+    if (args.length < 8) {
+      System.out.println("Usage: java -cp EntrapBench.jar entrapment.DiannEntrapmentQValue <entrapment style> <entrapment to target ratio> <run-wise precursor q-value threshold> <global precursor q-value threshold> <run-wise protein q-value threshold> <global protein q-value threshold> <result file path> <output file path> [--threads=<number of threads, 0 = all cores>] [--per-run=<CSV file path of the per-run counts and FDPs>] [--score-memory=<MB of CScores held in memory before they are spilled to sorted files on disk, default: no limit>] [--temp-dir=<directory of the spilled files, default: the system temporary directory>] [--bins=<exact for one bin per distinct CScore, or the maximum number of bins of a fixed-size sketch with an error bound per bin, default: bins of " + binSize + ">] [--curve=<breakpoints for only the CScores where a q-value changes, or the maximum number of points for plotting, default: every bin>]\n");
       System.exit(1);
     }
 
@@ -42,6 +38,13 @@ public class DiannEntrapmentQValue {
     double globalPGQValueT = Double.parseDouble(args[5]);
     Path resultPath = Paths.get(args[6]);
     Path outputPath = Paths.get(args[7]);
+    Options options = Options.parse(args, 8, "threads", "per-run", "score-memory", "temp-dir", "bins", "curve");
+    long scoreMemory = options.getLong("score-memory", 0) << 20;
+    Path spillDirectory = scoreMemory > 0 ? Paths.get(options.getString("temp-dir", System.getProperty("java.io.tmpdir"))) : null;
+    int maxBins = 0;
+    if (options.has("bins")) {
+      maxBins = options.getString("bins", null).contentEquals("exact") ? exactBins : options.getInt("bins", 0);
+    }
 
     if (entrapmentStyle != 0 && entrapmentStyle != 1) {
       System.out.println("The entrapment style " + entrapmentStyle + " is not supported.");
@@ -55,18 +58,29 @@ public class DiannEntrapmentQValue {
       System.exit(1);
     }
 
+    int maxPoints = 0;
+    if (options.has("curve")) {
+      maxPoints = options.getString("curve", null).contentEquals("breakpoints") ? curveBreakpoints : options.getInt("curve", 0);
+      if (maxPoints < 1) {
+        System.out.println("The number of points " + maxPoints + " is not positive.");
+        System.exit(1);
+      }
+    }
+
+    if (options.has("bins") && maxBins != exactBins && maxBins < 1) {
+      System.out.println("The number of bins " + maxBins + " is not positive.");
+      System.exit(1);
+    }
+
+    if (spillDirectory != null && (!Files.isDirectory(spillDirectory) || !Files.isWritable(spillDirectory))) {
+      System.out.println("The temporary directory " + spillDirectory + " is not writable.");
+      System.exit(1);
+    }
+
     try {
-      Entry entry = calculate(resultPath, entrapmentMarker, runPrecursorQValueT, globalPrecursorQValueT, runPGQValueT, globalPGQValueT);
+      Entry entry = calculate(resultPath, entrapmentMarker, runPrecursorQValueT, globalPrecursorQValueT, runPGQValueT, globalPGQValueT, options.getThreads(), spillDirectory, scoreMemory, maxBins);
 
-      BufferedWriter writer = Files.newBufferedWriter(outputPath);
-      writer.write("cscore_threshold,target_count,decoy_count,entrapment_target_count,entrapment_decoy_count,reported_run_precursor_Q_value,reported_global_precursor_Q_value,entrapment_Q_value\n");
-      for (int i = entry.entrapmentTargetCounts.length - 1; i >= 0; --i) {
-        if (Double.isNaN(entry.reportedRunQValues[i]) || Double.isNaN(entry.reportedGlobalQValues[i])) {
-          continue;
-        }
-        writer.write((i * binSize) + "," + entry.targetCounts[i] + "," + entry.decoyCounts[i] + "," + entry.entrapmentTargetCounts[i] + "," + entry.entrapmentDecoyCounts[i] + "," + entry.reportedRunQValues[i] + "," + entry.reportedGlobalQValues[i] + "," + entry.entrapmentQValues[i] + "\n");
-      }
-      writer.close();
+      writeQValues(outputPath, entry, maxPoints);
 
       System.out.println("Precursor level filtered with " + runPrecursorQValueT + " run q-value and " + globalPrecursorQValueT + " global q-value:");
       System.out.println("Target: " + entry.reportedTargetPrecursorCount);
@@ -78,6 +92,13 @@ public class DiannEntrapmentQValue {
       System.out.println("ET * (1/r) / NT: " + (entry.reportedEntrapmentPrecursorCount * (1 / r) * 100.0 / entry.reportedTargetPrecursorCount) + "%");
       System.out.println("DIA-NN reported " + (entry.reportedTargetPrecursorCount + entry.reportedEntrapmentPrecursorCount) + " precursors.");
       System.out.println("With global entrapment q-value (ET / (NT + ET)) threshold = " + (Math.min(runPrecursorQValueT, globalPrecursorQValueT) * 100) + "%, there are " + entry.entrapmentQValueFilteredPrecursorCount + " precursors.");
+      if (entry.errorBounds != null) {
+        double errorBound = 0;
+        for (int i = entry.entrapmentQValues.length - 1; i >= 0 && entry.entrapmentQValues[i] < Math.min(runPrecursorQValueT, globalPrecursorQValueT); --i) {
+          errorBound = Math.max(errorBound, entry.errorBounds[i]);
+        }
+        System.out.println("The entrapment q-values are from " + entry.thresholds.length + " bins. They are at most " + (errorBound * 100) + "% higher than the exact q-values of these precursors, and never lower, so at least as many precursors pass the threshold with exact q-values.");
+      }
 
       System.out.println();
       System.out.println("Protein level filtered with " + runPGQValueT + " run q-value and " + globalPGQValueT + " global q-value:");
@@ -86,147 +107,134 @@ public class DiannEntrapmentQValue {
       System.out.println("ET * (1 + 1/r) / (NT + ET): " + (entry.entrapmentProteinCount * (1 + 1 / r) * 100.0 / (entry.targetProteinCount + entry.entrapmentProteinCount)) + "%");
       System.out.println("ET / (NT + ET): " + (entry.entrapmentProteinCount * 100.0 / (entry.targetProteinCount + entry.entrapmentProteinCount)) + "%");
       System.out.println("ET * (1/r) / NT: " + (entry.entrapmentProteinCount * (1 / r) * 100.0 / entry.targetProteinCount) + "%");
+
+      if (options.has("per-run")) {
+        entry.runBreakdown.write(Paths.get(options.getString("per-run", null)), r);
+        System.out.println();
+        entry.runBreakdown.printDistribution(r);
+      }
     } catch (Exception ex) {
       ex.printStackTrace();
       System.exit(1);
     }
   }
 
-  private static Entry calculate(Path resultPath, String entrapmentMarker, double runPrecursorQValueT, double globalPrecursorQValueT, double runPGQValueT, double globalPGQValueT) throws Exception {
-    long[] targetCounts = new long[(int) (1 / binSize) + 1];
-    long[] decoyCounts = new long[(int) (1 / binSize) + 1];
-    long[] entrapmentTargetCounts = new long[(int) (1 / binSize) + 1];
-    long[] entrapmentDecoyCounts = new long[(int) (1 / binSize) + 1];
-    double[] reportedRunQValues = new double[(int) (1 / binSize) + 1];
-    Arrays.fill(reportedRunQValues, Double.NaN);
-    double[] reportedGlobalQValues = new double[(int) (1 / binSize) + 1];
-    Arrays.fill(reportedGlobalQValues, Double.NaN);
-
-    long reportedTargetPrecursorCount = 0;
-    long reportedDecoyPrecursorCount = 0;
-    long reportedEntrapmentPrecursorCount = 0;
-    long reportedEntrapmentDecoyPrecursorCount = 0;
-    Set<String> entrapmentProteins = new HashSet<>();
-    Set<String> targetProteins = new HashSet<>();
-
-    String line;
-    BufferedReader reader = new BufferedReader(new FileReader(resultPath.toFile()));
-    int runColumnIdx = -1;
-    int pgColumnIdx = -1;
-    int cscoreColumnIdx = -1;
-    int decoyCscoreColumnIdx = -1;
-    int runPrecursorQValueColumnIdx = -1;
-    int globalPrecursorQValueColumnIdx = -1;
-    int runPGQValueColumnIdx = -1;
-    int globalPGQValueColumnIdx = -1;
-    while ((line = reader.readLine()) != null) {
-      line = line.trim();
-      if (line.isEmpty()) {
-        continue;
-      }
+  static void writeQValues(Path outputPath, Entry entry) throws Exception {
+    writeQValues(outputPath, entry, 0);
+  }
 
-      String[] parts = line.split("\t");
-      if (line.startsWith("File.Name")) {
-        for (int i = 0; i < parts.length; ++i) {
-          if (parts[i].trim().equalsIgnoreCase("Run")) {
-            runColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Protein.Group")) {
-            pgColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("CScore")) {
-            cscoreColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Decoy.CScore")) {
-            decoyCscoreColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Q.Value")) {
-            runPrecursorQValueColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Global.Q.Value")) {
-            globalPrecursorQValueColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("PG.Q.Value")) {
-            runPGQValueColumnIdx = i;
-          } else if (parts[i].trim().equalsIgnoreCase("Global.PG.Q.Value")) {
-            globalPGQValueColumnIdx = i;
-          }
+  // With maxPoints 0, every bin with reported q-values is a row. Otherwise, the consecutive bins with the same entrapment q-value are one row
+  // (a breakpoint), and if there are more than maxPoints breakpoints, they are merged into at most maxPoints rows of about the same number of
+  // precursors. A merged row has the summed counts and the threshold and the q-values of its lowest bin (with reported q-values), so they are
+  // exact at the threshold.
+  static void writeQValues(Path outputPath, Entry entry, int maxPoints) throws Exception {
+    try (CsvWriter writer = new CsvWriter(outputPath)) {
+      writer.field("cscore_threshold,target_count,decoy_count,entrapment_target_count,entrapment_decoy_count,reported_run_precursor_Q_value,reported_global_precursor_Q_value,entrapment_Q_value" + (entry.errorBounds == null ? "" : ",entrapment_Q_value_error_bound"));
+      writer.endRow();
+      int binCount = entry.entrapmentTargetCounts.length;
+      if (maxPoints == 0) {
+        for (int i = binCount - 1; i >= 0; --i) {
+          writeRow(writer, entry, i, i, i);
         }
-        if (runColumnIdx < 0 || pgColumnIdx < 0 || cscoreColumnIdx < 0 || decoyCscoreColumnIdx < 0 || runPrecursorQValueColumnIdx < 0 || globalPrecursorQValueColumnIdx < 0 || runPGQValueColumnIdx < 0 || globalPGQValueColumnIdx < 0) {
-          System.out.println("Some columns are missing in the result file: " + resultPath.toAbsolutePath());
-          System.exit(1);
+        return;
+      }
+
+      // The lowest bin of each breakpoint, from the highest CScores down, and its lowest bin with reported q-values. Only the top breakpoint
+      // can be without reported q-values, because the bins without them only have decoys, whose entrapment q-value is the one of the bin above.
+      int[] lowestBins = new int[binCount];
+      int[] reportedBins = new int[binCount];
+      int breakpointCount = 0;
+      for (int i = binCount - 1; i >= 0; --i) {
+        boolean reported = !Double.isNaN(entry.reportedRunQValues[i]) && !Double.isNaN(entry.reportedGlobalQValues[i]);
+        int k = breakpointCount - 1;
+        if (k < 0 || entry.entrapmentQValues[i] != entry.entrapmentQValues[lowestBins[k]]) {
+          k = breakpointCount++;
+          reportedBins[k] = -1;
         }
-      } else {
-        String run = parts[runColumnIdx].trim();
-        String pg = parts[pgColumnIdx].trim();
-        double cscore = Double.parseDouble(parts[cscoreColumnIdx]);
-        double decoyCscore = Double.parseDouble(parts[decoyCscoreColumnIdx]);
-        double runPrecursorQValue = Double.parseDouble(parts[runPrecursorQValueColumnIdx]);
-        double globalPrecursorQValue = Double.parseDouble(parts[globalPrecursorQValueColumnIdx]);
-        double runPGQValue = Double.parseDouble(parts[runPGQValueColumnIdx]);
-        double globalPGQValue = Double.parseDouble(parts[globalPGQValueColumnIdx]);
-
-        String[] parts2 = pg.split(";");
-        boolean isEntrapment = true;
-        for (String p : parts2) {
-          if (!p.contains(entrapmentMarker)) { // As long as there is a non-entrapment protein, it is not an entrapment.
-            isEntrapment = false;
-            break;
-          }
+        lowestBins[k] = i;
+        if (reported) {
+          reportedBins[k] = i;
         }
+      }
 
-        if (runPrecursorQValue < runPrecursorQValueT && globalPrecursorQValue < globalPrecursorQValueT) {
-          if (isEntrapment) {
-            ++reportedEntrapmentPrecursorCount;
-            if (decoyCscore > 0) {
-              ++reportedEntrapmentDecoyPrecursorCount;
-            }
-          } else {
-            ++reportedTargetPrecursorCount;
-            if (decoyCscore > 0) {
-              ++reportedDecoyPrecursorCount;
-            }
-          }
+      long totalCount = 0;
+      for (int i = 0; i < binCount; ++i) {
+        totalCount += entry.targetCounts[i] + entry.entrapmentTargetCounts[i];
+      }
+      int pointCount = 0;
+      long count = 0;
+      int highestBin = binCount - 1;
+      for (int k = 0; k < breakpointCount; ++k) {
+        int nextHighestBin = lowestBins[k] - 1;
+        for (int i = lowestBins[k]; i <= (k == 0 ? binCount - 1 : lowestBins[k - 1] - 1); ++i) {
+          count += entry.targetCounts[i] + entry.entrapmentTargetCounts[i];
         }
-
-        if (runPGQValue < runPGQValueT && globalPGQValue < globalPGQValueT) {
-          if (isEntrapment) {
-            entrapmentProteins.add(run + "_" + pg);
-          } else {
-            targetProteins.add(run + "_" + pg);
+        if (k == breakpointCount - 1 || breakpointCount <= maxPoints || pointCount < maxPoints - 1 && (double) count * maxPoints >= (double) (pointCount + 1) * totalCount) {
+          if (reportedBins[k] >= 0) {
+            writeRow(writer, entry, lowestBins[k], highestBin, reportedBins[k]);
+            ++pointCount;
           }
+          highestBin = nextHighestBin;
         }
+      }
+    }
+  }
 
-        if (Double.isNaN(reportedRunQValues[(int) (cscore / binSize)])) {
-          reportedRunQValues[(int) (cscore / binSize)] = runPrecursorQValue;
-        } else if (Math.abs(reportedRunQValues[(int) (cscore / binSize)] - runPrecursorQValue) > 1e-6) {
-          // System.out.println("There are different reported run q-values for the same cscore: " + cscore + " : " + reportedRunQValues[(int) (cscore / binSize)] + " vs " + runPrecursorQValue);
-          reportedRunQValues[(int) (cscore / binSize)] = Math.min(reportedRunQValues[(int) (cscore / binSize)], runPrecursorQValue);
-        }
+  // One row of the bins from lowestBin to highestBin with the reported q-values of reportedBin. Skipped if there are no reported q-values.
+  private static void writeRow(CsvWriter writer, Entry entry, int lowestBin, int highestBin, int reportedBin) throws Exception {
+    if (Double.isNaN(entry.reportedRunQValues[reportedBin]) || Double.isNaN(entry.reportedGlobalQValues[reportedBin])) {
+      return;
+    }
+    long targetCount = 0;
+    long decoyCount = 0;
+    long entrapmentTargetCount = 0;
+    long entrapmentDecoyCount = 0;
+    double errorBound = 0;
+    for (int i = lowestBin; i <= highestBin; ++i) {
+      targetCount += entry.targetCounts[i];
+      decoyCount += entry.decoyCounts[i];
+      entrapmentTargetCount += entry.entrapmentTargetCounts[i];
+      entrapmentDecoyCount += entry.entrapmentDecoyCounts[i];
+      if (entry.errorBounds != null) {
+        errorBound = Math.max(errorBound, entry.errorBounds[i]);
+      }
+    }
+    writer.field(entry.thresholds[lowestBin]).field(targetCount).field(decoyCount).field(entrapmentTargetCount).field(entrapmentDecoyCount).field(entry.reportedRunQValues[reportedBin]).field(entry.reportedGlobalQValues[reportedBin]).field(entry.entrapmentQValues[lowestBin]);
+    if (entry.errorBounds != null) {
+      writer.field(errorBound);
+    }
+    writer.endRow();
+  }
 
-        if (Double.isNaN(reportedGlobalQValues[(int) (cscore / binSize)])) {
-          reportedGlobalQValues[(int) (cscore / binSize)] = globalPrecursorQValue;
-        } else if (Math.abs(reportedGlobalQValues[(int) (cscore / binSize)] - globalPrecursorQValue) > 1e-6) {
-          // System.out.println("There are different reported global q-values for the same cscore: " + cscore + " : " + reportedGlobalQValues[(int) (cscore / binSize)] + " vs " + globalPrecursorQValue);
-          reportedGlobalQValues[(int) (cscore / binSize)] = Math.min(reportedGlobalQValues[(int) (cscore / binSize)], globalPrecursorQValue);
-        }
+  static Entry calculate(Path resultPath, String entrapmentMarker, double runPrecursorQValueT, double globalPrecursorQValueT, double runPGQValueT, double globalPGQValueT, int threads) throws Exception {
+    return calculate(resultPath, entrapmentMarker, runPrecursorQValueT, globalPrecursorQValueT, runPGQValueT, globalPGQValueT, threads, null, 0, 0);
+  }
 
-        if (isEntrapment) {
-          ++entrapmentTargetCounts[(int) (cscore / binSize)];
-          if (decoyCscore > 0) {
-            ++entrapmentDecoyCounts[(int) (decoyCscore / binSize)];
-          }
-        } else {
-          ++targetCounts[(int) (cscore / binSize)];
-          if (decoyCscore > 0) {
-            ++decoyCounts[(int) (decoyCscore / binSize)];
-          }
-        }
-      }
+  // With a spill directory, the CScores are sorted on disk when they take more than scoreMemory bytes. The q-values are the same.
+  // maxBins is 0 for the bins of binSize, exactBins for one bin per distinct CScore, otherwise the number of bins of a ScoreSketch, which does
+  // not spill because its memory is fixed.
+  static Entry calculate(Path resultPath, String entrapmentMarker, double runPrecursorQValueT, double globalPrecursorQValueT, double runPGQValueT, double globalPGQValueT, int threads, Path spillDirectory, long scoreMemory, int maxBins) throws Exception {
+    DiannReport report = new DiannReport(entrapmentMarker, runPrecursorQValueT, globalPrecursorQValueT, runPGQValueT, globalPGQValueT, binSize);
+    if (spillDirectory != null) {
+      report.spillScores(spillDirectory, scoreMemory);
     }
-    reader.close();
+    if (maxBins == exactBins) {
+      report.exactScores();
+    } else if (maxBins > 0) {
+      report.sketchScores(maxBins);
+    }
+    DiannReport.Counts counts = report.parse(resultPath, threads);
 
 //    fillMissingValues(reportedRunQValues);
 //    fillMissingValues(reportedGlobalQValues);
 
-    double[] entrapmentQValues = calculateQValue(targetCounts, decoyCounts, entrapmentTargetCounts, entrapmentDecoyCounts, 3);
-    long entrapmentQValueFilteredPrecursors = filterPrecursors(entrapmentQValues, Math.min(runPrecursorQValueT, globalPrecursorQValueT), targetCounts, entrapmentTargetCounts);
+    // Only the observed bins are kept. The empty bins of the dense arrays do not change the cumulative counts, so the q-values of the observed bins are the same.
+    SparseScoreHistogram.Bins bins = counts.histogram != null ? counts.histogram.compact() : counts.sketch.compact();
+    double[] entrapmentQValues = calculateQValue(bins.targetCounts, bins.decoyCounts, bins.entrapmentTargetCounts, bins.entrapmentDecoyCounts, 3);
+    double[] errorBounds = counts.sketch != null ? ScoreSketch.errorBounds(bins.targetCounts, bins.entrapmentTargetCounts, entrapmentQValues) : null;
+    long entrapmentQValueFilteredPrecursors = filterPrecursors(entrapmentQValues, Math.min(runPrecursorQValueT, globalPrecursorQValueT), bins.targetCounts, bins.entrapmentTargetCounts);
 
-    return new Entry(targetCounts, decoyCounts, entrapmentTargetCounts, entrapmentDecoyCounts, reportedRunQValues, reportedGlobalQValues, entrapmentQValues, reportedTargetPrecursorCount, reportedDecoyPrecursorCount, reportedEntrapmentPrecursorCount, reportedEntrapmentDecoyPrecursorCount, entrapmentQValueFilteredPrecursors, entrapmentProteins.size(), targetProteins.size());
+    return new Entry(bins.thresholds, bins.targetCounts, bins.decoyCounts, bins.entrapmentTargetCounts, bins.entrapmentDecoyCounts, bins.reportedRunQValues, bins.reportedGlobalQValues, entrapmentQValues, errorBounds, counts.targetPrecursorCounts()[0], counts.decoyPrecursorCounts()[0], counts.entrapmentPrecursorCounts()[0], counts.decoyEntrapmentPrecursorCounts()[0], entrapmentQValueFilteredPrecursors, counts.entrapmentProteinCounts()[0], counts.targetProteinCounts()[0], new RunBreakdown(counts));
   }
 
   private static void fillMissingValues(double[] qValues) {
@@ -240,10 +248,9 @@ public class DiannEntrapmentQValue {
     }
   }
 
-  private static double[] calculateQValue(long[] targetCounts, long[] decoyCounts, long[] entrapmentTargetCounts, long[] entrapmentDecoyCounts, int equation) {
+  static double[] calculateQValue(long[] targetCounts, long[] decoyCounts, long[] entrapmentTargetCounts, long[] entrapmentDecoyCounts, int equation) {
     if (targetCounts.length != decoyCounts.length || targetCounts.length != entrapmentTargetCounts.length || targetCounts.length != entrapmentDecoyCounts.length) {
-      System.out.println("The length of the target and decoy arrays are not equal.");
-      System.exit(1);
+      throw new IllegalArgumentException("The length of the target and decoy arrays are not equal.");
     }
 
     long decoyCount = 0;
@@ -261,8 +268,7 @@ public class DiannEntrapmentQValue {
         decoyCount += entrapmentTargetCounts[i];
         targetCount += targetCounts[i] + entrapmentTargetCounts[i];
       } else {
-        System.out.println("The equation " + equation + " is not supported.");
-        System.exit(1);
+        throw new IllegalArgumentException("The equation " + equation + " is not supported.");
       }
 
       if (targetCount == 0) {
@@ -304,6 +310,7 @@ public class DiannEntrapmentQValue {
 
   static class Entry {
 
+    final double[] thresholds;
     final long[] targetCounts;
     final long[] decoyCounts;
     final long[] entrapmentTargetCounts;
@@ -311,6 +318,7 @@ public class DiannEntrapmentQValue {
     final double[] reportedRunQValues;
     final double[] reportedGlobalQValues;
     final double[] entrapmentQValues;
+    final double[] errorBounds; // null unless the bins are from a ScoreSketch
     final long reportedTargetPrecursorCount;
     final long reportedDecoyPrecursorCount;
     final long reportedEntrapmentPrecursorCount;
@@ -318,8 +326,10 @@ public class DiannEntrapmentQValue {
     final long entrapmentQValueFilteredPrecursorCount;
     final long entrapmentProteinCount;
     final long targetProteinCount;
+    final RunBreakdown runBreakdown;
 
-    public Entry(long[] targetCounts, long[] decoyCounts, long[] entrapmentTargetCounts, long[] entrapmentDecoyCounts, double[] reportedRunQValues, double[] reportedGlobalQValues, double[] entrapmentQValues, long reportedTargetPrecursorCount, long reportedDecoyPrecursorCount, long reportedEntrapmentPrecursorCount, long reportedEntrapmentDecoyPrecursorCount, long entrapmentQValueFilteredPrecursorCount, long entrapmentProteinCount, long targetProteinCount) {
+    public Entry(double[] thresholds, long[] targetCounts, long[] decoyCounts, long[] entrapmentTargetCounts, long[] entrapmentDecoyCounts, double[] reportedRunQValues, double[] reportedGlobalQValues, double[] entrapmentQValues, double[] errorBounds, long reportedTargetPrecursorCount, long reportedDecoyPrecursorCount, long reportedEntrapmentPrecursorCount, long reportedEntrapmentDecoyPrecursorCount, long entrapmentQValueFilteredPrecursorCount, long entrapmentProteinCount, long targetProteinCount, RunBreakdown runBreakdown) {
+      this.thresholds = thresholds;
       this.targetCounts = targetCounts;
       this.decoyCounts = decoyCounts;
       this.entrapmentTargetCounts = entrapmentTargetCounts;
@@ -327,6 +337,7 @@ public class DiannEntrapmentQValue {
       this.reportedRunQValues = reportedRunQValues;
       this.reportedGlobalQValues = reportedGlobalQValues;
       this.entrapmentQValues = entrapmentQValues;
+      this.errorBounds = errorBounds;
       this.reportedTargetPrecursorCount = reportedTargetPrecursorCount;
       this.reportedDecoyPrecursorCount = reportedDecoyPrecursorCount;
       this.reportedEntrapmentPrecursorCount = reportedEntrapmentPrecursorCount;
@@ -334,6 +345,7 @@ public class DiannEntrapmentQValue {
       this.entrapmentQValueFilteredPrecursorCount = entrapmentQValueFilteredPrecursorCount;
       this.entrapmentProteinCount = entrapmentProteinCount;
       this.targetProteinCount = targetProteinCount;
+      this.runBreakdown = runBreakdown;
     }
   }
 }
@@ -0,0 +1,378 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * Counts the target and entrapment precursors and protein groups of a DIA-NN report.tsv or report.parquet. Used by CalculateFDP and DiannEntrapmentQValue.
+ */
+class DiannReport extends TsvParser<DiannReport.Counts> {
+
+  private final String entrapmentMarker;
+  private final ThresholdGrid precursorGrid;
+  private final ThresholdGrid pgGrid;
+  private final double binSize;
+  private Path spillDirectory = null;
+  private long scoreMemory = 0;
+  private int maxBufferedRows = Integer.MAX_VALUE;
+  private boolean exactScores = false;
+  private int maxScoreBins = 0;
+
+  private int runColumnIdx = -1;
+  private int pgColumnIdx = -1;
+  private int cscoreColumnIdx = -1;
+  private int decoyCscoreColumnIdx = -1;
+  private int runPrecursorQValueColumnIdx = -1;
+  private int globalPrecursorQValueColumnIdx = -1;
+  private int runPGQValueColumnIdx = -1;
+  private int globalPGQValueColumnIdx = -1;
+
+  // The CScores are collected into a SparseScoreHistogram with the bin size if it is larger than 0.
+  DiannReport(String entrapmentMarker, double runPrecursorQValueT, double globalPrecursorQValueT, double runPGQValueT, double globalPGQValueT, double binSize) {
+    this(entrapmentMarker, new double[]{runPrecursorQValueT}, new double[]{globalPrecursorQValueT}, new double[]{runPGQValueT}, new double[]{globalPGQValueT}, binSize);
+  }
+
+  // Counts every combination of the run-wise and global thresholds in one pass.
+  DiannReport(String entrapmentMarker, double[] runPrecursorQValueTs, double[] globalPrecursorQValueTs, double[] runPGQValueTs, double[] globalPGQValueTs, double binSize) {
+    super("File.Name");
+    this.entrapmentMarker = entrapmentMarker;
+    precursorGrid = new ThresholdGrid(runPrecursorQValueTs, globalPrecursorQValueTs);
+    pgGrid = new ThresholdGrid(runPGQValueTs, globalPGQValueTs);
+    this.binSize = binSize;
+  }
+
+  @Override
+  int parseHeader(TsvTokenizer tokenizer, Path path) throws IOException {
+    for (int i = 0; i < tokenizer.fieldCount(); ++i) {
+      setColumn(tokenizer.getString(i), i);
+    }
+    checkColumns(path);
+    return IntStream.of(runColumnIdx, pgColumnIdx, cscoreColumnIdx, decoyCscoreColumnIdx, runPrecursorQValueColumnIdx, globalPrecursorQValueColumnIdx, runPGQValueColumnIdx, globalPGQValueColumnIdx).max().getAsInt();
+  }
+
+  // Keeps the CScores held in memory below about the memory in bytes by spilling them to the directory, see SparseScoreHistogram.
+  void spillScores(Path directory, long memory) {
+    spillDirectory = directory;
+    scoreMemory = memory;
+  }
+
+  // One bin per distinct CScore instead of the bins of the bin size.
+  void exactScores() {
+    exactScores = true;
+  }
+
+  // A ScoreSketch of at most maxBins bins instead of the SparseScoreHistogram, so the memory does not grow with the number of rows.
+  void sketchScores(int maxBins) {
+    maxScoreBins = maxBins;
+  }
+
+  private double histogramBinSize() {
+    return exactScores ? 0 : binSize;
+  }
+
+  // Reads a DIA-NN report.parquet directly, otherwise a report.tsv.
+  @Override
+  Counts parse(Path path, int threads) throws Exception {
+    if (spillDirectory != null) {
+      // Up to four chunks per thread can be parsed before they are merged.
+      maxBufferedRows = (int) Math.min(Integer.MAX_VALUE - 8, scoreMemory / SparseScoreHistogram.bytesPerRow(histogramBinSize()) / (threads <= 1 ? 1 : threads * 4L));
+    }
+    if (ParquetFile.isParquet(path)) {
+      return parseParquet(path, threads);
+    } else {
+      return super.parse(path, threads);
+    }
+  }
+
+  private void setColumn(String column, int i) {
+    if (column.equalsIgnoreCase("Run")) {
+      runColumnIdx = i;
+    } else if (column.equalsIgnoreCase("Protein.Group")) {
+      pgColumnIdx = i;
+    } else if (column.equalsIgnoreCase("CScore")) {
+      cscoreColumnIdx = i;
+    } else if (column.equalsIgnoreCase("Decoy.CScore")) {
+      decoyCscoreColumnIdx = i;
+    } else if (column.equalsIgnoreCase("Q.Value")) {
+      runPrecursorQValueColumnIdx = i;
+    } else if (column.equalsIgnoreCase("Global.Q.Value")) {
+      globalPrecursorQValueColumnIdx = i;
+    } else if (column.equalsIgnoreCase("PG.Q.Value")) {
+      runPGQValueColumnIdx = i;
+    } else if (column.equalsIgnoreCase("Global.PG.Q.Value")) {
+      globalPGQValueColumnIdx = i;
+    }
+  }
+
+  private void checkColumns(Path path) throws IOException {
+    if (runColumnIdx < 0 || pgColumnIdx < 0 || cscoreColumnIdx < 0 || decoyCscoreColumnIdx < 0 || runPrecursorQValueColumnIdx < 0 || globalPrecursorQValueColumnIdx < 0 || runPGQValueColumnIdx < 0 || globalPGQValueColumnIdx < 0) {
+      throw new IOException("Some columns are missing in the result file: " + path.toAbsolutePath());
+    }
+  }
+
+  // Only the eight columns are read. The row groups are decoded in parallel and merged in file order.
+  private Counts parseParquet(Path path, int threads) throws Exception {
+    try (ParquetFile parquetFile = new ParquetFile(path)) {
+      List<String> columnNames = parquetFile.columnNames();
+      for (int i = 0; i < columnNames.size(); ++i) {
+        setColumn(columnNames.get(i), i);
+      }
+      checkColumns(path);
+
+      Counts counts = newAccumulator();
+      if (threads <= 1 || parquetFile.rowGroupCount() == 1) {
+        for (int i = 0; i < parquetFile.rowGroupCount(); ++i) {
+          counts.merge(parseRowGroup(parquetFile, i));
+        }
+        return counts;
+      }
+
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+        List<Future<Counts>> futures = new ArrayList<>();
+        for (int i = 0; i < parquetFile.rowGroupCount(); ++i) {
+          int rowGroup = i;
+          futures.add(pool.submit(() -> parseRowGroup(parquetFile, rowGroup)));
+        }
+        for (Future<Counts> future : futures) {
+          counts.merge(future.get());
+        }
+        return counts;
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  private Counts parseRowGroup(ParquetFile parquetFile, int rowGroup) throws Exception {
+    ParquetFile.StringColumn runs = parquetFile.readStrings(rowGroup, runColumnIdx);
+    ParquetFile.StringColumn pgs = parquetFile.readStrings(rowGroup, pgColumnIdx);
+    double[] cscores = parquetFile.readDoubles(rowGroup, cscoreColumnIdx);
+    double[] decoyCscores = parquetFile.readDoubles(rowGroup, decoyCscoreColumnIdx);
+    double[] runPrecursorQValues = parquetFile.readDoubles(rowGroup, runPrecursorQValueColumnIdx);
+    double[] globalPrecursorQValues = parquetFile.readDoubles(rowGroup, globalPrecursorQValueColumnIdx);
+    double[] runPGQValues = parquetFile.readDoubles(rowGroup, runPGQValueColumnIdx);
+    double[] globalPGQValues = parquetFile.readDoubles(rowGroup, globalPGQValueColumnIdx);
+
+    // Runs and protein groups repeat a lot, so intern and classify each distinct one only once.
+    Counts counts = newAccumulator();
+    int[] runIds = new int[runs.dictionary.length];
+    for (int i = 0; i < runIds.length; ++i) {
+      runIds[i] = counts.runs.intern(runs.dictionary[i]);
+    }
+    int[] pgIds = new int[pgs.dictionary.length];
+    boolean[] entrapmentPGs = new boolean[pgs.dictionary.length];
+    for (int i = 0; i < pgIds.length; ++i) {
+      pgIds[i] = counts.pgs.intern(pgs.dictionary[i]);
+      entrapmentPGs[i] = counts.classifier.isEntrapment(pgs.dictionary[i]);
+    }
+
+    for (int i = 0; i < cscores.length; ++i) {
+      int pg = pgs.indices[i];
+      addRow(counts, runIds[runs.indices[i]], pgIds[pg], entrapmentPGs[pg], cscores[i], decoyCscores[i], runPrecursorQValues[i], globalPrecursorQValues[i], runPGQValues[i], globalPGQValues[i]);
+    }
+    return counts;
+  }
+
+  @Override
+  Counts newAccumulator() {
+    return new Counts(new EntrapmentClassifier(entrapmentMarker, ';', false, EntrapmentClassifier.defaultCapacity), binSize > 0 && maxScoreBins == 0 ? new SparseScoreHistogram(histogramBinSize(), spillDirectory, maxBufferedRows) : null, binSize > 0 && maxScoreBins > 0 ? new ScoreSketch(maxScoreBins) : null, precursorGrid, pgGrid);
+  }
+
+  @Override
+  void parseRow(TsvTokenizer tokenizer, Counts counts) {
+    int runId = counts.runs.intern(tokenizer.buffer(), tokenizer.start(runColumnIdx), tokenizer.end(runColumnIdx));
+    int pgId = counts.pgs.intern(tokenizer.buffer(), tokenizer.start(pgColumnIdx), tokenizer.end(pgColumnIdx));
+    boolean isEntrapment = counts.classifier.isEntrapment(tokenizer.buffer(), tokenizer.start(pgColumnIdx), tokenizer.end(pgColumnIdx));
+    addRow(counts, runId, pgId, isEntrapment, tokenizer.getDouble(cscoreColumnIdx), tokenizer.getDouble(decoyCscoreColumnIdx), tokenizer.getDouble(runPrecursorQValueColumnIdx), tokenizer.getDouble(globalPrecursorQValueColumnIdx), tokenizer.getDouble(runPGQValueColumnIdx), tokenizer.getDouble(globalPGQValueColumnIdx));
+  }
+
+  private void addRow(Counts counts, int runId, int pgId, boolean isEntrapment, double cscore, double decoyCscore, double runPrecursorQValue, double globalPrecursorQValue, double runPGQValue, double globalPGQValue) {
+    if (cscore <= decoyCscore) {
+      counts.thereAreDecoyScoreLargerThanTargetScore = true;
+    }
+
+    int precursorCell = precursorGrid.cell(runPrecursorQValue, globalPrecursorQValue);
+    if (precursorCell >= 0) {
+      precursorCell = counts.runPrecursorCell(runId, precursorCell);
+      if (isEntrapment) {
+        ++counts.entrapmentPrecursorCells[precursorCell];
+        if (decoyCscore > 0) {
+          ++counts.decoyEntrapmentPrecursorCells[precursorCell];
+        }
+      } else {
+        ++counts.targetPrecursorCells[precursorCell];
+        if (decoyCscore > 0) {
+          ++counts.decoyPrecursorCells[precursorCell];
+        }
+      }
+    }
+
+    int pgCell = pgGrid.cell(runPGQValue, globalPGQValue);
+    if (pgCell >= 0) {
+      long pair = ((long) runId << 32) | pgId;
+      if (isEntrapment) {
+        counts.entrapmentProteinCells[pgCell].add(pair);
+      } else {
+        counts.targetProteinCells[pgCell].add(pair);
+      }
+    }
+
+    if (counts.histogram != null) {
+      counts.histogram.add(cscore, decoyCscore, isEntrapment, runPrecursorQValue, globalPrecursorQValue);
+    }
+    if (counts.sketch != null) {
+      counts.sketch.add(cscore, decoyCscore, isEntrapment, runPrecursorQValue, globalPrecursorQValue);
+    }
+  }
+
+  static class Counts implements TsvParser.Accumulator<Counts> {
+
+    // The precursors of each cell of the threshold grid per run, at run ID * cell count + cell, and the (run ID << 32) | PG ID pairs of each cell.
+    long[] targetPrecursorCells;
+    long[] decoyPrecursorCells;
+    long[] entrapmentPrecursorCells;
+    long[] decoyEntrapmentPrecursorCells;
+    final LongHashSet[] targetProteinCells;
+    final LongHashSet[] entrapmentProteinCells;
+    final StringDictionary runs = new StringDictionary();
+    final StringDictionary pgs = new StringDictionary();
+    boolean thereAreDecoyScoreLargerThanTargetScore = false;
+    final EntrapmentClassifier classifier;
+    final SparseScoreHistogram histogram;
+    final ScoreSketch sketch;
+    final ThresholdGrid precursorGrid;
+    final ThresholdGrid pgGrid;
+
+    Counts(EntrapmentClassifier classifier, SparseScoreHistogram histogram, ScoreSketch sketch, ThresholdGrid precursorGrid, ThresholdGrid pgGrid) {
+      this.classifier = classifier;
+      this.histogram = histogram;
+      this.sketch = sketch;
+      this.precursorGrid = precursorGrid;
+      this.pgGrid = pgGrid;
+      targetPrecursorCells = new long[0];
+      decoyPrecursorCells = new long[0];
+      entrapmentPrecursorCells = new long[0];
+      decoyEntrapmentPrecursorCells = new long[0];
+      targetProteinCells = new LongHashSet[pgGrid.cellCount()];
+      entrapmentProteinCells = new LongHashSet[pgGrid.cellCount()];
+      for (int i = 0; i < pgGrid.cellCount(); ++i) {
+        targetProteinCells[i] = new LongHashSet();
+        entrapmentProteinCells[i] = new LongHashSet();
+      }
+    }
+
+    // The counts of each combination of the precursor or the protein group thresholds, see ThresholdGrid.
+    long[] targetPrecursorCounts() {
+      return precursorGrid.total(targetPrecursorCountsByRun());
+    }
+
+    long[] decoyPrecursorCounts() {
+      return precursorGrid.total(decoyPrecursorCountsByRun());
+    }
+
+    long[] entrapmentPrecursorCounts() {
+      return precursorGrid.total(entrapmentPrecursorCountsByRun());
+    }
+
+    long[] decoyEntrapmentPrecursorCounts() {
+      return precursorGrid.total(decoyEntrapmentPrecursorCountsByRun());
+    }
+
+    long[] targetProteinCounts() {
+      return pgGrid.total(targetProteinCountsByRun());
+    }
+
+    long[] entrapmentProteinCounts() {
+      return pgGrid.total(entrapmentProteinCountsByRun());
+    }
+
+    // The same per run, at run ID * combination count + combination.
+    long[] targetPrecursorCountsByRun() {
+      return precursorGrid.cumulativeCounts(Arrays.copyOf(targetPrecursorCells, runs.size() * precursorGrid.cellCount()));
+    }
+
+    long[] decoyPrecursorCountsByRun() {
+      return precursorGrid.cumulativeCounts(Arrays.copyOf(decoyPrecursorCells, runs.size() * precursorGrid.cellCount()));
+    }
+
+    long[] entrapmentPrecursorCountsByRun() {
+      return precursorGrid.cumulativeCounts(Arrays.copyOf(entrapmentPrecursorCells, runs.size() * precursorGrid.cellCount()));
+    }
+
+    long[] decoyEntrapmentPrecursorCountsByRun() {
+      return precursorGrid.cumulativeCounts(Arrays.copyOf(decoyEntrapmentPrecursorCells, runs.size() * precursorGrid.cellCount()));
+    }
+
+    long[] targetProteinCountsByRun() {
+      return pgGrid.distinctCounts(targetProteinCells, runs.size());
+    }
+
+    long[] entrapmentProteinCountsByRun() {
+      return pgGrid.distinctCounts(entrapmentProteinCells, runs.size());
+    }
+
+    // The index of the cell of the run in the precursor cells, which grow with the runs.
+    int runPrecursorCell(int runId, int cell) {
+      int index = runId * precursorGrid.cellCount() + cell;
+      if (index >= targetPrecursorCells.length) {
+        int length = Math.max(targetPrecursorCells.length * 2, (runId + 1) * precursorGrid.cellCount());
+        targetPrecursorCells = Arrays.copyOf(targetPrecursorCells, length);
+        decoyPrecursorCells = Arrays.copyOf(decoyPrecursorCells, length);
+        entrapmentPrecursorCells = Arrays.copyOf(entrapmentPrecursorCells, length);
+        decoyEntrapmentPrecursorCells = Arrays.copyOf(decoyEntrapmentPrecursorCells, length);
+      }
+      return index;
+    }
+
+    @Override
+    public void merge(Counts other) {
+      // The IDs are local to each accumulator, so translate the runs and pairs of the other one.
+      int[] runIds = runs.internAll(other.runs);
+      int[] pgIds = pgs.internAll(other.pgs);
+      for (int i = 0; i < Math.min(other.targetPrecursorCells.length, other.runs.size() * precursorGrid.cellCount()); ++i) {
+        int cell = runPrecursorCell(runIds[i / precursorGrid.cellCount()], i % precursorGrid.cellCount());
+        targetPrecursorCells[cell] += other.targetPrecursorCells[i];
+        decoyPrecursorCells[cell] += other.decoyPrecursorCells[i];
+        entrapmentPrecursorCells[cell] += other.entrapmentPrecursorCells[i];
+        decoyEntrapmentPrecursorCells[cell] += other.decoyEntrapmentPrecursorCells[i];
+      }
+      for (int i = 0; i < targetProteinCells.length; ++i) {
+        for (long pair : other.targetProteinCells[i].toArray()) {
+          targetProteinCells[i].add(((long) runIds[(int) (pair >>> 32)] << 32) | pgIds[(int) pair]);
+        }
+        for (long pair : other.entrapmentProteinCells[i].toArray()) {
+          entrapmentProteinCells[i].add(((long) runIds[(int) (pair >>> 32)] << 32) | pgIds[(int) pair]);
+        }
+      }
+      thereAreDecoyScoreLargerThanTargetScore |= other.thereAreDecoyScoreLargerThanTargetScore;
+      classifier.merge(other.classifier);
+      if (histogram != null) {
+        histogram.merge(other.histogram);
+      }
+      if (sketch != null) {
+        sketch.merge(other.sketch);
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the cleavage sites of a sequence with lookup tables instead of regular expressions. The tables are filled from the same character
+ * classes as the regular expressions "[cut](?![protect])" (C-term) and "(?<![protect])[cut]" (N-term), so the sites are the same. Immutable
+ * and thread-safe.
+ */
+class Digester {
+
+  private final boolean[] cleavageTable = new boolean[256];
+  private final boolean[] protectionTable = new boolean[256];
+  private final Pattern cleavagePattern;
+  private final Pattern protectionPattern; // null if there is no protection site ("-")
+  private final boolean cleavageFromCTerm;
+
+  Digester(String cleavageSites, String protectionSites, boolean cleavageFromCTerm) {
+    cleavagePattern = Pattern.compile("[" + cleavageSites + "]");
+    protectionPattern = protectionSites.contentEquals("-") ? null : Pattern.compile("[" + protectionSites + "]");
+    this.cleavageFromCTerm = cleavageFromCTerm;
+    for (char c = 0; c < 256; ++c) {
+      cleavageTable[c] = cleavagePattern.matcher(String.valueOf(c)).matches();
+      protectionTable[c] = protectionPattern != null && protectionPattern.matcher(String.valueOf(c)).matches();
+    }
+  }
+
+  // The positions of the cleaved residues in ascending order.
+  int[] cleavageSites(CharSequence sequence) {
+    int length = sequence.length();
+    int[] sites = new int[16];
+    int count = 0;
+    for (int i = 0; i < length; ++i) {
+      if (isCleavageSite(sequence.charAt(i))) {
+        if (cleavageFromCTerm) {
+          if (i + 1 < length && isProtectionSite(sequence.charAt(i + 1))) {
+            continue;
+          }
+        } else if (i > 0 && isProtectionSite(sequence.charAt(i - 1))) {
+          continue;
+        }
+        if (count == sites.length) {
+          sites = Arrays.copyOf(sites, count * 2);
+        }
+        sites[count++] = i;
+      }
+    }
+    return Arrays.copyOf(sites, count);
+  }
+
+  private boolean isCleavageSite(char c) {
+    return c < 256 ? cleavageTable[c] : cleavagePattern.matcher(String.valueOf(c)).matches();
+  }
+
+  private boolean isProtectionSite(char c) {
+    if (c < 256) {
+      return protectionTable[c];
+    }
+    return protectionPattern != null && protectionPattern.matcher(String.valueOf(c)).matches();
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a protein group is an entrapment, i.e. every protein of the group contains the entrapment marker. The verdicts are cached
+ * per distinct group in a fixed-size direct-mapped table, so splitting and searching only happen once per group as long as it stays in the
+ * table. Not thread-safe: each parser chunk uses its own instance.
+ */
+class EntrapmentClassifier {
+
+  static final int defaultCapacity = 1 << 16;
+
+  private final String entrapmentMarker;
+  private final byte[] markerBytes;
+  private final Pattern delimiter;
+  private final boolean trim;
+
+  private final byte[][] keys;
+  private final int[] hashes;
+  private final boolean[] verdicts;
+  private final int mask;
+
+  private long hitCount = 0;
+  private long missCount = 0;
+
+  // The group is split with String.split(delimiter). With trim, each protein is trimmed before the check.
+  EntrapmentClassifier(String entrapmentMarker, char delimiter, boolean trim, int capacity) {
+    this.entrapmentMarker = entrapmentMarker;
+    markerBytes = entrapmentMarker.getBytes(StandardCharsets.UTF_8);
+    this.delimiter = Pattern.compile(Pattern.quote(String.valueOf(delimiter)));
+    this.trim = trim;
+    int tableSize = Integer.highestOneBit(Math.max(capacity, 1));
+    keys = new byte[tableSize][];
+    hashes = new int[tableSize];
+    verdicts = new boolean[tableSize];
+    mask = tableSize - 1;
+  }
+
+  boolean isEntrapment(byte[] bytes, int start, int end) {
+    int hash = StringDictionary.hash(bytes, start, end);
+    int slot = hash & mask;
+    byte[] key = keys[slot];
+    if (key != null && hashes[slot] == hash && equals(key, bytes, start, end)) {
+      ++hitCount;
+      return verdicts[slot];
+    }
+    ++missCount;
+    boolean verdict = classify(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+    keys[slot] = Arrays.copyOfRange(bytes, start, end);
+    hashes[slot] = hash;
+    verdicts[slot] = verdict;
+    return verdict;
+  }
+
+  boolean isEntrapment(String group) {
+    byte[] bytes = group.getBytes(StandardCharsets.UTF_8);
+    return isEntrapment(bytes, 0, bytes.length);
+  }
+
+  // A plain substring check of one protein, without the cache.
+  boolean containsMarker(byte[] bytes, int start, int end) {
+    int last = end - markerBytes.length;
+    outer:
+    for (int i = start; i <= last; ++i) {
+      for (int j = 0; j < markerBytes.length; ++j) {
+        if (bytes[i + j] != markerBytes[j]) {
+          continue outer;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  long hitCount() {
+    return hitCount;
+  }
+
+  long missCount() {
+    return missCount;
+  }
+
+  // Adds the counters of the classifier of another chunk.
+  void merge(EntrapmentClassifier other) {
+    hitCount += other.hitCount;
+    missCount += other.missCount;
+  }
+
+  // For the output of the tools.
+  String counters() {
+    return "Protein group classification cache: " + hitCount + " hits, " + missCount + " misses";
+  }
+
+  private boolean classify(String group) {
+    for (String p : delimiter.split(group)) {
+      if (!(trim ? p.trim() : p).contains(entrapmentMarker)) { // As long as there is a non-entrapment protein, it is not an entrapment.
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean equals(byte[] key, byte[] bytes, int start, int end) {
+    if (key.length != end - start) {
+      return false;
+    }
+    for (int i = 0; i < key.length; ++i) {
+      if (key[i] != bytes[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The offsets and the ordinals of the records of an uncompressed fasta file by accession, for random access with FastaReader.seek. The index is cached in a
+ * sidecar file next to the fasta file (<fasta file>.offsets) like FastaSummary, so the fasta file is only scanned again when its size or
+ * modification time changes.
+ */
+class FastaIndex {
+
+  private static final int version = 2;
+
+  final long size;
+  final long lastModified;
+  final int recordCount; // with a header
+  private final String[] accessions; // sorted
+  private final long[] offsets;
+  private final int[] ordinals;
+
+  private FastaIndex(long size, long lastModified, int recordCount, String[] accessions, long[] offsets, int[] ordinals) {
+    this.size = size;
+    this.lastModified = lastModified;
+    this.recordCount = recordCount;
+    this.accessions = accessions;
+    this.offsets = offsets;
+    this.ordinals = ordinals;
+  }
+
+  // From the sidecar file if it is still valid, otherwise from the fasta file, which also (re)writes the sidecar file.
+  static FastaIndex load(Path fastaPath) throws Exception {
+    long size = Files.size(fastaPath);
+    long lastModified = Files.getLastModifiedTime(fastaPath).toMillis();
+    Path sidecarPath = sidecarPath(fastaPath);
+    FastaIndex index = read(sidecarPath);
+    if (index != null && index.size == size && index.lastModified == lastModified) {
+      return index;
+    }
+    index = scan(fastaPath, size, lastModified);
+    index.write(sidecarPath);
+    return index;
+  }
+
+  static Path sidecarPath(Path fastaPath) {
+    return fastaPath.resolveSibling(fastaPath.getFileName() + ".offsets");
+  }
+
+  // The first of duplicated accessions wins.
+  static FastaIndex scan(Path fastaPath, long size, long lastModified) throws Exception {
+    Map<String, long[]> recordMap = new HashMap<>(); // offset and ordinal
+    int recordCount = 0;
+    try (FastaReader reader = new FastaReader(fastaPath)) {
+      while (reader.next()) {
+        if (reader.hasHeader()) {
+          recordMap.putIfAbsent(accession(reader.header()), new long[]{reader.headerOffset(), recordCount});
+          ++recordCount;
+        }
+      }
+    }
+    String[] accessions = recordMap.keySet().toArray(new String[0]);
+    Arrays.sort(accessions);
+    long[] offsets = new long[accessions.length];
+    int[] ordinals = new int[accessions.length];
+    for (int i = 0; i < accessions.length; ++i) {
+      long[] record = recordMap.get(accessions[i]);
+      offsets[i] = record[0];
+      ordinals[i] = (int) record[1];
+    }
+    return new FastaIndex(size, lastModified, recordCount, accessions, offsets, ordinals);
+  }
+
+  // The second field of a UniProt style header (sp|P12345|NAME_HUMAN ...), otherwise the first word.
+  static String accession(String header) {
+    int end = 0;
+    while (end < header.length() && !Character.isWhitespace(header.charAt(end))) {
+      ++end;
+    }
+    int bar1 = header.indexOf('|');
+    if (bar1 >= 0 && bar1 < end) {
+      int bar2 = header.indexOf('|', bar1 + 1);
+      return header.substring(bar1 + 1, bar2 >= 0 && bar2 < end ? bar2 : end);
+    }
+    return header.substring(0, end);
+  }
+
+  int proteinCount() {
+    return accessions.length;
+  }
+
+  // The offset of the header, or -1 if there is no protein with the accession.
+  long offset(String accession) {
+    int i = Arrays.binarySearch(accessions, accession);
+    return i < 0 ? -1 : offsets[i];
+  }
+
+  // The number of records with a header before the protein, or -1 if there is no protein with the accession.
+  int ordinal(String accession) {
+    int i = Arrays.binarySearch(accessions, accession);
+    return i < 0 ? -1 : ordinals[i];
+  }
+
+  // Null if the file is missing, unreadable or from another version.
+  private static FastaIndex read(Path sidecarPath) {
+    if (!Files.isRegularFile(sidecarPath)) {
+      return null;
+    }
+    try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecarPath)))) {
+      if (inputStream.readInt() != version) {
+        return null;
+      }
+      long size = inputStream.readLong();
+      long lastModified = inputStream.readLong();
+      int recordCount = inputStream.readInt();
+      int count = inputStream.readInt();
+      String[] accessions = new String[count];
+      long[] offsets = new long[count];
+      int[] ordinals = new int[count];
+      for (int i = 0; i < count; ++i) {
+        accessions[i] = inputStream.readUTF();
+        offsets[i] = inputStream.readLong();
+        ordinals[i] = inputStream.readInt();
+      }
+      return new FastaIndex(size, lastModified, recordCount, accessions, offsets, ordinals);
+    } catch (Exception ex) {
+      return null;
+    }
+  }
+
+  // Best effort like FastaSummary.write.
+  private void write(Path sidecarPath) {
+    Path temporaryPath = null;
+    try {
+      temporaryPath = sidecarPath.resolveSibling(sidecarPath.getFileName() + "." + ProcessHandle.current().pid() + "." + Thread.currentThread().getId() + ".tmp");
+      try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+        outputStream.writeInt(version);
+        outputStream.writeLong(size);
+        outputStream.writeLong(lastModified);
+        outputStream.writeInt(recordCount);
+        outputStream.writeInt(accessions.length);
+        for (int i = 0; i < accessions.length; ++i) {
+          outputStream.writeUTF(accessions[i]);
+          outputStream.writeLong(offsets[i]);
+          outputStream.writeInt(ordinals[i]);
+        }
+      }
+      Files.move(temporaryPath, sidecarPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (Exception ex) {
+      try {
+        if (temporaryPath != null) {
+          Files.deleteIfExists(temporaryPath);
+        }
+      } catch (Exception ignored) {
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes a generated fasta file with a FastaWriter and collects its summary on the way, so that it does not need to be scanned again: the
+ * CRC32C checksum of the uncompressed bytes and the numbers of entrapment and non-entrapment proteins for both entrapment styles, counted like FastaSummary.scan. On close, the
+ * summary is written as the sidecar file of FastaSummary together with the given manifest properties and the ratio r of the given entrapment
+ * style. Only the header lines are buffered. Only one thread may write.
+ */
+class FastaManifestWriter extends Writer {
+
+  private final Path fastaPath;
+  private final FastaWriter writer;
+  private final int entrapmentStyle;
+  private final Map<String, String> manifest;
+  private final StringBuilder header = new StringBuilder();
+  private boolean lineStarted = false; // seen a non-whitespace character in the current line
+  private boolean inHeader = false;
+  private final long[] entrapmentProteinCounts = new long[FastaSummary.entrapmentMarkers.length];
+  private final long[] nonEntrapmentProteinCounts = new long[FastaSummary.entrapmentMarkers.length];
+  private FastaSummary summary = null;
+
+  FastaManifestWriter(Path fastaPath, int entrapmentStyle, Map<String, String> manifest) throws IOException {
+    this.fastaPath = fastaPath;
+    this.entrapmentStyle = entrapmentStyle;
+    this.manifest = new LinkedHashMap<>(manifest);
+    writer = new FastaWriter(fastaPath);
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    writer.write(c);
+    add((char) c);
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    writer.write(cbuf, off, len);
+    for (int i = off; i < off + len; ++i) {
+      add(cbuf[i]);
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    writer.write(str, off, len);
+    for (int i = off; i < off + len; ++i) {
+      add(str.charAt(i));
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (summary != null) {
+      return;
+    }
+    endLine();
+    writer.close();
+    summary = new FastaSummary(Files.size(fastaPath), Files.getLastModifiedTime(fastaPath).toMillis(), writer.crc32c(), entrapmentProteinCounts, nonEntrapmentProteinCounts);
+    summary.putProteinCounts(manifest, entrapmentStyle);
+    summary.write(FastaSummary.sidecarPath(fastaPath), manifest);
+  }
+
+  // Null before close.
+  FastaSummary summary() {
+    return summary;
+  }
+
+  private void add(char c) {
+    if (c == '\n') {
+      endLine();
+    } else if (inHeader) {
+      header.append(c);
+    } else if (!lineStarted && c > ' ') { // String.trim removes the characters up to ' '
+      lineStarted = true;
+      inHeader = c == '>';
+    }
+  }
+
+  private void endLine() {
+    if (inHeader) {
+      for (int i = 0; i < FastaSummary.entrapmentMarkers.length; ++i) {
+        if (header.indexOf(FastaSummary.entrapmentMarkers[i]) >= 0) {
+          ++entrapmentProteinCounts[i];
+        } else {
+          ++nonEntrapmentProteinCounts[i];
+        }
+      }
+      header.setLength(0);
+    }
+    lineStarted = false;
+    inHeader = false;
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads an uncompressed fasta file through a memory-mapped window. The headers are found by searching for '>' eight bytes at a time, so the sequence
+ * lines are skipped without splitting them into lines. A record is a header line and the lines up to the next header, given as file offsets; the header and
+ * the sequence are only decoded on request. The lines are read like BufferedReader.readLine followed by String.trim: a header is a line whose
+ * first non-whitespace character is '>', and the sequence is the concatenation of the trimmed lines. The default charset needs to be ASCII
+ * compatible, like for any fasta file. Not thread-safe.
+ */
+class FastaReader implements AutoCloseable {
+
+  private static final long ones = 0x0101010101010101L;
+  private static final long highBits = 0x8080808080808080L;
+  private static final long greaterThans = ones * '>';
+
+  private final FileChannel channel;
+  private final long size;
+  private final int maxWindowSize;
+  private MappedByteBuffer window;
+  private long windowStart = 0;
+  private long windowEnd = 0;
+  private byte[] bytes = new byte[1 << 12]; // for decoding
+
+  // the current record
+  private long recordStart = 0;
+  private long headerStart = -1; // of '>', -1 if the file starts with sequence lines before the first header
+  private long headerEnd = 0; // the line terminator of the header line
+  private long sequenceEnd = 0; // the '>' of the next header or the end of the file
+  private long nextHeader; // -2 before the first record, -1 at the end
+
+  FastaReader(Path path) throws IOException {
+    this(path, Integer.MAX_VALUE - 8);
+  }
+
+  // With a smaller window for tests. A record needs to fit into the window.
+  FastaReader(Path path, int maxWindowSize) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    size = channel.size();
+    this.maxWindowSize = maxWindowSize;
+    map(0);
+    nextHeader = -2;
+  }
+
+  // Passes each record of the file to the handler. The header is null for sequence lines before the first header. Compressed files cannot be
+  // memory-mapped, so they are decompressed (on threads of their own, see CompressedInput) and read line by line with the same result.
+  static void forEach(Path path, int threads, RecordHandler handler) throws Exception {
+    if (CompressedInput.compression(path) == 0) {
+      try (FastaReader reader = new FastaReader(path)) {
+        while (reader.next()) {
+          handler.accept(reader.header(), reader.sequence());
+        }
+      }
+      return;
+    }
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(new CompressedInput(path, threads))), 1 << 16)) {
+      String header = null;
+      StringBuilder sequence = new StringBuilder();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.startsWith(">")) {
+          if (header != null || sequence.length() > 0) {
+            handler.accept(header, sequence.toString());
+          }
+          header = line.substring(1);
+          sequence.setLength(0);
+        } else {
+          sequence.append(line);
+        }
+      }
+      if (header != null || sequence.length() > 0) {
+        handler.accept(header, sequence.toString());
+      }
+    }
+  }
+
+  // Advances to the next record. Returns false at the end of the file.
+  boolean next() throws IOException {
+    if (nextHeader == -2) {
+      // Sequence lines before the first header make a record without a header.
+      recordStart = 0;
+      long first = findHeader(0);
+      if (hasNonWhitespace(0, first < 0 ? size : first)) {
+        headerStart = -1;
+        headerEnd = 0;
+        sequenceEnd = first < 0 ? size : first;
+        nextHeader = first;
+        return true;
+      }
+      nextHeader = first;
+    }
+    if (nextHeader < 0) {
+      return false;
+    }
+    recordStart = nextHeader;
+    headerStart = nextHeader;
+    headerEnd = lineEnd(headerStart);
+    nextHeader = findHeader(headerEnd);
+    sequenceEnd = nextHeader < 0 ? size : nextHeader;
+    return true;
+  }
+
+  // Moves to the record with the header at the offset, e.g. from FastaIndex, so that next() reads it.
+  void seek(long offset) throws IOException {
+    recordStart = offset;
+    if (offset < 0 || offset >= size || byteAt(offset) != '>') {
+      throw new IOException("There is no fasta header at offset " + offset + ".");
+    }
+    nextHeader = offset;
+  }
+
+  boolean hasHeader() {
+    return headerStart >= 0;
+  }
+
+  // The offset of the '>' of the current header, or -1.
+  long headerOffset() {
+    return headerStart;
+  }
+
+  // The end of the current record, which is the offset of the next header or the size of the file.
+  long endOffset() {
+    return sequenceEnd;
+  }
+
+  // The trimmed header line without the leading '>', or null if the record has no header.
+  String header() throws IOException {
+    if (headerStart < 0) {
+      return null;
+    }
+    long end = headerEnd;
+    while (end > headerStart + 1 && byteAt(end - 1) <= ' ') {
+      --end;
+    }
+    return decode(headerStart + 1, end);
+  }
+
+  // Like String.contains on the header line, for an ASCII marker without whitespace.
+  boolean headerContains(byte[] marker) throws IOException {
+    if (headerStart < 0) {
+      return false;
+    }
+    ensureMapped(headerStart, headerEnd);
+    int from = (int) (headerStart + 1 - windowStart);
+    int to = (int) (headerEnd - windowStart) - marker.length;
+    for (int i = from; i <= to; ++i) {
+      int j = 0;
+      while (j < marker.length && window.get(i + j) == marker[j]) {
+        ++j;
+      }
+      if (j == marker.length) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The trimmed lines of the record after the header line, concatenated.
+  String sequence() throws IOException {
+    long start = headerStart < 0 ? 0 : headerEnd;
+    int length = (int) (sequenceEnd - start);
+    ensureMapped(start, sequenceEnd);
+    if (bytes.length < length) {
+      bytes = new byte[Math.max(length, bytes.length * 2)];
+    }
+    ByteBuffer view = window.duplicate();
+    view.position((int) (start - windowStart));
+    view.get(bytes, 0, length);
+    // Drops the line terminators and the leading and trailing whitespace of each line, in place.
+    byte[] bytes = this.bytes;
+    int w = 0;
+    int lineEnd = 0; // after the last non-whitespace byte of the current line
+    boolean leading = true;
+    for (int i = 0; i < length; ++i) {
+      byte b = bytes[i];
+      if (b == '\n' || b == '\r') {
+        w = lineEnd;
+        leading = true;
+      } else if (b < 0 || b > ' ') {
+        bytes[w++] = b;
+        lineEnd = w;
+        leading = false;
+      } else if (!leading) {
+        bytes[w++] = b;
+      }
+    }
+    return new String(bytes, 0, lineEnd, Charset.defaultCharset());
+  }
+
+  // The CRC32C of the whole file, read through the window.
+  long crc32c() throws IOException {
+    CRC32C crc32c = new CRC32C();
+    long offset = 0;
+    while (offset < size) {
+      if (offset < windowStart || offset >= windowEnd) {
+        map(offset);
+      }
+      ByteBuffer view = window.duplicate();
+      view.position((int) (offset - windowStart));
+      crc32c.update(view);
+      offset = windowEnd;
+    }
+    return crc32c.getValue();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  // The offset of the next '>' at or after from that starts a header line, or -1.
+  private long findHeader(long from) throws IOException {
+    long p = from;
+    while (p < size) {
+      if (p >= windowEnd) {
+        remap(p);
+      }
+      int i = (int) (p - windowStart);
+      int limit = (int) (windowEnd - windowStart) - 8;
+      while (i <= limit) {
+        long x = window.getLong(i) ^ greaterThans;
+        long found = (x - ones) & ~x & highBits; // the lowest set bit is the first '>'
+        if (found == 0) {
+          i += 8;
+          continue;
+        }
+        i += Long.numberOfTrailingZeros(found) >>> 3;
+        if (isLineStart(windowStart + i)) {
+          return windowStart + i;
+        }
+        ++i;
+      }
+      int end = (int) (windowEnd - windowStart);
+      for (; i < end; ++i) {
+        if (window.get(i) == '>' && isLineStart(windowStart + i)) {
+          return windowStart + i;
+        }
+      }
+      p = windowEnd;
+    }
+    return -1;
+  }
+
+  // Whether only whitespace precedes the offset on its line. readLine also ends a line at '\r'.
+  private boolean isLineStart(long offset) throws IOException {
+    for (long i = offset - 1; i >= 0; --i) {
+      byte b = byteAt(i);
+      if (b == '\n' || b == '\r') {
+        return true;
+      }
+      if (b < 0 || b > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private long lineEnd(long offset) throws IOException {
+    long i = offset;
+    while (i < size) {
+      byte b = byteAt(i);
+      if (b == '\n' || b == '\r') {
+        break;
+      }
+      ++i;
+    }
+    return i;
+  }
+
+  private boolean hasNonWhitespace(long start, long end) throws IOException {
+    for (long i = start; i < end; ++i) {
+      byte b = byteAt(i);
+      if (b < 0 || b > ' ') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private byte byteAt(long offset) throws IOException {
+    if (offset < windowStart || offset >= windowEnd) {
+      remap(offset);
+    }
+    return window.get((int) (offset - windowStart));
+  }
+
+  // Keeps the current record in the window while reading past its end.
+  private void remap(long offset) throws IOException {
+    long start = recordStart <= offset ? recordStart : offset;
+    if (offset - start >= maxWindowSize) {
+      throw new IOException("A fasta record at offset " + start + " is longer than " + maxWindowSize + " bytes.");
+    }
+    map(start);
+  }
+
+  private void ensureMapped(long start, long end) throws IOException {
+    if (start < windowStart || end > windowEnd) {
+      if (end - start > maxWindowSize) {
+        throw new IOException("A fasta record at offset " + start + " is longer than " + maxWindowSize + " bytes.");
+      }
+      map(start);
+    }
+  }
+
+  private void map(long start) throws IOException {
+    windowStart = start;
+    windowEnd = Math.min(size, start + maxWindowSize);
+    window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+    window.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private String decode(long start, long end) throws IOException {
+    int length = (int) (end - start);
+    if (bytes.length < length) {
+      bytes = new byte[Math.max(length, bytes.length * 2)];
+    }
+    ensureMapped(start, end);
+    ByteBuffer view = window.duplicate();
+    view.position((int) (start - windowStart));
+    view.get(bytes, 0, length);
+    return new String(bytes, 0, length, Charset.defaultCharset());
+  }
+
+
+  interface RecordHandler {
+
+    void accept(String header, String sequence) throws Exception;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * The numbers of entrapment and non-entrapment proteins of a (possibly gzip or zstd compressed) fasta file for both entrapment styles. They are cached in a sidecar file next to the
+ * fasta file (<fasta file>.summary), so the fasta file is only scanned again when its size or modification time changes.
+ */
+class FastaSummary {
+
+  static final String[] entrapmentMarkers = {"entrapment_", "_p_target"}; // by entrapment style
+  private static final String version = "1";
+
+  final long size;
+  final long lastModified;
+  final long crc32c; // of the uncompressed content when the summary was made; informational only, load does not check it
+  // by entrapment style
+  final long[] entrapmentProteinCounts;
+  final long[] nonEntrapmentProteinCounts;
+
+  FastaSummary(long size, long lastModified, long crc32c, long[] entrapmentProteinCounts, long[] nonEntrapmentProteinCounts) {
+    this.size = size;
+    this.lastModified = lastModified;
+    this.crc32c = crc32c;
+    this.entrapmentProteinCounts = entrapmentProteinCounts;
+    this.nonEntrapmentProteinCounts = nonEntrapmentProteinCounts;
+  }
+
+  static CalculateFDP.Entry1 summaryEntrapments(Path fastaPath, String entrapmentMarker) throws Exception {
+    int entrapmentStyle = Arrays.asList(entrapmentMarkers).indexOf(entrapmentMarker);
+    FastaSummary summary = load(fastaPath);
+    return new CalculateFDP.Entry1(summary.nonEntrapmentProteinCounts[entrapmentStyle], summary.entrapmentProteinCounts[entrapmentStyle]);
+  }
+
+  // From the sidecar file if it is still valid, otherwise from the fasta file, which also (re)writes the sidecar file. The sidecar file is valid
+  // while the size and the modification time match; reading the whole file for the checksum would cost as much as scanning it. A rewritten
+  // sidecar file keeps the extra properties, with the protein numbers and r of the manifest updated.
+  static FastaSummary load(Path fastaPath) throws Exception {
+    long size = Files.size(fastaPath);
+    long lastModified = Files.getLastModifiedTime(fastaPath).toMillis();
+    Path sidecarPath = sidecarPath(fastaPath);
+    Properties properties = readProperties(sidecarPath);
+    FastaSummary summary = properties == null ? null : read(properties);
+    if (summary != null && summary.size == size && summary.lastModified == lastModified) {
+      return summary;
+    }
+    summary = scan(fastaPath, size, lastModified);
+    Map<String, String> extraProperties = new HashMap<>();
+    if (properties != null) {
+      for (String key : properties.stringPropertyNames()) {
+        if (!isSummaryProperty(key)) {
+          extraProperties.put(key, properties.getProperty(key));
+        }
+      }
+    }
+    if (extraProperties.containsKey("entrapment_style")) {
+      summary.putProteinCounts(extraProperties, Integer.parseInt(extraProperties.get("entrapment_style")));
+    }
+    summary.write(sidecarPath, extraProperties);
+    return summary;
+  }
+
+  static Path sidecarPath(Path fastaPath) {
+    return fastaPath.resolveSibling(fastaPath.getFileName() + ".summary");
+  }
+
+  // Counts the headers containing each marker, the same as reading the trimmed lines. Uncompressed files are memory-mapped, compressed files
+  // are decompressed, so the checksum is of the uncompressed bytes.
+  static FastaSummary scan(Path fastaPath, long size, long lastModified) throws Exception {
+    long[] entrapmentProteinCounts = new long[entrapmentMarkers.length];
+    long[] nonEntrapmentProteinCounts = new long[entrapmentMarkers.length];
+    if (CompressedInput.compression(fastaPath) == 0) {
+      byte[][] markers = new byte[entrapmentMarkers.length][];
+      for (int i = 0; i < entrapmentMarkers.length; ++i) {
+        markers[i] = entrapmentMarkers[i].getBytes(StandardCharsets.US_ASCII);
+      }
+      try (FastaReader reader = new FastaReader(fastaPath)) {
+        while (reader.next()) {
+          if (reader.hasHeader()) {
+            for (int i = 0; i < markers.length; ++i) {
+              if (reader.headerContains(markers[i])) {
+                ++entrapmentProteinCounts[i];
+              } else {
+                ++nonEntrapmentProteinCounts[i];
+              }
+            }
+          }
+        }
+        return new FastaSummary(size, lastModified, reader.crc32c(), entrapmentProteinCounts, nonEntrapmentProteinCounts);
+      }
+    }
+    CheckedInputStream inputStream = new CheckedInputStream(Channels.newInputStream(CompressedInput.open(fastaPath, 1)), new CRC32C());
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.startsWith(">")) {
+        for (int i = 0; i < entrapmentMarkers.length; ++i) {
+          if (line.contains(entrapmentMarkers[i])) {
+            ++entrapmentProteinCounts[i];
+          } else {
+            ++nonEntrapmentProteinCounts[i];
+          }
+        }
+      }
+    }
+    reader.close();
+    return new FastaSummary(size, lastModified, inputStream.getChecksum().getValue(), entrapmentProteinCounts, nonEntrapmentProteinCounts);
+  }
+
+  // The numbers of target and entrapment proteins and r of the entrapment style, as manifest properties.
+  void putProteinCounts(Map<String, String> manifest, int entrapmentStyle) {
+    manifest.put("target_proteins", String.valueOf(nonEntrapmentProteinCounts[entrapmentStyle]));
+    manifest.put("entrapment_proteins", String.valueOf(entrapmentProteinCounts[entrapmentStyle]));
+    manifest.put("r", String.valueOf((double) entrapmentProteinCounts[entrapmentStyle] / (double) nonEntrapmentProteinCounts[entrapmentStyle]));
+  }
+
+  // Null if the file is missing or unreadable.
+  private static Properties readProperties(Path sidecarPath) {
+    if (!Files.isRegularFile(sidecarPath)) {
+      return null;
+    }
+    try (InputStream inputStream = Files.newInputStream(sidecarPath)) {
+      Properties properties = new Properties();
+      properties.load(inputStream);
+      return properties;
+    } catch (Exception ex) {
+      return null;
+    }
+  }
+
+  // Null if the properties are incomplete or from another version.
+  private static FastaSummary read(Properties properties) {
+    if (!version.equals(properties.getProperty("version"))) {
+      return null;
+    }
+    try {
+      long[] entrapmentProteinCounts = new long[entrapmentMarkers.length];
+      long[] nonEntrapmentProteinCounts = new long[entrapmentMarkers.length];
+      for (int i = 0; i < entrapmentMarkers.length; ++i) {
+        entrapmentProteinCounts[i] = Long.parseLong(properties.getProperty("style" + i + ".entrapment_proteins"));
+        nonEntrapmentProteinCounts[i] = Long.parseLong(properties.getProperty("style" + i + ".non_entrapment_proteins"));
+      }
+      return new FastaSummary(Long.parseLong(properties.getProperty("size")), Long.parseLong(properties.getProperty("last_modified")), Long.parseLong(properties.getProperty("crc32c")), entrapmentProteinCounts, nonEntrapmentProteinCounts);
+    } catch (Exception ex) {
+      return null;
+    }
+  }
+
+  // Whether write sets the property itself, as opposed to an extra property.
+  private static boolean isSummaryProperty(String key) {
+    return key.equals("version") || key.equals("size") || key.equals("last_modified") || key.equals("crc32c") || key.startsWith("style");
+  }
+
+  // Best effort: the summary is only a cache, so a read-only directory is not an error. Written to a temporary file first so that concurrent
+  // readers never see a partial file. The extra properties (e.g. the parameters of GenerateDatabase) are only for the reader of the file.
+  void write(Path sidecarPath, Map<String, String> extraProperties) {
+    Properties properties = new Properties();
+    properties.putAll(extraProperties);
+    properties.setProperty("version", version);
+    properties.setProperty("size", String.valueOf(size));
+    properties.setProperty("last_modified", String.valueOf(lastModified));
+    properties.setProperty("crc32c", String.valueOf(crc32c));
+    for (int i = 0; i < entrapmentMarkers.length; ++i) {
+      properties.setProperty("style" + i + ".marker", entrapmentMarkers[i]);
+      properties.setProperty("style" + i + ".entrapment_proteins", String.valueOf(entrapmentProteinCounts[i]));
+      properties.setProperty("style" + i + ".non_entrapment_proteins", String.valueOf(nonEntrapmentProteinCounts[i]));
+    }
+    Path temporaryPath = null;
+    try {
+      // not Files.createTempFile, which is only readable by the owner
+      temporaryPath = sidecarPath.resolveSibling(sidecarPath.getFileName() + "." + ProcessHandle.current().pid() + "." + Thread.currentThread().getId() + ".tmp");
+      try (OutputStream outputStream = Files.newOutputStream(temporaryPath)) {
+        properties.store(outputStream, "Entrapment summary of the fasta file. Recreated with the same extra properties when the size or the modification time of the fasta file changes.");
+      }
+      Files.move(temporaryPath, sidecarPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (Exception ex) {
+      try {
+        if (temporaryPath != null) {
+          Files.deleteIfExists(temporaryPath);
+        }
+      } catch (Exception ignored) {
+      }
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes fasta files without a charset encoder: ASCII chars are copied straight into a large byte array, which is written through a direct
+ * ByteBuffer with FileChannel.write. Other chars are encoded with the default charset like FileWriter. Files ending with ".gz" or ".zst" are
+ * compressed with gzip or zstd while they are written. The CRC32C of the uncompressed bytes is computed on the way. Not thread-safe.
+ */
+class FastaWriter extends Writer {
+
+  static final String[] compressions = {"none", "gzip", "zstd"};
+  private static final String[] extensions = {"", ".gz", ".zst"}; // by compression
+  private static final int bufferSize = 1 << 18;
+
+  private final FileChannel channel;
+  private final ByteBuffer directBuffer; // null if compressed
+  private final OutputStream compressedStream; // null if not compressed
+  private final byte[] bytes = new byte[bufferSize];
+  private final char[] chars = new char[1 << 12]; // the chars of a string being copied
+  private int position = 0;
+  private final CRC32C crc32c = new CRC32C();
+  private boolean closed = false;
+
+  FastaWriter(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    int compression = compression(path);
+    if (compression == 0) {
+      directBuffer = ByteBuffer.allocateDirect(bufferSize);
+      compressedStream = null;
+    } else {
+      directBuffer = null;
+      OutputStream outputStream = Channels.newOutputStream(channel);
+      compressedStream = compression == 1 ? new GZIPOutputStream(outputStream, 1 << 16) : new ZstdOutputStream(outputStream);
+    }
+  }
+
+  // The index in compressions, from the file extension.
+  static int compression(Path path) {
+    String fileName = path.getFileName().toString();
+    for (int i = 1; i < extensions.length; ++i) {
+      if (fileName.endsWith(extensions[i])) {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  // The file name extension of a compression in compressions, or null if unknown.
+  static String extension(String compression) {
+    for (int i = 0; i < compressions.length; ++i) {
+      if (compressions[i].equals(compression)) {
+        return extensions[i];
+      }
+    }
+    return null;
+  }
+
+  // Reads a file written by FastaWriter (or any other), decompressing it by its extension.
+  static InputStream newInputStream(Path path) throws IOException {
+    InputStream inputStream = Files.newInputStream(path);
+    int compression = compression(path);
+    if (compression == 1) {
+      return new GZIPInputStream(inputStream, 1 << 16);
+    } else if (compression == 2) {
+      return new ZstdInputStream(inputStream);
+    } else {
+      return inputStream;
+    }
+  }
+
+  // Of the uncompressed bytes, after close.
+  long crc32c() {
+    return crc32c.getValue();
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    if (c < 0x80) {
+      if (position == bytes.length) {
+        flushBuffer();
+      }
+      bytes[position++] = (byte) c;
+    } else {
+      writeEncoded(String.valueOf((char) c));
+    }
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    while (len > 0) {
+      int length = reserve(len);
+      if (!copyAscii(cbuf, off, length)) {
+        writeEncoded(new String(cbuf, off, len));
+        return;
+      }
+      off += length;
+      len -= length;
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    while (len > 0) {
+      int length = Math.min(reserve(len), chars.length);
+      str.getChars(off, off + length, chars, 0);
+      if (!copyAscii(chars, 0, length)) {
+        writeEncoded(str.substring(off, off + len));
+        return;
+      }
+      off += length;
+      len -= length;
+    }
+  }
+
+  @Override
+  public Writer append(CharSequence csq) throws IOException {
+    if (csq instanceof String) {
+      write((String) csq, 0, csq.length());
+    } else {
+      write(String.valueOf(csq));
+    }
+    return this;
+  }
+
+  // Writes the buffer. A compressed stream is flushed too, which does not end the gzip or zstd frame.
+  @Override
+  public void flush() throws IOException {
+    if (closed) {
+      return;
+    }
+    flushBuffer();
+    if (compressedStream != null) {
+      compressedStream.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    flushBuffer();
+    if (compressedStream != null) {
+      compressedStream.close();
+    }
+    channel.close();
+  }
+
+  // Copies the chars into the buffer if they are all ASCII. Two simple loops, so that they can be vectorized.
+  private boolean copyAscii(char[] cbuf, int off, int len) {
+    int any = 0;
+    for (int i = off; i < off + len; ++i) {
+      any |= cbuf[i];
+    }
+    if (any >= 0x80) {
+      return false;
+    }
+    byte[] bytes = this.bytes;
+    int p = position;
+    for (int i = off; i < off + len; ++i) {
+      bytes[p++] = (byte) cbuf[i];
+    }
+    position = p;
+    return true;
+  }
+
+  // Flushes the buffer if it is full. Returns how many of the next length bytes fit.
+  private int reserve(int length) throws IOException {
+    if (position == bytes.length) {
+      flushBuffer();
+    }
+    return Math.min(length, bytes.length - position);
+  }
+
+  private void writeEncoded(String s) throws IOException {
+    byte[] encoded = s.getBytes(Charset.defaultCharset());
+    int offset = 0;
+    while (offset < encoded.length) {
+      int length = reserve(encoded.length - offset);
+      System.arraycopy(encoded, offset, bytes, position, length);
+      position += length;
+      offset += length;
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    crc32c.update(bytes, 0, position);
+    if (compressedStream == null) {
+      directBuffer.clear();
+      directBuffer.put(bytes, 0, position).flip();
+      while (directBuffer.hasRemaining()) {
+        channel.write(directBuffer);
+      }
+    } else {
+      compressedStream.write(bytes, 0, position);
+    }
+    position = 0;
+  }
+}
@@ -14,17 +14,23 @@
 
 package entrapment;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Random;
-import java.util.Set;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -32,10 +38,13 @@ public class GenerateDatabase {
 
   private static final Pattern pattern = Pattern.compile("(\\w+)\\|(\\w+)\\|(\\w+)\\s*(.*)(GN=\\w+)?(.*)");
   private static final Pattern pattern2 = Pattern.compile("GN=([^ ]+)");
+  private static final int uniqueAttempts = 100;
+  private static final long entrapmentPeptideSalt = 0x5bd1e9955bd1e995L; // keeps the entrapment peptides apart from the same target peptides
+  private static final ThreadLocal<ShuffleKernel> shuffleKernels = ThreadLocal.withInitial(ShuffleKernel::new);
 
   public static void main(String[] args) {
-    if (args.length != 6) {
-      System.out.println("Usage: java -cp EntrapBench.jar entrapment.GenerateDatabase <UniProt fasta file path> <cut sites> <protect sites> <cleavage from C-term: 0=false, 1 = true> <number of entrapment proteins for each target protein> <entrapment style>");
+    if (args.length < 6) {
+      System.out.println("Usage: java -cp EntrapBench.jar entrapment.GenerateDatabase <UniProt fasta file path> <cut sites> <protect sites> <cleavage from C-term: 0=false, 1 = true> <number of entrapment proteins for each target protein> <entrapment style> [--threads=<number of threads, 0 = all cores>] [--unique=<make entrapment peptides unique in the whole database: 0 = false, 1 = true>] [--index-memory=<memory of the peptide index in MB, default 512>] [--compression=<none, gzip or zstd, default none>] [--min-length=<minimum peptide length, default 7>] [--max-length=<maximum peptide length, default 35>] [--missed-cleavages=<maximum missed cleavages, default 1>] [--dedup-peptides=<write each peptide only once to the peptide fasta file: 0 = false, 1 = true>] [--previous=<target_shuffle_ fasta file of an earlier run whose entrapment proteins are reused for unchanged proteins>]");
       System.out.println("entrapment style: 0 = add \"entrapment_\" prefix to the protein ID, 1 = add \"_p_target\" suffix to the protein ID which is used by https://doi.org/10.1038/s41592-025-02719-x");
       System.exit(1);
     }
@@ -46,6 +55,26 @@ public class GenerateDatabase {
     boolean cleavageFromCTerm = args[3].contentEquals("1");
     int N = Integer.parseInt(args[4]);
     int entrapmentStyle = Integer.parseInt(args[5]);
+    Options options = Options.parse(args, 6, "threads", "unique", "index-memory", "compression", "min-length", "max-length", "missed-cleavages", "dedup-peptides", "previous");
+    int threads = options.getThreads();
+    boolean unique = options.getInt("unique", 0) == 1;
+    long indexMemory = options.getLong("index-memory", 512) << 20;
+    String extension = FastaWriter.extension(options.getString("compression", "none"));
+    if (extension == null) {
+      System.out.println("The compression needs to be one of " + String.join(", ", FastaWriter.compressions) + ".");
+      System.exit(1);
+    }
+    PeptideRule rule = new PeptideRule(options.getInt("min-length", PeptideRule.defaultRule.minLength), options.getInt("max-length", PeptideRule.defaultRule.maxLength), options.getInt("missed-cleavages", PeptideRule.defaultRule.maxMissedCleavages));
+    if (rule.minLength < 1 || rule.maxLength < rule.minLength || rule.maxMissedCleavages < 0) {
+      System.out.println("The peptide lengths need to be 1 <= min-length <= max-length and the missed cleavages need to be >= 0.");
+      System.exit(1);
+    }
+    boolean dedupPeptides = options.getInt("dedup-peptides", 0) == 1;
+    Path previousPath = options.has("previous") ? Paths.get(options.getString("previous", null)).toAbsolutePath() : null;
+    if (previousPath != null && unique) {
+      System.out.println("--previous cannot be combined with --unique=1, whose shuffles depend on all previous proteins.");
+      System.exit(1);
+    }
 
     if (entrapmentStyle == 1 && N != 1) {
       N = 1;
@@ -56,99 +85,272 @@ public class GenerateDatabase {
       System.out.println("The fasta file " + args[0] + " is not valid.");
       System.exit(1);
     }
-    String outputFile1 = fastaPath.getParent().resolve("target_shuffle_" + fastaPath.getFileName()).toAbsolutePath().toString();
-    String outputFile2 = fastaPath.getParent().resolve("target_shuffle_pep_" + fastaPath.getFileName()).toAbsolutePath().toString();
+    String outputFile1 = fastaPath.getParent().resolve("target_shuffle_" + fastaPath.getFileName() + extension).toAbsolutePath().toString();
+    String outputFile2 = fastaPath.getParent().resolve("target_shuffle_pep_" + fastaPath.getFileName() + extension).toAbsolutePath().toString();
+    String outputFile3 = fastaPath.getParent().resolve("target_shuffle_" + fastaPath.getFileName() + ".peptides.tsv" + extension).toAbsolutePath().toString(); // the number of peptides of each protein, see countPeptides
 
-    if (Files.exists(Paths.get(outputFile1))) {
+    // With a previous database, the output files are replaced.
+    if (previousPath == null && Files.exists(Paths.get(outputFile1))) {
       System.out.println("The output file " + outputFile1 + " already exists.");
       System.exit(1);
     }
 
-    if (Files.exists(Paths.get(outputFile2))) {
+    if (previousPath == null && Files.exists(Paths.get(outputFile2))) {
       System.out.println("The output file " + outputFile2 + " already exists.");
       System.exit(1);
     }
 
+    if (previousPath == null && Files.exists(Paths.get(outputFile3))) {
+      System.out.println("The output file " + outputFile3 + " already exists.");
+      System.exit(1);
+    }
+
+    boolean outputStarted = false;
     try {
-      String line;
-      BufferedWriter writer1 = new BufferedWriter(new FileWriter(outputFile1));
-      BufferedWriter writer2 = new BufferedWriter(new FileWriter(outputFile2));
-
-      BufferedReader reader = new BufferedReader(new FileReader(fastaPath.toFile()));
-      String header = null;
-      StringBuilder sequence = new StringBuilder();
-      while ((line = reader.readLine()) != null) {
-        line = line.trim();
-        if (line.isEmpty()) {
-          continue;
+      Path previousManifestPath = previousPath == null ? null : FastaSummary.sidecarPath(previousPath);
+      if (previousPath != null && previousPath.equals(Paths.get(outputFile1))) {
+        // The previous database is read while its replacement is written.
+        Path movedPath = previousPath.resolveSibling(previousPath.getFileName() + ".previous");
+        Files.move(previousPath, movedPath, StandardCopyOption.REPLACE_EXISTING);
+        if (Files.exists(previousManifestPath)) {
+          Files.move(previousManifestPath, FastaSummary.sidecarPath(movedPath), StandardCopyOption.REPLACE_EXISTING);
         }
+        System.out.println("Moved the previous database to " + movedPath + ".");
+        previousPath = movedPath;
+        previousManifestPath = FastaSummary.sidecarPath(movedPath);
+      }
+      Digester digester = new Digester(cutSites, protectSites, cleavageFromCTerm);
+      Map<String, String> manifest = new LinkedHashMap<>();
+      manifest.put("source", fastaPath.toString());
+      manifest.put("cut_sites", cutSites);
+      manifest.put("protect_sites", protectSites);
+      manifest.put("cleavage_from_c_term", String.valueOf(cleavageFromCTerm));
+      manifest.put("entrapment_proteins_per_target", String.valueOf(N));
+      manifest.put("entrapment_style", String.valueOf(entrapmentStyle));
+      manifest.put("unique", String.valueOf(unique));
+      manifest.put("min_peptide_length", String.valueOf(rule.minLength));
+      manifest.put("max_peptide_length", String.valueOf(rule.maxLength));
+      manifest.put("max_missed_cleavages", String.valueOf(rule.maxMissedCleavages));
+      manifest.put("dedup_peptides", String.valueOf(dedupPeptides));
+      manifest.put("peptide_counts", Paths.get(outputFile3).getFileName().toString());
+      if (previousPath != null) {
+        manifest.put("previous", previousPath.toString());
+      }
+      PreviousDatabase previous = previousPath == null ? null : PreviousDatabase.open(previousPath, previousManifestPath, manifest, rule, N, entrapmentStyle);
+      outputStarted = true;
+      Writer writer1 = new FastaManifestWriter(Paths.get(outputFile1), entrapmentStyle, manifest);
+      Writer writer2 = new FastaWriter(Paths.get(outputFile2));
+      Writer writer3 = new FastaWriter(Paths.get(outputFile3));
+      writer3.write("protein\tpeptides\n");
+      int finalN = N;
+      PeptideIndex index = null;
+      if (unique) {
+        PeptideIndex targetIndex = new PeptideIndex(indexMemory, rule.minLength);
+        readFasta(fastaPath, threads, (header, sequence) -> targetIndex.addTargetPeptides(sequence.replace('I', 'L'), digester));
+        targetIndex.finishTargetPeptides();
+        index = targetIndex;
+      }
 
-        if (line.startsWith(">")) {
-          if (sequence.length() > 0) {
-            writeProtein(writer1, writer2, header, sequence, cutSites, protectSites, cleavageFromCTerm, N, entrapmentStyle);
+      PeptideSet writtenPeptides = dedupPeptides && entrapmentStyle == 1 ? new PeptideSet(1 << 20) : null;
+      if (threads <= 1) {
+        PeptideIndex finalIndex = index;
+        readFasta(fastaPath, threads, (header, sequence) -> {
+          PeptideIndex.Session session = finalIndex == null ? null : finalIndex.newSession(true);
+          PreviousDatabase.Entrapments reused = previous == null ? null : previous.entrapments(header, sequence);
+          PeptidePairs pairs = writeProtein(writer1, writtenPeptides == null ? writer2 : null, writer3, header, sequence, reused, digester, rule, finalN, entrapmentStyle, session);
+          if (writtenPeptides != null) {
+            writePeptidePairs(writer2, pairs, writtenPeptides);
           }
-          sequence = new StringBuilder();
-          header = line.substring(1);
-        } else {
-          sequence.append(line);
-        }
+          if (session != null) {
+            finalIndex.commit(session);
+          }
+        });
+      } else {
+        generateInParallel(fastaPath, writer1, writer2, writer3, digester, rule, N, entrapmentStyle, index, writtenPeptides, previous, threads);
       }
-
-      if (sequence.length() > 0) {
-        writeProtein(writer1, writer2, header, sequence, cutSites, protectSites, cleavageFromCTerm, N, entrapmentStyle);
+      if (previous != null) {
+        System.out.println("Proteins whose entrapment proteins were reused from " + previousPath + ": " + previous.reusedCount());
+        previous.close();
       }
 
-      reader.close();
+      if (index != null) {
+        System.out.println("Target peptides: " + index.targetPeptideCount() + ". Entrapment peptides that are not unique after " + uniqueAttempts + " shuffles: " + index.nonUniquePeptideCount());
+      }
+      if (writtenPeptides != null) {
+        System.out.println("Distinct peptides written to " + outputFile2 + ": " + writtenPeptides.size());
+      }
       writer1.close();
       writer2.close();
+      writer3.close();
     } catch (Exception ex) {
-      ex.printStackTrace();
+      Throwable cause = ex;
+      while (cause instanceof ExecutionException && cause.getCause() != null) {
+        cause = cause.getCause(); // thrown by the writer thread
+      }
+      if (cause instanceof IllegalStateException) {
+        System.out.println(cause.getMessage());
+      } else {
+        ex.printStackTrace();
+      }
+      if (outputStarted) {
+        deleteOutputFiles(outputFile1, outputFile2, outputFile3);
+      }
       System.exit(1);
     }
 
   }
 
-  public static void writePeptide(BufferedWriter writer2, String tt, String ee, String cleavageSite, String protectionSite, boolean cleavageFromCTerm) throws Exception {
-    Pattern digestSitePattern = getDigestSitePattern(cleavageSite, protectionSite, cleavageFromCTerm);
-    Set<Integer> cutSiteSet = new HashSet<>();
-    cutSiteSet.add(0);
-    cutSiteSet.add(tt.length());
-    Matcher matcher = digestSitePattern.matcher(tt);
-    while (matcher.find()) {
-      cutSiteSet.add(matcher.start() + 1);
+  // The incomplete output files of a failed run, so that it can be run again.
+  private static void deleteOutputFiles(String... outputFiles) {
+    for (String outputFile : outputFiles) {
+      try {
+        Files.deleteIfExists(Paths.get(outputFile));
+      } catch (IOException ex) {
+        System.out.println("Failed to delete the incomplete output file " + outputFile + ".");
+      }
     }
-    Integer[] cutSiteArray = cutSiteSet.toArray(new Integer[0]);
-    Arrays.sort(cutSiteArray);
-
-    for (int i = 0; i < cutSiteArray.length - 1; ++i) {
-      String t = tt.substring(cutSiteArray[i], Math.min(cutSiteArray[i + 1], tt.length()));
-      String e = ee.substring(cutSiteArray[i], Math.min(cutSiteArray[i + 1], ee.length()));
-      // default peptide length range used by https://github.com/Noble-Lab/FDRBench
-      if (t.length() >= 7 && t.length() <= 35) {
-        writer2.write(">sp|" + t + "_target|" + t + "_target\n");
-        writer2.write(t + "\n");
-        writer2.write(">sp|" + e + "_p_target|" + e + "_p_target\n");
-        writer2.write(e + "\n");
+    try {
+      Files.deleteIfExists(FastaSummary.sidecarPath(Paths.get(outputFiles[0])));
+    } catch (IOException ex) {
+      System.out.println("Failed to delete the summary of the incomplete output file " + outputFiles[0] + ".");
+    }
+    System.out.println("Deleted the incomplete output files.");
+  }
+
+  // Proteins without a sequence are skipped. A sequence before the first header has a null header.
+  private static void readFasta(Path fastaPath, int threads, ProteinHandler handler) throws Exception {
+    FastaReader.forEach(fastaPath, threads, (header, sequence) -> {
+      if (!sequence.isEmpty()) {
+        handler.accept(header, sequence);
       }
-      if (i + 2 < cutSiteArray.length) {
-        t = tt.substring(cutSiteArray[i], Math.min(cutSiteArray[i + 2], tt.length()));
-        e = ee.substring(cutSiteArray[i], Math.min(cutSiteArray[i + 2], ee.length()));
-        // default peptide length range used by https://github.com/Noble-Lab/FDRBench
-        if (t.length() >= 7 && t.length() <= 35) {
-          writer2.write(">sp|" + t + "_target|" + t + "_target\n");
-          writer2.write(t + "\n");
-          writer2.write(">sp|" + e + "_p_target|" + e + "_p_target\n");
-          writer2.write(e + "\n");
+    });
+  }
+
+  // The main thread reads the proteins, a pool shuffles them, and a writer thread writes them in the input order.
+  // The shuffles only depend on the protein itself, so the output is the same as the single-threaded one. With a peptide index, the workers
+  // can only check the target peptides and the peptides of their own protein. The writer checks the rest and shuffles a protein again if one
+  // of its peptides has been emitted by a previous protein in the meantime, which gives the same result as the single-threaded run.
+  // With writtenPeptides, the workers leave the peptide pairs to the writer, which drops the peptides that have already been written.
+  private static void generateInParallel(Path fastaPath, Writer writer1, Writer writer2, Writer writer3, Digester digester, PeptideRule rule, int N, int entrapmentStyle, PeptideIndex index, PeptideSet writtenPeptides, PreviousDatabase previous, int threads) throws Exception {
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+    BlockingQueue<Future<RenderedProtein>> queue = new ArrayBlockingQueue<>(threads * 64);
+    try {
+      Future<?> writerFuture = writerExecutor.submit(() -> {
+        while (true) {
+          RenderedProtein protein = queue.take().get();
+          if (protein == null) {
+            return null;
+          }
+          if (protein.session != null && !index.commit(protein.session)) {
+            protein = renderProtein(protein.header, protein.sequence, null, digester, rule, N, entrapmentStyle, index.newSession(true), writtenPeptides == null);
+            index.commit(protein.session);
+          }
+          writer1.write(protein.proteins);
+          if (writtenPeptides == null) {
+            writer2.write(protein.peptides);
+          } else {
+            writePeptidePairs(writer2, protein.pairs, writtenPeptides);
+          }
+          writer3.write(protein.peptideCounts);
         }
+      });
+
+      // The previous database is read by this thread.
+      readFasta(fastaPath, threads, (header, sequence) -> {
+        PreviousDatabase.Entrapments reused = previous == null ? null : previous.entrapments(header, sequence);
+        enqueue(queue, workers.submit(() -> renderProtein(header, sequence, reused, digester, rule, N, entrapmentStyle, index == null ? null : index.newSession(false), writtenPeptides == null)), writerFuture);
+      });
+      enqueue(queue, CompletableFuture.completedFuture(null), writerFuture);
+      writerFuture.get();
+    } finally {
+      workers.shutdownNow();
+      writerExecutor.shutdownNow();
+    }
+  }
+
+  // Without writePeptides, only the peptide pairs are kept.
+  private static RenderedProtein renderProtein(String header, String sequence, PreviousDatabase.Entrapments reused, Digester digester, PeptideRule rule, int N, int entrapmentStyle, PeptideIndex.Session session, boolean writePeptides) throws Exception {
+    StringWriter proteinWriter = new StringWriter();
+    StringWriter peptideWriter = new StringWriter();
+    StringWriter peptideCountWriter = new StringWriter();
+    PeptidePairs pairs = writeProtein(proteinWriter, writePeptides ? peptideWriter : null, peptideCountWriter, header, sequence, reused, digester, rule, N, entrapmentStyle, session);
+    return new RenderedProtein(header, sequence, proteinWriter.toString(), peptideWriter.toString(), peptideCountWriter.toString(), writePeptides ? null : pairs, session);
+  }
+
+  private static void enqueue(BlockingQueue<Future<RenderedProtein>> queue, Future<RenderedProtein> future, Future<?> writerFuture) throws Exception {
+    while (!queue.offer(future, 100, TimeUnit.MILLISECONDS)) {
+      if (writerFuture.isDone()) {
+        writerFuture.get(); // throws the exception of the writer
+        throw new IllegalStateException("The writer stopped before the end of the input.");
       }
     }
   }
 
-  private static void writeProtein(BufferedWriter writer1, BufferedWriter writer2, String header, StringBuilder sequence, String cutSites, String protectSites, boolean cleavageFromCTerm, int N, int entrapmentStyle) throws Exception {
-    String sequence2 = sequence.toString().replaceAll("I", "L");
+  public static void writePeptide(Writer writer2, String tt, String ee, String cleavageSite, String protectionSite, boolean cleavageFromCTerm) throws Exception {
+    writePeptide(writer2, tt, ee, new Digester(cleavageSite, protectionSite, cleavageFromCTerm));
+  }
 
-    writer1.write(">" + header + "\n");
-    writer1.write(sequence2 + "\n");
+  static void writePeptide(Writer writer2, String tt, String ee, Digester digester) throws Exception {
+    writePeptidePairs(writer2, new PeptidePairs(tt, ee, PeptideRule.defaultRule.peptides(tt, digester)), null);
+  }
+
+  // With writtenPeptides, a pair is skipped if its target peptide has already been written, and an entrapment peptide is only written once.
+  private static void writePeptidePairs(Writer writer2, PeptidePairs pairs, PeptideSet writtenPeptides) throws Exception {
+    if (pairs == null) {
+      return;
+    }
+    int[] peptides = pairs.peptides;
+    for (int i = 0; i < peptides.length; i += 2) {
+      writePeptidePair(writer2, pairs.tt, pairs.ee, peptides[i], peptides[i + 1], writtenPeptides);
+    }
+  }
+
+  // The target and entrapment peptides of [start, end), written in fragments without creating strings.
+  private static void writePeptidePair(Writer writer2, String tt, String ee, int start, int end, PeptideSet writtenPeptides) throws Exception {
+    if (writtenPeptides == null) {
+      writePeptideEntry(writer2, tt, start, end - start, "_target");
+      writePeptideEntry(writer2, ee, start, Math.min(end, ee.length()) - start, "_p_target");
+    } else if (writtenPeptides.add(PeptideIndex.fingerprint(tt, start, end))) {
+      writePeptideEntry(writer2, tt, start, end - start, "_target");
+      int eeEnd = Math.min(end, ee.length());
+      if (writtenPeptides.add(PeptideIndex.fingerprint(ee, start, eeEnd) ^ entrapmentPeptideSalt)) {
+        writePeptideEntry(writer2, ee, start, eeEnd - start, "_p_target");
+      }
+    }
+  }
+
+  // ">sp|<peptide><suffix>|<peptide><suffix>" and the peptide
+  private static void writePeptideEntry(Writer writer2, String s, int start, int length, String suffix) throws Exception {
+    writer2.write(">sp|");
+    writer2.write(s, start, length);
+    writer2.write(suffix);
+    writer2.write('|');
+    writer2.write(s, start, length);
+    writer2.write(suffix);
+    writer2.write('\n');
+    writer2.write(s, start, length);
+    writer2.write('\n');
+  }
+
+  // The peptides of writePeptide with the default rule: up to one missed cleavage and 7 to 35 residues.
+  static int countPeptides(String sequence, Digester digester) {
+    return PeptideRule.defaultRule.peptideCount(sequence, digester);
+  }
+
+  // Returns the peptide pairs of entrapment style 1 (or null), which are only written if there is a writer2. The entrapment proteins are
+  // shuffled unless they are reused from a previous database.
+  private static PeptidePairs writeProtein(Writer writer1, Writer writer2, Writer writer3, String header, String sequence, PreviousDatabase.Entrapments reused, Digester digester, PeptideRule rule, int N, int entrapmentStyle, PeptideIndex.Session session) throws Exception {
+    String sequence2 = sequence.replace('I', 'L');
+
+    writer1.write('>');
+    writer1.write(header);
+    writer1.write('\n');
+    writer1.write(sequence2);
+    writer1.write('\n');
+    writer3.write(proteinId(header));
+    int[] peptideCounts = reused == null ? null : reused.peptideCounts;
+    writePeptideCount(writer3, peptideCounts != null ? peptideCounts[0] : rule.peptideCount(sequence2, digester));
 
     String part1;
     String part2;
@@ -172,94 +374,82 @@ public class GenerateDatabase {
       }
     }
 
-    String[] shuffledProteins = shuffleSeqFY(sequence2, cutSites, protectSites, cleavageFromCTerm, N);
+    String[] shuffledProteins = reused != null ? reused.sequences : shuffleSeqFY(sequence2, digester, N, session);
     for (int i = 0; i < shuffledProteins.length; ++i) {
-      writer1.write(">" + appendEntrapmentMarker(entrapmentStyle, i, part1) + "|" + appendEntrapmentMarker(entrapmentStyle, i, part2) + (part3 == null ? "" : "|" + appendEntrapmentMarker(entrapmentStyle, i, part3)) + (part4 == null ? "" : " " + replaceGN(entrapmentStyle, i, part4)) + "\n");
-      writer1.write(shuffledProteins[i] + "\n");
+      writer1.write('>');
+      writeEntrapmentId(writer1, entrapmentStyle, i, part1, part2, part3);
+      if (part4 != null) {
+        writer1.write(' ');
+        writer1.write(replaceGN(entrapmentStyle, i, part4));
+      }
+      writer1.write('\n');
+      writer1.write(shuffledProteins[i]);
+      writer1.write('\n');
+      writeEntrapmentId(writer3, entrapmentStyle, i, part1, part2, part3);
+      writePeptideCount(writer3, peptideCounts != null ? peptideCounts[i + 1] : rule.peptideCount(shuffledProteins[i], digester));
     }
 
-    if (entrapmentStyle == 1) {
-      writePeptide(writer2, sequence2, shuffledProteins[0], cutSites, protectSites, cleavageFromCTerm);
+    if (entrapmentStyle != 1) {
+      return null;
+    }
+    PeptidePairs pairs = new PeptidePairs(sequence2, shuffledProteins[0], rule.peptides(sequence2, digester));
+    if (writer2 != null) {
+      writePeptidePairs(writer2, pairs, null);
     }
+    return pairs;
   }
 
   public static String[] shuffleSeqFY(String sequence, String cleavageSite, String protectionSite, boolean cleavageFromCTerm, int N) {
-    // todo: A protection site may be shuffled, which may result in "non-existing" peptides after digestion.
-    // todo: A "potential" protection site may also be shuffled to the side of a cleavage site so that it prevents a peptide from being digested.
-    String sequenceToBeShuffled;
-    if (sequence.startsWith("M")) {
-      sequenceToBeShuffled = sequence.substring(1);
-    } else {
-      sequenceToBeShuffled = sequence;
-    }
+    return shuffleSeqFY(sequence, new Digester(cleavageSite, protectionSite, cleavageFromCTerm), N);
+  }
 
-    Pattern digestSitePattern = getDigestSitePattern(cleavageSite, protectionSite, cleavageFromCTerm);
-    Set<Integer> cutSiteSet = new HashSet<>();
-    Matcher matcher = digestSitePattern.matcher(sequenceToBeShuffled);
-    while (matcher.find()) {
-      cutSiteSet.add(matcher.start());
-    }
+  static String[] shuffleSeqFY(String sequence, Digester digester, int N) {
+    return shuffleSeqFY(sequence, digester, N, null);
+  }
 
-    int time = 0;
-    Integer[] cutSiteArray = cutSiteSet.toArray(new Integer[0]);
-    Arrays.sort(cutSiteArray);
+  // With a session, each shuffled peptide is also shuffled again until it is unique in the peptide index, at most uniqueAttempts times.
+  static String[] shuffleSeqFY(String sequence, Digester digester, int N, PeptideIndex.Session session) {
+    // todo: A protection site may be shuffled, which may result in "non-existing" peptides after digestion.
+    // todo: A "potential" protection site may also be shuffled to the side of a cleavage site so that it prevents a peptide from being digested.
+    return shuffleKernels.get().shuffle(sequence, digester, N, uniqueAttempts, session);
+  }
 
-    StringBuilder[] shuffledProteins = new StringBuilder[N];
-    for (int i = 0; i < N; ++i) {
-      shuffledProteins[i] = new StringBuilder();
-      if (sequence.startsWith("M")) {
-        shuffledProteins[i].append("M");
-      }
+  private static String proteinId(String header) {
+    int end = 0;
+    while (end < header.length() && !Character.isWhitespace(header.charAt(end))) {
+      ++end;
     }
+    return header.substring(0, end);
+  }
 
-    int startIdx;
-    int endIdx;
-    Set<String> generatedShuffles = new HashSet<>();
-    for (int k = 0; k <= cutSiteArray.length; ++k) {
-      startIdx = k == 0 ? 0 : cutSiteArray[k - 1] + 1;
-      endIdx = k == cutSiteArray.length ? sequenceToBeShuffled.length() : cutSiteArray[k];
-      if (endIdx - startIdx > 2) {
-        String targetSequence = sequenceToBeShuffled.substring(startIdx, endIdx);
-        char[] targetArray = targetSequence.toCharArray();
-        char[] shuffleArray = new char[targetArray.length];
-        System.arraycopy(targetArray, 0, shuffleArray, 0, targetArray.length);
-        generatedShuffles.clear();
-        for (int l = 0; l < N; ++l) {
-          Random random = new Random(l);
-          String shuffledSequence;
-          do {
-            for (int i = 0; i < shuffleArray.length; ++i) {
-              int j = random.nextInt(shuffleArray.length);
-              while (j == i) {
-                j = random.nextInt(shuffleArray.length);
-              }
-              char temp = shuffleArray[i];
-              shuffleArray[i] = shuffleArray[j];
-              shuffleArray[j] = temp;
-            }
-            shuffledSequence = String.valueOf(shuffleArray);
-            ++time;
-          } while (time < 10 && (targetSequence.contentEquals(shuffledSequence) || generatedShuffles.contains(shuffledSequence)));
-          generatedShuffles.add(shuffledSequence);
-          shuffledProteins[l].append(shuffledSequence).append(endIdx == sequenceToBeShuffled.length() ? "" : sequenceToBeShuffled.charAt(endIdx));
-        }
-      } else {
-        for (int l = 0; l < N; ++l) {
-          shuffledProteins[l].append(sequenceToBeShuffled, startIdx, endIdx).append(endIdx == sequenceToBeShuffled.length() ? "" : sequenceToBeShuffled.charAt(endIdx));
-        }
-      }
+  // The header up to the description, e.g. "sp|entrapment_0_P12345|entrapment_0_NAME_HUMAN". The parts do not contain whitespace.
+  private static void writeEntrapmentId(Writer writer, int entrapmentStyle, int i, String part1, String part2, String part3) throws Exception {
+    writeEntrapmentMarker(writer, entrapmentStyle, i, part1);
+    writer.write('|');
+    writeEntrapmentMarker(writer, entrapmentStyle, i, part2);
+    if (part3 != null) {
+      writer.write('|');
+      writeEntrapmentMarker(writer, entrapmentStyle, i, part3);
     }
+  }
 
-    String[] output = new String[N];
-    for (int i = 0; i < N; ++i) {
-      output[i] = shuffledProteins[i].toString();
+  private static void writeEntrapmentMarker(Writer writer, int entrapmentStyle, int i, String s) throws Exception {
+    if (entrapmentStyle == 0) {
+      writer.write("entrapment_");
+      writer.write(Integer.toString(i));
+      writer.write('_');
+      writer.write(s);
+    } else {
+      writer.write(s);
+      writer.write("_p_target");
     }
-
-    return output;
   }
 
-  private static String appendEntrapmentMarker(int entrapmentStyle, int i, String s) {
-    return entrapmentStyle == 0 ? "entrapment_" + i + "_" + s : s + "_p_target";
+  // After the protein ID.
+  private static void writePeptideCount(Writer writer3, int peptideCount) throws Exception {
+    writer3.write('\t');
+    writer3.write(Integer.toString(peptideCount));
+    writer3.write('\n');
   }
 
   private static String replaceGN(int entrapmentStyle, int i, String s) {
@@ -273,22 +463,45 @@ public class GenerateDatabase {
     }
   }
 
-  private static Pattern getDigestSitePattern(String cleavageSite, String protectionSite, boolean cleavageFromCTerm) {
-    Pattern digestSitePattern;
-    if (cleavageFromCTerm) {
-      if (protectionSite.contentEquals("-")) {
-        digestSitePattern = Pattern.compile("[" + cleavageSite + "]");
-      } else {
-        digestSitePattern = Pattern.compile("[" + cleavageSite + "](?![" + protectionSite + "])");
-      }
-    } else {
-      if (protectionSite.contentEquals("-")) {
-        digestSitePattern = Pattern.compile("[" + cleavageSite + "]");
-      } else {
-        digestSitePattern = Pattern.compile("(?<![" + protectionSite + "])" + "[" + cleavageSite + "]");
-      }
+  private interface ProteinHandler {
+
+    void accept(String header, String sequence) throws Exception;
+  }
+
+
+  private static class RenderedProtein {
+
+    final String header;
+    final String sequence;
+    final String proteins;
+    final String peptides;
+    final String peptideCounts;
+    final PeptidePairs pairs; // instead of peptides if they are deduplicated by the writer
+    final PeptideIndex.Session session;
+
+    public RenderedProtein(String header, String sequence, String proteins, String peptides, String peptideCounts, PeptidePairs pairs, PeptideIndex.Session session) {
+      this.header = header;
+      this.sequence = sequence;
+      this.proteins = proteins;
+      this.peptides = peptides;
+      this.peptideCounts = peptideCounts;
+      this.pairs = pairs;
+      this.session = session;
     }
-    return digestSitePattern;
   }
 
+
+  // The target peptides of tt and the entrapment peptides at the same positions of ee.
+  private static class PeptidePairs {
+
+    final String tt;
+    final String ee;
+    final int[] peptides; // start and end, see PeptideRule.peptides
+
+    PeptidePairs(String tt, String ee, int[] peptides) {
+      this.tt = tt;
+      this.ee = ee;
+      this.peptides = peptides;
+    }
+  }
 }
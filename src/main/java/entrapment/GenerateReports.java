@@ -0,0 +1,383 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes a synthetic DIA-NN report.tsv and FragPipe peptide.tsv and protein.tsv for a target+entrapment fasta file from GenerateDatabase, to test the
+ * parsers at scale. Every value is a hash of the seed and the row, so the files are reproducible, and the rows are streamed so that the files can be
+ * larger than the memory. Only the proteins are kept in memory.
+ * <p>
+ * The CScores are 1 - (1 - u)^exponent with a uniform u, using the target exponent for the target precursors and the false exponent for the
+ * entrapment precursors, so that P(CScore > s) = (1 - s)^(1 / exponent). A decoy CScore is the target CScore scaled by a draw of the false
+ * distribution, so it stays below the target CScore. The q-value of a score is the combined FDP estimate 2 * E / (T + E) of the expected target (T)
+ * and entrapment (E) precursors above it, so that CalculateFDP reports an FDP close to the q-value threshold, like for a well calibrated search of a
+ * 1:1 target+entrapment database.
+ */
+public class GenerateReports {
+
+  static final String[] optionKeys = {"runs", "precursors", "peptides", "proteins", "entrapment-fraction", "decoy-fraction", "target-cscore-exponent", "false-cscore-exponent", "seed"};
+
+  private static final Pattern genePattern = Pattern.compile("GN=([^ ]+)");
+  private static final int minPeptideLength = 7;
+  private static final int maxPeptideLength = 30;
+  private static final double sharedPeptideFraction = 0.1; // of the mapped and indistinguishable proteins that are from the other kind
+
+  // The hash streams, so that different files and fields do not share values.
+  private static final int precursorStream = 0;
+  private static final int proteinGroupStream = 1;
+  private static final int peptideStream = 2;
+  private static final int proteinStream = 3;
+  private static final int runStream = 16; // + run
+
+  private final List<Protein> targetProteins;
+  private final List<Protein> entrapmentProteins;
+  private final int runs;
+  private final long precursors;
+  private final long peptides;
+  private final int proteins;
+  private final double entrapmentFraction;
+  private final double decoyFraction;
+  private final double targetExponent;
+  private final double falseExponent;
+  private final long seed;
+
+  public static void main(String[] args) {
+    if (args.length < 3) {
+      System.out.println("Usage: java -cp EntrapBench.jar entrapment.GenerateReports <target+entrapment fasta file path> <entrapment style> <output directory> [--runs=<default 10>] [--precursors=<precursors per run, default 100000>] [--peptides=<rows of peptide.tsv, default 100000>] [--proteins=<rows of protein.tsv, default 10000>] [--entrapment-fraction=<default 0.05>] [--decoy-fraction=<precursors with a decoy score, default 0.2>] [--target-cscore-exponent=<default 4>] [--false-cscore-exponent=<default 0.5>] [--seed=<default 1>]");
+      System.out.println("Writes report.tsv, peptide.tsv and protein.tsv to the output directory.");
+      System.exit(1);
+    }
+
+    Path fastaPath = Paths.get(args[0]);
+    int entrapmentStyle = Integer.parseInt(args[1]);
+    Path outputDirectory = Paths.get(args[2]);
+    Options options = Options.parse(args, 3, optionKeys);
+
+    if (entrapmentStyle != 0 && entrapmentStyle != 1) {
+      System.out.println("Unknown entrapment style.");
+      System.exit(1);
+    }
+
+    String entrapmentMarker = entrapmentStyle == 0 ? "entrapment_" : "_p_target";
+
+    if (!Files.exists(fastaPath) || !Files.isReadable(fastaPath) || !Files.isRegularFile(fastaPath)) {
+      System.out.println("The fasta file " + args[0] + " is not valid.");
+      System.exit(1);
+    }
+
+    Path reportPath = outputDirectory.resolve("report.tsv");
+    Path peptidePath = outputDirectory.resolve("peptide.tsv");
+    Path proteinPath = outputDirectory.resolve("protein.tsv");
+    for (Path path : new Path[]{reportPath, peptidePath, proteinPath}) {
+      if (Files.exists(path)) {
+        System.out.println("The output file " + path.toAbsolutePath() + " already exists.");
+        System.exit(1);
+      }
+    }
+
+    try {
+      List<Protein> targetProteins = new ArrayList<>();
+      List<Protein> entrapmentProteins = new ArrayList<>();
+      readProteins(fastaPath, entrapmentMarker, targetProteins, entrapmentProteins);
+      if (targetProteins.isEmpty() || entrapmentProteins.isEmpty()) {
+        System.out.println("The fasta file " + args[0] + " needs both target and entrapment proteins.");
+        System.exit(1);
+      }
+
+      GenerateReports generator = new GenerateReports(targetProteins, entrapmentProteins, options);
+      Files.createDirectories(outputDirectory);
+
+      BufferedWriter writer = new BufferedWriter(new FileWriter(reportPath.toFile()));
+      generator.writeReport(writer);
+      writer.close();
+
+      writer = new BufferedWriter(new FileWriter(peptidePath.toFile()));
+      generator.writePeptideTsv(writer);
+      writer.close();
+
+      writer = new BufferedWriter(new FileWriter(proteinPath.toFile()));
+      generator.writeProteinTsv(writer);
+      writer.close();
+
+      System.out.println("Target proteins: " + targetProteins.size() + ". Entrapment proteins: " + entrapmentProteins.size() + ".");
+      System.out.println("Wrote " + reportPath.toAbsolutePath() + ", " + peptidePath.toAbsolutePath() + " and " + proteinPath.toAbsolutePath());
+    } catch (Exception ex) {
+      ex.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  GenerateReports(List<Protein> targetProteins, List<Protein> entrapmentProteins, Options options) {
+    this.targetProteins = targetProteins;
+    this.entrapmentProteins = entrapmentProteins;
+    runs = options.getInt("runs", 10);
+    precursors = options.getLong("precursors", 100000);
+    peptides = options.getLong("peptides", 100000);
+    proteins = options.getInt("proteins", 10000);
+    entrapmentFraction = options.getDouble("entrapment-fraction", 0.05);
+    decoyFraction = options.getDouble("decoy-fraction", 0.2);
+    targetExponent = options.getDouble("target-cscore-exponent", 4);
+    falseExponent = options.getDouble("false-cscore-exponent", 0.5);
+    seed = options.getLong("seed", 1);
+
+    if (runs <= 0 || precursors < 0 || peptides < 0 || proteins < 0) {
+      System.out.println("The numbers of runs, precursors, peptides and proteins cannot be negative.");
+      System.exit(1);
+    }
+    if (entrapmentFraction < 0 || entrapmentFraction > 1 || decoyFraction < 0 || decoyFraction > 1) {
+      System.out.println("The fractions need to be between 0 and 1.");
+      System.exit(1);
+    }
+    if (falseExponent <= 0 || targetExponent <= falseExponent) {
+      System.out.println("The CScore exponents need to be positive, and the target exponent needs to be larger than the false exponent.");
+      System.exit(1);
+    }
+  }
+
+  // The runs one after another, like DIA-NN. A precursor has the same protein group, peptide and global scores in every run.
+  void writeReport(Writer writer) throws Exception {
+    writer.write("File.Name\tRun\tProtein.Group\tProtein.Ids\tProtein.Names\tGenes\tPG.Q.Value\tGlobal.PG.Q.Value\tPrecursor.Id\tStripped.Sequence\tPrecursor.Charge\tQ.Value\tGlobal.Q.Value\tCScore\tDecoy.CScore\n");
+    StringBuilder sb = new StringBuilder(256);
+    Protein[] group = new Protein[3];
+    for (int run = 0; run < runs; ++run) {
+      String runName = String.format("run_%03d", run + 1);
+      for (long i = 0; i < precursors; ++i) {
+        boolean isEntrapment = uniform(precursorStream, i, 0) < entrapmentFraction;
+        double exponent = isEntrapment ? falseExponent : targetExponent;
+        int groupSize = proteinGroup(i, isEntrapment, group);
+        Protein protein = group[0];
+        double pgU = uniform(proteinGroupStream, protein.key, 0);
+        double precursorU = uniform(precursorStream, i, 1);
+        double cscore = cscore(jitter(precursorU, uniform(runStream + run, i, 0)), exponent);
+        double decoyCscore = uniform(runStream + run, i, 1) < decoyFraction ? 0.99 * cscore * cscore(uniform(runStream + run, i, 2), falseExponent) : 0;
+        int length = peptideLength(protein, uniform(precursorStream, i, 2));
+        int start = (int) (uniform(precursorStream, i, 3) * (protein.sequence.length() - length + 1));
+        int charge = uniform(precursorStream, i, 4) < 0.7 ? 2 : 3;
+
+        sb.setLength(0);
+        sb.append("/data/").append(runName).append(".raw\t").append(runName).append('\t');
+        appendJoined(sb, group, groupSize, p -> p.accession, ";").append('\t');
+        appendJoined(sb, group, groupSize, p -> p.accession, ";").append('\t');
+        appendJoined(sb, group, groupSize, p -> p.entryName, ";").append('\t');
+        appendJoined(sb, group, groupSize, p -> p.gene, ";").append('\t');
+        sb.append((float) qValue(cscore(jitter(pgU, uniform(runStream + run, protein.key, 3)), exponent))).append('\t');
+        sb.append((float) qValue(cscore(pgU, exponent))).append('\t');
+        sb.append(protein.sequence, start, start + length).append(charge).append('\t');
+        sb.append(protein.sequence, start, start + length).append('\t');
+        sb.append(charge).append('\t');
+        sb.append((float) qValue(cscore)).append('\t');
+        sb.append((float) qValue(cscore(precursorU, exponent))).append('\t');
+        sb.append((float) cscore).append('\t');
+        sb.append((float) decoyCscore).append('\n');
+        writer.append(sb);
+      }
+    }
+  }
+
+  // Most peptides map to one protein. The mapped proteins are mostly of the same kind, so that a few entrapment peptides are shared with targets.
+  void writePeptideTsv(Writer writer) throws Exception {
+    writer.write("Peptide\tPrev AA\tNext AA\tPeptide Length\tCharges\tProbability\tSpectral Count\tProtein\tProtein ID\tEntry Name\tGene\tMapped Genes\tMapped Proteins\n");
+    StringBuilder sb = new StringBuilder(256);
+    Protein[] mapped = new Protein[2];
+    for (long i = 0; i < peptides; ++i) {
+      boolean isEntrapment = uniform(peptideStream, i, 0) < entrapmentFraction;
+      Protein protein = pick(isEntrapment ? entrapmentProteins : targetProteins, uniform(peptideStream, i, 1));
+      int length = peptideLength(protein, uniform(peptideStream, i, 2));
+      int start = (int) (uniform(peptideStream, i, 3) * (protein.sequence.length() - length + 1));
+      int mappedCount = mappedProteins(peptideStream, i, isEntrapment, protein, mapped);
+
+      sb.setLength(0);
+      sb.append(protein.sequence, start, start + length).append('\t');
+      sb.append(start == 0 ? '-' : protein.sequence.charAt(start - 1)).append('\t');
+      sb.append(start + length == protein.sequence.length() ? '-' : protein.sequence.charAt(start + length)).append('\t');
+      sb.append(length).append('\t');
+      sb.append(uniform(peptideStream, i, 4) < 0.7 ? "2" : "2, 3").append('\t');
+      sb.append((float) cscore(uniform(peptideStream, i, 5), isEntrapment ? falseExponent : targetExponent)).append('\t');
+      sb.append(1 + (int) (uniform(peptideStream, i, 6) * 10)).append('\t');
+      sb.append(protein.id).append('\t').append(protein.accession).append('\t').append(protein.entryName).append('\t').append(protein.gene).append('\t');
+      appendJoined(sb, mapped, mappedCount, p -> p.gene, ", ").append('\t');
+      appendJoined(sb, mapped, mappedCount, p -> p.id, ", ").append('\n');
+      writer.append(sb);
+    }
+  }
+
+  // The proteins are sampled without replacement in the order of the fasta file, with the entrapment fraction of them from the entrapment proteins.
+  void writeProteinTsv(Writer writer) throws Exception {
+    writer.write("Protein\tProtein ID\tEntry Name\tGene\tLength\tProtein Probability\tTop Peptide Probability\tTotal Peptides\tIndistinguishable Proteins\n");
+    int entrapmentCount = (int) Math.min(entrapmentProteins.size(), Math.round(proteins * entrapmentFraction));
+    int targetCount = Math.min(targetProteins.size(), proteins - entrapmentCount);
+    StringBuilder sb = new StringBuilder(256);
+    Protein[] indistinguishable = new Protein[2];
+    for (boolean isEntrapment : new boolean[]{false, true}) {
+      List<Protein> candidates = isEntrapment ? entrapmentProteins : targetProteins;
+      int count = isEntrapment ? entrapmentCount : targetCount;
+      int selected = 0;
+      for (int i = 0; i < candidates.size() && selected < count; ++i) {
+        Protein protein = candidates.get(i);
+        if ((candidates.size() - i) * uniform(proteinStream, protein.key, 0) >= count - selected) {
+          continue;
+        }
+        ++selected;
+        int indistinguishableCount = uniform(proteinStream, protein.key, 1) < 0.05 ? mappedProteins(proteinStream, protein.key, isEntrapment, protein, indistinguishable) : 0;
+        double probability = cscore(uniform(proteinStream, protein.key, 2), isEntrapment ? falseExponent : targetExponent);
+
+        sb.setLength(0);
+        sb.append(protein.id).append('\t').append(protein.accession).append('\t').append(protein.entryName).append('\t').append(protein.gene).append('\t');
+        sb.append(protein.sequence.length()).append('\t');
+        sb.append((float) probability).append('\t');
+        sb.append((float) Math.max(probability, cscore(uniform(proteinStream, protein.key, 3), isEntrapment ? falseExponent : targetExponent))).append('\t');
+        sb.append(1 + (int) (uniform(proteinStream, protein.key, 4) * 20)).append('\t');
+        appendJoined(sb, indistinguishable, indistinguishableCount, p -> p.id, ", ").append('\n');
+        writer.append(sb);
+      }
+    }
+  }
+
+  static void readProteins(Path fastaPath, String entrapmentMarker, List<Protein> targetProteins, List<Protein> entrapmentProteins) throws Exception {
+    FastaReader.forEach(fastaPath, 1, (header, sequence) -> addProtein(header, sequence, entrapmentMarker, targetProteins, entrapmentProteins));
+  }
+
+  private static void addProtein(String header, String sequence, String entrapmentMarker, List<Protein> targetProteins, List<Protein> entrapmentProteins) {
+    if (header == null || sequence.isEmpty()) {
+      return;
+    }
+    if (header.contains(entrapmentMarker)) {
+      entrapmentProteins.add(new Protein(header, sequence, -1 - entrapmentProteins.size()));
+    } else {
+      targetProteins.add(new Protein(header, sequence, targetProteins.size()));
+    }
+  }
+
+  // One to three proteins of the same kind, 70% of the groups have one.
+  private int proteinGroup(long precursor, boolean isEntrapment, Protein[] group) {
+    List<Protein> candidates = isEntrapment ? entrapmentProteins : targetProteins;
+    double u = uniform(precursorStream, precursor, 5);
+    int size = u < 0.7 ? 1 : (u < 0.9 ? 2 : 3);
+    int count = 0;
+    for (int i = 0; i < size; ++i) {
+      Protein protein = pick(candidates, uniform(precursorStream, precursor, 6 + i));
+      if (!contains(group, count, protein)) {
+        group[count++] = protein;
+      }
+    }
+    return count;
+  }
+
+  // Up to two other proteins, mostly of the same kind.
+  private int mappedProteins(int stream, long index, boolean isEntrapment, Protein protein, Protein[] mapped) {
+    double u = uniform(stream, index, 16);
+    int size = u < 0.8 ? 0 : (u < 0.95 ? 1 : 2);
+    int count = 0;
+    for (int i = 0; i < size; ++i) {
+      boolean fromOther = uniform(stream, index, 17 + 2 * i) < sharedPeptideFraction;
+      Protein other = pick(isEntrapment != fromOther ? entrapmentProteins : targetProteins, uniform(stream, index, 18 + 2 * i));
+      if (other != protein && !contains(mapped, count, other)) {
+        mapped[count++] = other;
+      }
+    }
+    return count;
+  }
+
+  private static boolean contains(Protein[] proteins, int count, Protein protein) {
+    for (int i = 0; i < count; ++i) {
+      if (proteins[i] == protein) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Protein pick(List<Protein> proteins, double u) {
+    return proteins.get((int) (u * proteins.size()));
+  }
+
+  private static int peptideLength(Protein protein, double u) {
+    return Math.min(protein.sequence.length(), minPeptideLength + (int) (u * (maxPeptideLength - minPeptideLength + 1)));
+  }
+
+  private static StringBuilder appendJoined(StringBuilder sb, Protein[] proteins, int count, Function<Protein, String> field, String delimiter) {
+    for (int i = 0; i < count; ++i) {
+      if (i > 0) {
+        sb.append(delimiter);
+      }
+      sb.append(field.apply(proteins[i]));
+    }
+    return sb;
+  }
+
+  private static double cscore(double u, double exponent) {
+    return 1 - Math.pow(1 - u, exponent);
+  }
+
+  // The run-to-run variation of a precursor or protein group. Stays above 0 because DIA-NN does not report zero CScores.
+  private static double jitter(double u, double v) {
+    return Math.max(1e-6, Math.min(1, u + (v - 0.5) * 0.1));
+  }
+
+  private double qValue(double cscore) {
+    double entrapments = entrapmentFraction * Math.pow(1 - cscore, 1 / falseExponent);
+    double targets = (1 - entrapmentFraction) * Math.pow(1 - cscore, 1 / targetExponent);
+    return targets + entrapments == 0 ? 0 : Math.min(1, 2 * entrapments / (targets + entrapments));
+  }
+
+  // A uniform double in [0, 1) that only depends on the seed, the stream, the index and the field.
+  private double uniform(int stream, long index, int field) {
+    long hash = mix(seed * 0x9e3779b97f4a7c15L + stream);
+    hash = mix(hash + index);
+    hash = mix(hash + field);
+    return (hash >>> 11) * 0x1.0p-53;
+  }
+
+  // The finalizer of SplitMix64.
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+
+  static class Protein {
+
+    final String id;
+    final String accession;
+    final String entryName;
+    final String gene;
+    final String sequence;
+    final long key; // the target index, or -1 - the entrapment index
+
+    public Protein(String header, String sequence, long key) {
+      id = header.split("\\s", 2)[0];
+      String[] parts = id.split("\\|");
+      accession = parts.length > 1 ? parts[1] : id;
+      entryName = parts.length > 2 ? parts[2] : accession;
+      Matcher matcher = genePattern.matcher(header);
+      gene = matcher.find() ? matcher.group(1) : "";
+      this.sequence = sequence;
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash set of non-negative longs without boxing.
+ */
+class LongHashSet {
+
+  private static final long empty = -1;
+
+  private long[] table;
+  private int size = 0;
+
+  LongHashSet() {
+    table = new long[1 << 8];
+    Arrays.fill(table, empty);
+  }
+
+  boolean add(long key) {
+    int mask = table.length - 1;
+    int slot = slot(key, mask);
+    while (table[slot] != empty) {
+      if (table[slot] == key) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = key;
+    ++size;
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return true;
+  }
+
+  boolean contains(long key) {
+    int mask = table.length - 1;
+    int slot = slot(key, mask);
+    while (table[slot] != empty) {
+      if (table[slot] == key) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  int size() {
+    return size;
+  }
+
+  // The keys in no particular order.
+  long[] toArray() {
+    long[] keys = new long[size];
+    int n = 0;
+    for (long key : table) {
+      if (key != empty) {
+        keys[n++] = key;
+      }
+    }
+    return keys;
+  }
+
+  private void rehash() {
+    long[] oldTable = table;
+    table = new long[oldTable.length * 2];
+    Arrays.fill(table, empty);
+    int mask = table.length - 1;
+    for (long key : oldTable) {
+      if (key != empty) {
+        int slot = slot(key, mask);
+        while (table[slot] != empty) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+      }
+    }
+  }
+
+  private static int slot(long key, int mask) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional "--key=value" arguments following the positional arguments of a command.
+ */
+class Options {
+
+  private final Map<String, String> values;
+
+  private Options(Map<String, String> values) {
+    this.values = values;
+  }
+
+  // Parses args[positionalCount..]. Prints a message and exits on malformed or unknown options.
+  static Options parse(String[] args, int positionalCount, String... knownKeys) {
+    List<String> known = Arrays.asList(knownKeys);
+    Map<String, String> values = new HashMap<>();
+    for (int i = positionalCount; i < args.length; ++i) {
+      String arg = args[i];
+      int idx = arg.indexOf('=');
+      if (!arg.startsWith("--") || idx < 0) {
+        System.out.println("Optional arguments need to be in the form of --key=value: " + arg);
+        System.exit(1);
+      }
+      String key = arg.substring(2, idx);
+      if (!known.contains(key)) {
+        System.out.println("Unknown option " + arg + ". Supported options: " + String.join(", ", known));
+        System.exit(1);
+      }
+      values.put(key, arg.substring(idx + 1));
+    }
+    return new Options(values);
+  }
+
+  boolean has(String key) {
+    return values.containsKey(key);
+  }
+
+  String getString(String key, String defaultValue) {
+    return values.getOrDefault(key, defaultValue);
+  }
+
+  int getInt(String key, int defaultValue) {
+    String value = values.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException ex) {
+      System.out.println("The value of --" + key + " is not an integer: " + value);
+      System.exit(1);
+      return defaultValue;
+    }
+  }
+
+  long getLong(String key, long defaultValue) {
+    String value = values.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException ex) {
+      System.out.println("The value of --" + key + " is not an integer: " + value);
+      System.exit(1);
+      return defaultValue;
+    }
+  }
+
+  double getDouble(String key, double defaultValue) {
+    String value = values.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException ex) {
+      System.out.println("The value of --" + key + " is not a number: " + value);
+      System.exit(1);
+      return defaultValue;
+    }
+  }
+
+  // The number of threads: 0 means all available processors.
+  int getThreads() {
+    int threads = getInt("threads", 1);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    return threads;
+  }
+}
@@ -0,0 +1,834 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import com.github.luben.zstd.Zstd;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A minimal reader of flat Parquet files such as DIA-NN's report.parquet. Only the requested columns of a row group are read, and they are
+ * decoded straight into primitive arrays. Supports data page v1 and v2, PLAIN and dictionary encodings, and UNCOMPRESSED, SNAPPY, GZIP and
+ * ZSTD compression.
+ */
+class ParquetFile implements Closeable {
+
+  private static final byte[] magic = "PAR1".getBytes(StandardCharsets.US_ASCII);
+
+  // Parquet physical types
+  private static final int BOOLEAN = 0;
+  private static final int INT32 = 1;
+  private static final int INT64 = 2;
+  private static final int FLOAT = 4;
+  private static final int DOUBLE = 5;
+  private static final int BYTE_ARRAY = 6;
+
+  // Parquet encodings
+  private static final int PLAIN = 0;
+  private static final int PLAIN_DICTIONARY = 2;
+  private static final int RLE_DICTIONARY = 8;
+
+  // Parquet compression codecs
+  private static final int UNCOMPRESSED = 0;
+  private static final int SNAPPY = 1;
+  private static final int GZIP = 2;
+  private static final int ZSTD = 6;
+
+  // Parquet page types
+  private static final int DATA_PAGE = 0;
+  private static final int DICTIONARY_PAGE = 2;
+  private static final int DATA_PAGE_V2 = 3;
+
+  private final FileChannel channel;
+  private final List<String> columnNames = new ArrayList<>();
+  private final List<Integer> columnTypes = new ArrayList<>();
+  private final List<Integer> maxDefinitionLevels = new ArrayList<>();
+  private final List<RowGroup> rowGroups = new ArrayList<>();
+
+  static boolean isParquet(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < 12) {
+        return false;
+      }
+      ByteBuffer head = ByteBuffer.allocate(4);
+      ByteBuffer tail = ByteBuffer.allocate(4);
+      readFully(channel, head, 0);
+      readFully(channel, tail, channel.size() - 4);
+      return Arrays.equals(head.array(), magic) && Arrays.equals(tail.array(), magic);
+    }
+  }
+
+  ParquetFile(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    long size = channel.size();
+    ByteBuffer tail = ByteBuffer.allocate(8);
+    readFully(channel, tail, size - 8);
+    if (tail.get(4) != 'P' || tail.get(5) != 'A' || tail.get(6) != 'R' || tail.get(7) != '1') {
+      throw new IOException(path + " is not a Parquet file.");
+    }
+    int footerLength = Integer.reverseBytes(tail.getInt(0));
+    ByteBuffer footer = ByteBuffer.allocate(footerLength);
+    readFully(channel, footer, size - 8 - footerLength);
+    readFileMetaData(new ThriftReader(footer.array(), 0));
+  }
+
+  List<String> columnNames() {
+    return columnNames;
+  }
+
+  int rowGroupCount() {
+    return rowGroups.size();
+  }
+
+  int rowCount(int rowGroup) {
+    return (int) rowGroups.get(rowGroup).rowCount;
+  }
+
+  // Reads a numeric column of a row group as doubles. Nulls are NaN.
+  double[] readDoubles(int rowGroup, int column) throws IOException {
+    RowGroup group = rowGroups.get(rowGroup);
+    double[] values = new double[(int) group.rowCount];
+    ColumnReader reader = new ColumnReader(group, column);
+    int type = columnTypes.get(column);
+    if (type != INT32 && type != INT64 && type != FLOAT && type != DOUBLE) {
+      throw new IOException("Column " + columnNames.get(column) + " is not numeric.");
+    }
+    double[] dictionary = null;
+    int row = 0;
+    while (reader.nextPage()) {
+      if (reader.pageType == DICTIONARY_PAGE) {
+        dictionary = new double[reader.pageValueCount];
+        for (int i = 0; i < dictionary.length; ++i) {
+          dictionary[i] = reader.readPlainNumber(type);
+        }
+        continue;
+      }
+      boolean[] defined = reader.readDefinitionLevels();
+      int[] indices = reader.isDictionaryEncoded() ? reader.readDictionaryIndices(defined) : null;
+      int k = 0;
+      for (int i = 0; i < reader.pageValueCount; ++i, ++row) {
+        if (defined != null && !defined[i]) {
+          values[row] = Double.NaN;
+        } else if (indices != null) {
+          values[row] = dictionary[indices[k++]];
+        } else {
+          values[row] = reader.readPlainNumber(type);
+        }
+      }
+    }
+    return values;
+  }
+
+  // Reads a string column of a row group. Every distinct dictionary entry becomes one String, and the rows only hold indices into them.
+  StringColumn readStrings(int rowGroup, int column) throws IOException {
+    RowGroup group = rowGroups.get(rowGroup);
+    if (columnTypes.get(column) != BYTE_ARRAY) {
+      throw new IOException("Column " + columnNames.get(column) + " is not a string column.");
+    }
+    int[] indices = new int[(int) group.rowCount];
+    List<String> dictionary = new ArrayList<>();
+    int nullIndex = -1;
+    int dictionaryStart = 0;
+    ColumnReader reader = new ColumnReader(group, column);
+    int row = 0;
+    while (reader.nextPage()) {
+      if (reader.pageType == DICTIONARY_PAGE) {
+        dictionaryStart = dictionary.size();
+        for (int i = 0; i < reader.pageValueCount; ++i) {
+          dictionary.add(reader.readPlainString());
+        }
+        continue;
+      }
+      boolean[] defined = reader.readDefinitionLevels();
+      int[] pageIndices = reader.isDictionaryEncoded() ? reader.readDictionaryIndices(defined) : null;
+      int k = 0;
+      for (int i = 0; i < reader.pageValueCount; ++i, ++row) {
+        if (defined != null && !defined[i]) {
+          if (nullIndex < 0) {
+            nullIndex = dictionary.size();
+            dictionary.add("");
+          }
+          indices[row] = nullIndex;
+        } else if (pageIndices != null) {
+          indices[row] = dictionaryStart + pageIndices[k++];
+        } else {
+          indices[row] = dictionary.size();
+          dictionary.add(reader.readPlainString());
+        }
+      }
+    }
+    return new StringColumn(dictionary.toArray(new String[0]), indices);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void readFileMetaData(ThriftReader thrift) throws IOException {
+    int fieldId = 0;
+    while (true) {
+      int header = thrift.readFieldHeader(fieldId);
+      if (header == 0) {
+        break;
+      }
+      fieldId = header >>> 8;
+      int type = header & 0xff;
+      if (fieldId == 2) {
+        int count = thrift.readListHeader() >>> 8;
+        for (int i = 0; i < count; ++i) {
+          readSchemaElement(thrift, i == 0);
+        }
+      } else if (fieldId == 4) {
+        int count = thrift.readListHeader() >>> 8;
+        for (int i = 0; i < count; ++i) {
+          rowGroups.add(readRowGroup(thrift));
+        }
+      } else {
+        thrift.skip(type);
+      }
+    }
+  }
+
+  private void readSchemaElement(ThriftReader thrift, boolean root) throws IOException {
+    int physicalType = -1;
+    int repetitionType = 0;
+    String name = null;
+    int childCount = 0;
+    int fieldId = 0;
+    while (true) {
+      int header = thrift.readFieldHeader(fieldId);
+      if (header == 0) {
+        break;
+      }
+      fieldId = header >>> 8;
+      int type = header & 0xff;
+      if (fieldId == 1) {
+        physicalType = thrift.readInt();
+      } else if (fieldId == 3) {
+        repetitionType = thrift.readInt();
+      } else if (fieldId == 4) {
+        name = thrift.readString();
+      } else if (fieldId == 5) {
+        childCount = thrift.readInt();
+      } else {
+        thrift.skip(type);
+      }
+    }
+    if (root) {
+      return;
+    }
+    if (childCount > 0 || repetitionType == 2) {
+      throw new IOException("Nested Parquet column " + name + " is not supported.");
+    }
+    columnNames.add(name);
+    columnTypes.add(physicalType);
+    maxDefinitionLevels.add(repetitionType == 1 ? 1 : 0);
+  }
+
+  private RowGroup readRowGroup(ThriftReader thrift) throws IOException {
+    RowGroup group = new RowGroup();
+    int fieldId = 0;
+    while (true) {
+      int header = thrift.readFieldHeader(fieldId);
+      if (header == 0) {
+        break;
+      }
+      fieldId = header >>> 8;
+      int type = header & 0xff;
+      if (fieldId == 1) {
+        int count = thrift.readListHeader() >>> 8;
+        group.chunks = new ColumnChunk[count];
+        for (int i = 0; i < count; ++i) {
+          group.chunks[i] = readColumnChunk(thrift);
+        }
+      } else if (fieldId == 3) {
+        group.rowCount = thrift.readLong();
+      } else {
+        thrift.skip(type);
+      }
+    }
+    return group;
+  }
+
+  private ColumnChunk readColumnChunk(ThriftReader thrift) throws IOException {
+    ColumnChunk chunk = new ColumnChunk();
+    int fieldId = 0;
+    while (true) {
+      int header = thrift.readFieldHeader(fieldId);
+      if (header == 0) {
+        break;
+      }
+      fieldId = header >>> 8;
+      int type = header & 0xff;
+      if (fieldId == 1) {
+        throw new IOException("Parquet column chunks in external files are not supported.");
+      } else if (fieldId == 3) {
+        int metaFieldId = 0;
+        while (true) {
+          int metaHeader = thrift.readFieldHeader(metaFieldId);
+          if (metaHeader == 0) {
+            break;
+          }
+          metaFieldId = metaHeader >>> 8;
+          int metaType = metaHeader & 0xff;
+          if (metaFieldId == 4) {
+            chunk.codec = thrift.readInt();
+          } else if (metaFieldId == 5) {
+            chunk.valueCount = thrift.readLong();
+          } else if (metaFieldId == 7) {
+            chunk.compressedSize = thrift.readLong();
+          } else if (metaFieldId == 9) {
+            chunk.dataPageOffset = thrift.readLong();
+          } else if (metaFieldId == 11) {
+            chunk.dictionaryPageOffset = thrift.readLong();
+          } else {
+            thrift.skip(metaType);
+          }
+        }
+      } else {
+        thrift.skip(type);
+      }
+    }
+    return chunk;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = channel.read(buffer, position);
+      if (n < 0) {
+        throw new IOException("Unexpected end of the Parquet file.");
+      }
+      position += n;
+    }
+  }
+
+  static byte[] decompress(int codec, byte[] input, int offset, int length, int uncompressedLength) throws IOException {
+    byte[] output = new byte[uncompressedLength];
+    if (codec == UNCOMPRESSED) {
+      System.arraycopy(input, offset, output, 0, length);
+    } else if (codec == SNAPPY) {
+      snappyDecompress(input, offset, length, output);
+    } else if (codec == GZIP) {
+      try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(input, offset, length))) {
+        int n = 0;
+        while (n < uncompressedLength) {
+          int read = inputStream.read(output, n, uncompressedLength - n);
+          if (read < 0) {
+            throw new IOException("Truncated GZIP page in the Parquet file.");
+          }
+          n += read;
+        }
+      }
+    } else if (codec == ZSTD) {
+      long n = Zstd.decompressByteArray(output, 0, uncompressedLength, input, offset, length);
+      if (Zstd.isError(n)) {
+        throw new IOException("Failed to decompress a ZSTD page in the Parquet file: " + Zstd.getErrorName(n));
+      }
+    } else {
+      throw new IOException("Parquet compression codec " + codec + " is not supported.");
+    }
+    return output;
+  }
+
+  private static void snappyDecompress(byte[] input, int offset, int length, byte[] output) throws IOException {
+    int i = offset;
+    int end = offset + length;
+    // the uncompressed length, which is already known from the page header
+    while ((input[i++] & 0x80) != 0) {
+    }
+    int o = 0;
+    while (i < end) {
+      int tag = input[i++] & 0xff;
+      int kind = tag & 3;
+      if (kind == 0) {
+        int literalLength = tag >>> 2;
+        if (literalLength >= 60) {
+          int bytes = literalLength - 59;
+          literalLength = 0;
+          for (int b = 0; b < bytes; ++b) {
+            literalLength |= (input[i++] & 0xff) << (8 * b);
+          }
+        }
+        ++literalLength;
+        System.arraycopy(input, i, output, o, literalLength);
+        i += literalLength;
+        o += literalLength;
+      } else {
+        int copyLength;
+        int copyOffset;
+        if (kind == 1) {
+          copyLength = 4 + ((tag >>> 2) & 7);
+          copyOffset = ((tag >>> 5) << 8) | (input[i++] & 0xff);
+        } else if (kind == 2) {
+          copyLength = (tag >>> 2) + 1;
+          copyOffset = (input[i] & 0xff) | ((input[i + 1] & 0xff) << 8);
+          i += 2;
+        } else {
+          copyLength = (tag >>> 2) + 1;
+          copyOffset = (input[i] & 0xff) | ((input[i + 1] & 0xff) << 8) | ((input[i + 2] & 0xff) << 16) | ((input[i + 3] & 0xff) << 24);
+          i += 4;
+        }
+        if (copyOffset <= 0 || copyOffset > o) {
+          throw new IOException("Corrupted SNAPPY page in the Parquet file.");
+        }
+        // byte by byte because the source and the destination may overlap
+        for (int b = 0; b < copyLength; ++b, ++o) {
+          output[o] = output[o - copyOffset];
+        }
+      }
+    }
+    if (o != output.length) {
+      throw new IOException("Corrupted SNAPPY page in the Parquet file.");
+    }
+  }
+
+
+  private class ColumnReader {
+
+    private final ColumnChunk chunk;
+    private final int maxDefinitionLevel;
+    private final byte[] bytes;
+    private int position = 0;
+    private long valuesLeft;
+
+    // The current page
+    int pageType;
+    int pageValueCount;
+    private int encoding;
+    private byte[] page;
+    private int pagePosition;
+    private int definitionLevelsLength; // data page v2 only, -1 for v1
+
+    ColumnReader(RowGroup group, int column) throws IOException {
+      chunk = group.chunks[column];
+      maxDefinitionLevel = maxDefinitionLevels.get(column);
+      long start = chunk.dictionaryPageOffset > 0 && chunk.dictionaryPageOffset < chunk.dataPageOffset ? chunk.dictionaryPageOffset : chunk.dataPageOffset;
+      ByteBuffer buffer = ByteBuffer.allocate((int) chunk.compressedSize);
+      readFully(channel, buffer, start);
+      bytes = buffer.array();
+      valuesLeft = chunk.valueCount;
+    }
+
+    boolean nextPage() throws IOException {
+      while (valuesLeft > 0 && position < bytes.length) {
+        ThriftReader thrift = new ThriftReader(bytes, position);
+        int type = -1;
+        int uncompressedSize = 0;
+        int compressedSize = 0;
+        int valueCount = 0;
+        int pageEncoding = PLAIN;
+        int v2DefinitionLevelsLength = 0;
+        int v2RepetitionLevelsLength = 0;
+        boolean v2Compressed = true;
+        int fieldId = 0;
+        while (true) {
+          int header = thrift.readFieldHeader(fieldId);
+          if (header == 0) {
+            break;
+          }
+          fieldId = header >>> 8;
+          int fieldType = header & 0xff;
+          if (fieldId == 1) {
+            type = thrift.readInt();
+          } else if (fieldId == 2) {
+            uncompressedSize = thrift.readInt();
+          } else if (fieldId == 3) {
+            compressedSize = thrift.readInt();
+          } else if (fieldId == 5 || fieldId == 7 || fieldId == 8) {
+            int subFieldId = 0;
+            while (true) {
+              int subHeader = thrift.readFieldHeader(subFieldId);
+              if (subHeader == 0) {
+                break;
+              }
+              subFieldId = subHeader >>> 8;
+              int subType = subHeader & 0xff;
+              if (subFieldId == 1) {
+                valueCount = thrift.readInt();
+              } else if (subFieldId == 2 && fieldId != 8) {
+                pageEncoding = thrift.readInt();
+              } else if (subFieldId == 4 && fieldId == 8) {
+                pageEncoding = thrift.readInt();
+              } else if (subFieldId == 5 && fieldId == 8) {
+                v2DefinitionLevelsLength = thrift.readInt();
+              } else if (subFieldId == 6 && fieldId == 8) {
+                v2RepetitionLevelsLength = thrift.readInt();
+              } else if (subFieldId == 7 && fieldId == 8) {
+                v2Compressed = subType == ThriftReader.TRUE;
+              } else {
+                thrift.skip(subType);
+              }
+            }
+          } else {
+            thrift.skip(fieldType);
+          }
+        }
+        int dataStart = thrift.position;
+        position = dataStart + compressedSize;
+
+        if (type == DICTIONARY_PAGE) {
+          page = decompress(chunk.codec, bytes, dataStart, compressedSize, uncompressedSize);
+          definitionLevelsLength = -1;
+        } else if (type == DATA_PAGE) {
+          page = decompress(chunk.codec, bytes, dataStart, compressedSize, uncompressedSize);
+          definitionLevelsLength = -1;
+        } else if (type == DATA_PAGE_V2) {
+          // The levels are never compressed. Keep them in front of the decompressed values.
+          int levelsLength = v2DefinitionLevelsLength + v2RepetitionLevelsLength;
+          int valuesLength = uncompressedSize - levelsLength;
+          byte[] values = v2Compressed ? decompress(chunk.codec, bytes, dataStart + levelsLength, compressedSize - levelsLength, valuesLength) : Arrays.copyOfRange(bytes, dataStart + levelsLength, dataStart + compressedSize);
+          page = new byte[levelsLength + values.length];
+          System.arraycopy(bytes, dataStart + v2RepetitionLevelsLength, page, 0, v2DefinitionLevelsLength);
+          System.arraycopy(values, 0, page, levelsLength, values.length);
+          definitionLevelsLength = v2DefinitionLevelsLength;
+          if (v2RepetitionLevelsLength > 0) {
+            throw new IOException("Repeated Parquet columns are not supported.");
+          }
+        } else {
+          continue; // index page
+        }
+        pageType = type;
+        pageValueCount = valueCount;
+        encoding = pageEncoding;
+        pagePosition = 0;
+        if (type != DICTIONARY_PAGE) {
+          valuesLeft -= valueCount;
+        }
+        return true;
+      }
+      return false;
+    }
+
+    boolean isDictionaryEncoded() throws IOException {
+      if (encoding == PLAIN_DICTIONARY || encoding == RLE_DICTIONARY) {
+        return true;
+      } else if (encoding == PLAIN) {
+        return false;
+      } else {
+        throw new IOException("Parquet encoding " + encoding + " is not supported.");
+      }
+    }
+
+    // Returns null if the column is required, i.e. there is no definition level.
+    boolean[] readDefinitionLevels() throws IOException {
+      if (maxDefinitionLevel == 0) {
+        if (definitionLevelsLength < 0) {
+          return null;
+        }
+        pagePosition = definitionLevelsLength;
+        return null;
+      }
+      int length;
+      if (definitionLevelsLength < 0) {
+        length = readIntLittleEndian(page, pagePosition);
+        pagePosition += 4;
+      } else {
+        length = definitionLevelsLength;
+      }
+      int[] levels = new int[pageValueCount];
+      decodeHybrid(page, pagePosition, pagePosition + length, 1, levels, pageValueCount);
+      pagePosition += length;
+      if (definitionLevelsLength >= 0) {
+        pagePosition = definitionLevelsLength;
+      }
+      boolean[] defined = new boolean[pageValueCount];
+      for (int i = 0; i < pageValueCount; ++i) {
+        defined[i] = levels[i] == maxDefinitionLevel;
+      }
+      return defined;
+    }
+
+    int[] readDictionaryIndices(boolean[] defined) throws IOException {
+      int count = pageValueCount;
+      if (defined != null) {
+        count = 0;
+        for (boolean d : defined) {
+          if (d) {
+            ++count;
+          }
+        }
+      }
+      int[] indices = new int[count];
+      int bitWidth = page[pagePosition++] & 0xff;
+      decodeHybrid(page, pagePosition, page.length, bitWidth, indices, count);
+      return indices;
+    }
+
+    double readPlainNumber(int type) throws IOException {
+      double value;
+      if (type == DOUBLE) {
+        value = Double.longBitsToDouble(readLongLittleEndian(page, pagePosition));
+        pagePosition += 8;
+      } else if (type == FLOAT) {
+        value = Float.intBitsToFloat(readIntLittleEndian(page, pagePosition));
+        pagePosition += 4;
+      } else if (type == INT32) {
+        value = readIntLittleEndian(page, pagePosition);
+        pagePosition += 4;
+      } else if (type == INT64) {
+        value = readLongLittleEndian(page, pagePosition);
+        pagePosition += 8;
+      } else {
+        throw new IOException("Parquet type " + type + " is not numeric.");
+      }
+      return value;
+    }
+
+    String readPlainString() {
+      int length = readIntLittleEndian(page, pagePosition);
+      String s = new String(page, pagePosition + 4, length, StandardCharsets.UTF_8);
+      pagePosition += 4 + length;
+      return s;
+    }
+  }
+
+  // Decodes the RLE/bit-packing hybrid encoding.
+  private static void decodeHybrid(byte[] bytes, int position, int end, int bitWidth, int[] output, int count) throws IOException {
+    int byteWidth = (bitWidth + 7) / 8;
+    int n = 0;
+    while (n < count) {
+      if (position >= end) {
+        throw new IOException("Truncated RLE data in the Parquet file.");
+      }
+      int header = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = bytes[position++] & 0xff;
+        header |= (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+
+      if ((header & 1) == 0) {
+        int runLength = header >>> 1;
+        int value = 0;
+        for (int i = 0; i < byteWidth; ++i) {
+          value |= (bytes[position++] & 0xff) << (8 * i);
+        }
+        int stop = Math.min(count, n + runLength);
+        while (n < stop) {
+          output[n++] = value;
+        }
+      } else {
+        int valueCount = (header >>> 1) * 8;
+        long bitPosition = (long) position * 8;
+        for (int i = 0; i < valueCount; ++i) {
+          int value = 0;
+          for (int bit = 0; bit < bitWidth; ++bit, ++bitPosition) {
+            if ((bytes[(int) (bitPosition >>> 3)] & (1 << (bitPosition & 7))) != 0) {
+              value |= 1 << bit;
+            }
+          }
+          if (n < count) {
+            output[n++] = value;
+          }
+        }
+        position += (valueCount * bitWidth + 7) / 8;
+      }
+    }
+  }
+
+  private static int readIntLittleEndian(byte[] bytes, int position) {
+    return (bytes[position] & 0xff) | ((bytes[position + 1] & 0xff) << 8) | ((bytes[position + 2] & 0xff) << 16) | ((bytes[position + 3] & 0xff) << 24);
+  }
+
+  private static long readLongLittleEndian(byte[] bytes, int position) {
+    return (readIntLittleEndian(bytes, position) & 0xffffffffL) | ((long) readIntLittleEndian(bytes, position + 4) << 32);
+  }
+
+
+  // Thrift compact protocol, just enough to read the file metadata and the page headers.
+  private static class ThriftReader {
+
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int BYTE = 3;
+    static final int I16 = 4;
+    static final int I32 = 5;
+    static final int I64 = 6;
+    static final int DOUBLE = 7;
+    static final int BINARY = 8;
+    static final int LIST = 9;
+    static final int SET = 10;
+    static final int MAP = 11;
+    static final int STRUCT = 12;
+
+    private final byte[] bytes;
+    int position;
+
+    ThriftReader(byte[] bytes, int position) {
+      this.bytes = bytes;
+      this.position = position;
+    }
+
+    // Returns (field id << 8) | type, or 0 at the end of a struct.
+    int readFieldHeader(int lastFieldId) {
+      int b = bytes[position++] & 0xff;
+      if (b == 0) {
+        return 0;
+      }
+      int delta = b >>> 4;
+      int fieldId = delta == 0 ? (short) zigzag(readVarLong()) : lastFieldId + delta;
+      return (fieldId << 8) | (b & 0x0f);
+    }
+
+    // Returns (size << 8) | element type.
+    int readListHeader() {
+      int b = bytes[position++] & 0xff;
+      int size = b >>> 4;
+      if (size == 15) {
+        size = (int) readVarLong();
+      }
+      return (size << 8) | (b & 0x0f);
+    }
+
+    int readInt() {
+      return (int) zigzag(readVarLong());
+    }
+
+    long readLong() {
+      return zigzag(readVarLong());
+    }
+
+    String readString() {
+      int length = (int) readVarLong();
+      String s = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return s;
+    }
+
+    void skip(int type) throws IOException {
+      switch (type) {
+        case TRUE:
+        case FALSE:
+          break;
+        case BYTE:
+          ++position;
+          break;
+        case I16:
+        case I32:
+        case I64:
+          readVarLong();
+          break;
+        case DOUBLE:
+          position += 8;
+          break;
+        case BINARY: {
+          int length = (int) readVarLong();
+          position += length;
+          break;
+        }
+        case LIST:
+        case SET: {
+          int header = readListHeader();
+          int elementType = header & 0x0f;
+          for (int i = 0; i < header >>> 8; ++i) {
+            if (elementType == TRUE || elementType == FALSE) {
+              ++position; // booleans in a list take one byte each
+            } else {
+              skip(elementType);
+            }
+          }
+          break;
+        }
+        case MAP: {
+          int size = (int) readVarLong();
+          if (size > 0) {
+            int types = bytes[position++] & 0xff;
+            for (int i = 0; i < size; ++i) {
+              skip(types >>> 4);
+              skip(types & 0x0f);
+            }
+          }
+          break;
+        }
+        case STRUCT: {
+          int fieldId = 0;
+          while (true) {
+            int header = readFieldHeader(fieldId);
+            if (header == 0) {
+              break;
+            }
+            fieldId = header >>> 8;
+            skip(header & 0xff);
+          }
+          break;
+        }
+        default:
+          throw new IOException("Unknown Thrift type " + type + " in the Parquet file.");
+      }
+    }
+
+    private long readVarLong() {
+      long value = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = bytes[position++] & 0xff;
+        value |= (long) (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    private static long zigzag(long n) {
+      return (n >>> 1) ^ -(n & 1);
+    }
+  }
+
+
+  private static class RowGroup {
+
+    ColumnChunk[] chunks;
+    long rowCount;
+  }
+
+
+  private static class ColumnChunk {
+
+    int codec;
+    long valueCount;
+    long compressedSize;
+    long dataPageOffset;
+    long dictionaryPageOffset;
+  }
+
+
+  static class StringColumn {
+
+    final String[] dictionary;
+    final int[] indices;
+
+    public StringColumn(String[] dictionary, int[] indices) {
+      this.dictionary = dictionary;
+      this.indices = indices;
+    }
+
+    String get(int row) {
+      return dictionary[indices[row]];
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Arrays;
+
+/**
+ * A global index of the target peptides and the emitted entrapment peptides, used to keep the entrapment peptides unique across the whole
+ * database. Peptides are stored as 64-bit fingerprints in open-addressing tables that are allocated once within a fixed memory budget.
+ * <p>
+ * The target peptides are added first and are read-only afterwards, so shuffling threads can check them concurrently. Each protein is shuffled
+ * in a Session, which also remembers the peptides of the protein. Sessions are committed one by one in the output order.
+ */
+class PeptideIndex {
+
+  private static final double maxLoadFactor = 0.9;
+
+  private final long memoryBudget;
+  private final int minPeptideLength; // shorter peptides are not checked, like the peptide length range of the PeptideRule
+  private FingerprintSet targets;
+  private FingerprintSet emitted;
+  private long nonUniquePeptideCount = 0;
+
+  PeptideIndex(long memoryBudget, int minPeptideLength) {
+    this.memoryBudget = memoryBudget;
+    this.minPeptideLength = minPeptideLength;
+    // The whole budget until the number of target peptides is known.
+    targets = new FingerprintSet(Long.highestOneBit(memoryBudget / 8));
+  }
+
+  void addTargetPeptides(String sequence, Digester digester) {
+    int start = 0;
+    for (int site : digester.cleavageSites(sequence)) {
+      addTargetPeptide(sequence, start, site + 1);
+      start = site + 1;
+    }
+    addTargetPeptide(sequence, start, sequence.length());
+  }
+
+  // Moves the target peptides into a table of their own size and gives the rest of the budget to the entrapment peptides.
+  void finishTargetPeptides() {
+    FingerprintSet allTargets = targets;
+    targets = new FingerprintSet(tableSize((long) Math.ceil(allTargets.size / maxLoadFactor) + 1));
+    for (long fingerprint : allTargets.table) {
+      if (fingerprint != 0) {
+        targets.add(fingerprint);
+      }
+    }
+    allTargets = null; // so that the budget is not taken twice
+    long remaining = memoryBudget - targets.table.length * 8L;
+    if (remaining < (1 << 16)) {
+      throw new IllegalStateException("The memory budget of the peptide index is too small for " + targets.size + " target peptides.");
+    }
+    emitted = new FingerprintSet(Long.highestOneBit(remaining / 8));
+  }
+
+  int targetPeptideCount() {
+    return targets.size;
+  }
+
+  long nonUniquePeptideCount() {
+    return nonUniquePeptideCount;
+  }
+
+  // With checkEmitted, the already emitted entrapment peptides are checked too, which is only safe on the thread that commits the sessions.
+  Session newSession(boolean checkEmitted) {
+    return new Session(checkEmitted);
+  }
+
+  // Adds the peptides of the session. Returns false without adding anything if the session did not check the emitted peptides and one of
+  // its peptides has been emitted since, in which case the protein needs to be shuffled again in a session that checks them.
+  boolean commit(Session session) {
+    if (!session.checkEmitted) {
+      for (int i = 0; i < session.count; ++i) {
+        if (emitted.contains(session.fingerprints[i])) {
+          return false;
+        }
+      }
+    }
+    for (int i = 0; i < session.count; ++i) {
+      emitted.add(session.fingerprints[i]);
+    }
+    if (emitted.size > emitted.table.length * maxLoadFactor) {
+      throw new IllegalStateException("The peptide index is full after " + emitted.size + " entrapment peptides. Please increase the memory of the index.");
+    }
+    nonUniquePeptideCount += session.nonUniqueCount;
+    return true;
+  }
+
+  static long fingerprint(CharSequence s) {
+    return fingerprint(s, 0, s.length());
+  }
+
+  static long fingerprint(CharSequence s, int start, int end) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = start; i < end; ++i) {
+      hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+    }
+    // final mixing of MurmurHash3
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    hash >>>= 1;
+    return hash == 0 ? 1 : hash; // 0 marks an empty slot
+  }
+
+  private void addTargetPeptide(String sequence, int start, int end) {
+    if (end - start >= minPeptideLength) {
+      targets.add(fingerprint(sequence.subSequence(start, end)));
+      if (targets.size > targets.table.length * maxLoadFactor) {
+        throw new IllegalStateException("The peptide index is full after " + targets.size + " target peptides. Please increase the memory of the index.");
+      }
+    }
+  }
+
+  private static long tableSize(long minSize) {
+    return Math.max(1 << 10, Long.highestOneBit(minSize - 1) << 1);
+  }
+
+
+  class Session {
+
+    private final boolean checkEmitted;
+    private final FingerprintSet local = new FingerprintSet(1 << 6);
+    private long[] fingerprints = new long[16];
+    private int count = 0;
+    private long nonUniqueCount = 0;
+
+    private Session(boolean checkEmitted) {
+      this.checkEmitted = checkEmitted;
+    }
+
+    boolean isUnique(CharSequence peptide) {
+      if (peptide.length() < minPeptideLength) {
+        return true;
+      }
+      long fingerprint = fingerprint(peptide);
+      return !targets.contains(fingerprint) && !local.contains(fingerprint) && !(checkEmitted && emitted.contains(fingerprint));
+    }
+
+    // Records the peptide that the shuffle ended with, unique or not.
+    void add(CharSequence peptide) {
+      if (peptide.length() < minPeptideLength) {
+        return;
+      }
+      if (!isUnique(peptide)) {
+        ++nonUniqueCount;
+      }
+      long fingerprint = fingerprint(peptide);
+      local.add(fingerprint);
+      if (local.size * 2 > local.table.length) {
+        local.grow();
+      }
+      if (count == fingerprints.length) {
+        fingerprints = Arrays.copyOf(fingerprints, count * 2);
+      }
+      fingerprints[count++] = fingerprint;
+    }
+  }
+
+
+  // Non-zero fingerprints in a table that only grows on request.
+  private static class FingerprintSet {
+
+    long[] table;
+    int size = 0;
+
+    FingerprintSet(long tableSize) {
+      if (tableSize > (1 << 30)) {
+        tableSize = 1 << 30;
+      }
+      table = new long[(int) tableSize];
+    }
+
+    boolean contains(long fingerprint) {
+      int mask = table.length - 1;
+      int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+      while (table[slot] != 0) {
+        if (table[slot] == fingerprint) {
+          return true;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return false;
+    }
+
+    void add(long fingerprint) {
+      int mask = table.length - 1;
+      int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+      while (table[slot] != 0) {
+        if (table[slot] == fingerprint) {
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = fingerprint;
+      ++size;
+    }
+
+    void grow() {
+      long[] oldTable = table;
+      table = new long[oldTable.length * 2];
+      size = 0;
+      for (long fingerprint : oldTable) {
+        if (fingerprint != 0) {
+          add(fingerprint);
+        }
+      }
+    }
+  }
+}
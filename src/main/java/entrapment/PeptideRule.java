@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Arrays;
+
+/**
+ * Which peptides of a digested sequence are written to the peptide fasta file and counted: up to maxMissedCleavages missed cleavages and
+ * minLength to maxLength residues. Immutable.
+ */
+class PeptideRule {
+
+  // default peptide length range used by https://github.com/Noble-Lab/FDRBench
+  static final PeptideRule defaultRule = new PeptideRule(7, 35, 1);
+
+  final int minLength;
+  final int maxLength;
+  final int maxMissedCleavages;
+
+  PeptideRule(int minLength, int maxLength, int maxMissedCleavages) {
+    this.minLength = minLength;
+    this.maxLength = maxLength;
+    this.maxMissedCleavages = maxMissedCleavages;
+  }
+
+  // The start and end of each peptide, ordered by start and then by the number of missed cleavages.
+  int[] peptides(CharSequence sequence, Digester digester) {
+    // The peptide boundaries: 0, the position after each cleavage site, and the end of the sequence.
+    int length = sequence.length();
+    int[] sites = digester.cleavageSites(sequence);
+    int[] boundaries = new int[sites.length + 2];
+    int boundaryCount = 0;
+    boundaries[boundaryCount++] = 0;
+    for (int site : sites) {
+      if (site + 1 < length) {
+        boundaries[boundaryCount++] = site + 1;
+      }
+    }
+    if (length > 0) {
+      boundaries[boundaryCount++] = length;
+    }
+
+    int[] peptides = new int[16];
+    int count = 0;
+    for (int i = 0; i < boundaryCount - 1; ++i) {
+      for (int j = i + 1; j <= i + 1 + maxMissedCleavages && j < boundaryCount; ++j) {
+        int peptideLength = boundaries[j] - boundaries[i];
+        if (peptideLength > maxLength) {
+          break;
+        }
+        if (peptideLength >= minLength) {
+          if (count + 2 > peptides.length) {
+            peptides = Arrays.copyOf(peptides, peptides.length * 2);
+          }
+          peptides[count++] = boundaries[i];
+          peptides[count++] = boundaries[j];
+        }
+      }
+    }
+    return Arrays.copyOf(peptides, count);
+  }
+
+  int peptideCount(CharSequence sequence, Digester digester) {
+    return peptides(sequence, digester).length / 2;
+  }
+}
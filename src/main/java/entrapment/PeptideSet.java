@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A set of peptide fingerprints (PeptideIndex.fingerprint) used to write each peptide only once. The open-addressing table lives in a direct
+ * buffer outside of the heap, so a large proteome does not add hundreds of MB of long arrays for the garbage collector to copy. It doubles when
+ * it is half full. Not thread-safe.
+ */
+class PeptideSet {
+
+  private static final long maxTableSize = 1L << 27; // 1 GB, a ByteBuffer holds less than 2 GB
+
+  private ByteBuffer table;
+  private int tableSize;
+  private long size = 0;
+
+  PeptideSet(int tableSize) {
+    this.tableSize = Integer.highestOneBit(Math.max(tableSize, 1 << 10) - 1) << 1;
+    table = allocate(this.tableSize);
+  }
+
+  long size() {
+    return size;
+  }
+
+  // Returns false if the fingerprint is already in the set.
+  boolean add(long fingerprint) {
+    if (fingerprint == 0) {
+      fingerprint = 1; // 0 marks an empty slot
+    }
+    if (!insert(table, tableSize, fingerprint)) {
+      return false;
+    }
+    if (++size * 2 > tableSize) {
+      grow();
+    }
+    return true;
+  }
+
+  private void grow() {
+    if (tableSize * 2L > maxTableSize) {
+      throw new IllegalStateException("The peptide set is full after " + size + " peptides.");
+    }
+    int newTableSize = tableSize * 2;
+    ByteBuffer newTable = allocate(newTableSize);
+    for (int slot = 0; slot < tableSize; ++slot) {
+      long fingerprint = table.getLong(slot << 3);
+      if (fingerprint != 0) {
+        insert(newTable, newTableSize, fingerprint);
+      }
+    }
+    table = newTable;
+    tableSize = newTableSize;
+  }
+
+  private static boolean insert(ByteBuffer table, int tableSize, long fingerprint) {
+    int mask = tableSize - 1;
+    int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    long current;
+    while ((current = table.getLong(slot << 3)) != 0) {
+      if (current == fingerprint) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    table.putLong(slot << 3, fingerprint);
+    return true;
+  }
+
+  private static ByteBuffer allocate(int tableSize) {
+    return ByteBuffer.allocateDirect(tableSize << 3).order(ByteOrder.nativeOrder()); // zeroed
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A target+entrapment fasta file written by an earlier GenerateDatabase run, whose entrapment proteins are reused for the proteins that did
+ * not change. The shuffles of a protein only depend on its sequence and the digestion parameters, so a reused entrapment protein is the same
+ * as a new shuffle. The target proteins are found by accession through FastaIndex, and the sequences are compared, so only the new and changed
+ * proteins are shuffled. The peptide counts of the reused proteins are taken from the previous peptides.tsv if the peptide rule is the same.
+ * Not thread-safe.
+ */
+class PreviousDatabase implements AutoCloseable {
+
+  // The manifest properties that the shuffles depend on.
+  private static final String[] shuffleKeys = {"cut_sites", "protect_sites", "cleavage_from_c_term", "entrapment_proteins_per_target", "entrapment_style"};
+
+  private final FastaIndex index;
+  private final FastaReader reader;
+  private final int N;
+  private final byte[] entrapmentMarker;
+  private final int[] peptideCounts; // by record, null if they cannot be reused
+  private final long[] peptideCountIds; // fingerprints of the protein IDs of the rows
+  private long reusedCount = 0;
+
+  private PreviousDatabase(Path fastaPath, int N, int entrapmentStyle, Path peptideCountPath) throws Exception {
+    index = FastaIndex.load(fastaPath);
+    reader = new FastaReader(fastaPath);
+    this.N = N;
+    entrapmentMarker = FastaSummary.entrapmentMarkers[entrapmentStyle].getBytes(StandardCharsets.US_ASCII);
+    int[] peptideCounts = null;
+    long[] peptideCountIds = null;
+    if (peptideCountPath != null) {
+      peptideCounts = new int[index.recordCount];
+      peptideCountIds = new long[index.recordCount];
+      if (!readPeptideCounts(peptideCountPath, peptideCounts, peptideCountIds)) {
+        peptideCounts = null;
+      }
+    }
+    this.peptideCounts = peptideCounts;
+    this.peptideCountIds = peptideCountIds;
+  }
+
+  // Prints a message and exits if the file cannot be reused with the manifest of the new database.
+  static PreviousDatabase open(Path fastaPath, Path manifestPath, Map<String, String> manifest, PeptideRule rule, int N, int entrapmentStyle) throws Exception {
+    if (!Files.isRegularFile(fastaPath) || CompressedInput.compression(fastaPath) != 0) {
+      System.out.println("The previous database " + fastaPath + " needs to be an uncompressed fasta file.");
+      System.exit(1);
+    }
+    Properties previousManifest = new Properties();
+    if (Files.isRegularFile(manifestPath)) {
+      try (InputStream inputStream = Files.newInputStream(manifestPath)) {
+        previousManifest.load(inputStream);
+      }
+    }
+    if ("true".equals(previousManifest.getProperty("unique"))) {
+      System.out.println("The previous database " + fastaPath + " was generated with --unique=1, whose shuffles depend on all previous proteins.");
+      System.exit(1);
+    }
+    for (String key : shuffleKeys) {
+      if (!manifest.get(key).equals(previousManifest.getProperty(key))) {
+        System.out.println("The previous database " + fastaPath + " was generated with " + key + "=" + previousManifest.getProperty(key) + " instead of " + manifest.get(key) + " (from " + manifestPath + ").");
+        System.exit(1);
+      }
+    }
+    // Databases from before the peptide rule options used the default rule.
+    boolean sameRule = Integer.parseInt(previousManifest.getProperty("min_peptide_length", String.valueOf(PeptideRule.defaultRule.minLength))) == rule.minLength
+        && Integer.parseInt(previousManifest.getProperty("max_peptide_length", String.valueOf(PeptideRule.defaultRule.maxLength))) == rule.maxLength
+        && Integer.parseInt(previousManifest.getProperty("max_missed_cleavages", String.valueOf(PeptideRule.defaultRule.maxMissedCleavages))) == rule.maxMissedCleavages;
+    String peptideCountFile = previousManifest.getProperty("peptide_counts");
+    Path peptideCountPath = sameRule && peptideCountFile != null ? fastaPath.resolveSibling(peptideCountFile) : null;
+    return new PreviousDatabase(fastaPath, N, entrapmentStyle, peptideCountPath != null && Files.isRegularFile(peptideCountPath) ? peptideCountPath : null);
+  }
+
+  long reusedCount() {
+    return reusedCount;
+  }
+
+  // The N entrapment proteins of the target protein with the same accession and sequence (with I replaced by L), or null.
+  Entrapments entrapments(String header, String sequence) throws Exception {
+    String accession = FastaIndex.accession(header);
+    long offset = index.offset(accession);
+    if (offset < 0) {
+      return null;
+    }
+    reader.seek(offset);
+    if (!reader.next() || !sameSequence(reader.sequence(), sequence)) {
+      return null;
+    }
+    int ordinal = index.ordinal(accession);
+    boolean samePeptideCounts = peptideCounts != null && sameId(ordinal);
+    String[] entrapments = new String[N];
+    for (int i = 0; i < N; ++i) {
+      if (!reader.next() || !reader.headerContains(entrapmentMarker)) {
+        return null;
+      }
+      entrapments[i] = reader.sequence();
+      if (entrapments[i].length() != sequence.length()) {
+        return null;
+      }
+      samePeptideCounts = samePeptideCounts && sameId(ordinal + 1 + i);
+    }
+    ++reusedCount;
+    return new Entrapments(entrapments, samePeptideCounts ? Arrays.copyOfRange(peptideCounts, ordinal, ordinal + N + 1) : null);
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  // Whether the row of the record in peptides.tsv is the current record, in case peptides.tsv has been replaced since.
+  private boolean sameId(int ordinal) throws Exception {
+    String header = reader.header();
+    int end = 0;
+    while (end < header.length() && !Character.isWhitespace(header.charAt(end))) {
+      ++end;
+    }
+    return ordinal < peptideCountIds.length && peptideCountIds[ordinal] == PeptideIndex.fingerprint(header, 0, end);
+  }
+
+  // Returns false if the number of rows is not the number of records of the fasta file.
+  private static boolean readPeptideCounts(Path path, int[] peptideCounts, long[] peptideCountIds) throws Exception {
+    int count = 0;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(CompressedInput.open(path, 1)), StandardCharsets.UTF_8))) {
+      String line = reader.readLine(); // header
+      while ((line = reader.readLine()) != null) {
+        if (count == peptideCounts.length) {
+          return false;
+        }
+        int tab = line.lastIndexOf('\t');
+        peptideCountIds[count] = PeptideIndex.fingerprint(line, 0, tab);
+        peptideCounts[count++] = Integer.parseInt(line.substring(tab + 1));
+      }
+    }
+    return count == peptideCounts.length;
+  }
+
+  private static boolean sameSequence(String previous, String sequence) {
+    if (previous.length() != sequence.length()) {
+      return false;
+    }
+    for (int i = 0; i < sequence.length(); ++i) {
+      char c = sequence.charAt(i);
+      if (previous.charAt(i) != (c == 'I' ? 'L' : c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  static class Entrapments {
+
+    final String[] sequences;
+    final int[] peptideCounts; // of the target protein and then of the entrapment proteins, null if they need to be counted
+
+    Entrapments(String[] sequences, int[] peptideCounts) {
+      this.sequences = sequences;
+      this.peptideCounts = peptideCounts;
+    }
+  }
+}
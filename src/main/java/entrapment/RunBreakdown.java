@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The target and entrapment counts of each run of a DIA-NN report, from the same pass as the totals. The runs are in the order of their first row.
+ */
+class RunBreakdown {
+
+  final String[] runs;
+  final ThresholdGrid precursorGrid;
+  final ThresholdGrid pgGrid;
+  // At run index * combination count + combination.
+  final long[] targetPrecursorCounts;
+  final long[] decoyPrecursorCounts;
+  final long[] entrapmentPrecursorCounts;
+  final long[] decoyEntrapmentPrecursorCounts;
+  final long[] targetProteinCounts;
+  final long[] entrapmentProteinCounts;
+
+  RunBreakdown(DiannReport.Counts counts) {
+    runs = new String[counts.runs.size()];
+    for (int i = 0; i < runs.length; ++i) {
+      runs[i] = counts.runs.get(i);
+    }
+    precursorGrid = counts.precursorGrid;
+    pgGrid = counts.pgGrid;
+    targetPrecursorCounts = counts.targetPrecursorCountsByRun();
+    decoyPrecursorCounts = counts.decoyPrecursorCountsByRun();
+    entrapmentPrecursorCounts = counts.entrapmentPrecursorCountsByRun();
+    decoyEntrapmentPrecursorCounts = counts.decoyEntrapmentPrecursorCountsByRun();
+    targetProteinCounts = counts.targetProteinCountsByRun();
+    entrapmentProteinCounts = counts.entrapmentProteinCountsByRun();
+  }
+
+  // One row per run, level and threshold combination. The FDPs are fractions, not percentages.
+  void write(Path path, double r) throws Exception {
+    BufferedWriter writer = Files.newBufferedWriter(path);
+    writer.write("run,level,run_q_value_threshold,global_q_value_threshold,target_count,decoy_count,entrapment_count,entrapment_decoy_count,combined_fdp,lower_bound_fdp,sample_fdp\n");
+    for (int run = 0; run < runs.length; ++run) {
+      for (int i = 0; i < precursorGrid.cellCount(); ++i) {
+        int k = run * precursorGrid.cellCount() + i;
+        writer.write(csvField(runs[run]) + ",precursor," + precursorGrid.runThreshold(i) + "," + precursorGrid.globalThreshold(i) + "," + targetPrecursorCounts[k] + "," + decoyPrecursorCounts[k] + "," + entrapmentPrecursorCounts[k] + "," + decoyEntrapmentPrecursorCounts[k] + "," + CalculateFDP.fdps(targetPrecursorCounts[k], entrapmentPrecursorCounts[k], r, 1) + "\n");
+      }
+      for (int i = 0; i < pgGrid.cellCount(); ++i) {
+        int k = run * pgGrid.cellCount() + i;
+        writer.write(csvField(runs[run]) + ",protein," + pgGrid.runThreshold(i) + "," + pgGrid.globalThreshold(i) + "," + targetProteinCounts[k] + ",," + entrapmentProteinCounts[k] + ",," + CalculateFDP.fdps(targetProteinCounts[k], entrapmentProteinCounts[k], r, 1) + "\n");
+      }
+    }
+    writer.close();
+  }
+
+  // The spread of the combined FDP over the runs, for each level and threshold combination.
+  void printDistribution(double r) {
+    System.out.println("Per-run ET * (1 + 1/r) / (NT + ET) of " + runs.length + " runs (min, 25%, median, 75%, max):");
+    for (int i = 0; i < precursorGrid.cellCount(); ++i) {
+      System.out.println("Precursor level with " + precursorGrid.runThreshold(i) + " run q-value and " + precursorGrid.globalThreshold(i) + " global q-value: " + quantiles(targetPrecursorCounts, entrapmentPrecursorCounts, i, precursorGrid.cellCount(), r));
+    }
+    for (int i = 0; i < pgGrid.cellCount(); ++i) {
+      System.out.println("Protein level with " + pgGrid.runThreshold(i) + " run q-value and " + pgGrid.globalThreshold(i) + " global q-value: " + quantiles(targetProteinCounts, entrapmentProteinCounts, i, pgGrid.cellCount(), r));
+    }
+  }
+
+  private String quantiles(long[] targetCounts, long[] entrapmentCounts, int combination, int combinationCount, double r) {
+    double[] fdps = new double[runs.length];
+    int n = 0;
+    for (int run = 0; run < runs.length; ++run) {
+      long t = targetCounts[run * combinationCount + combination];
+      long e = entrapmentCounts[run * combinationCount + combination];
+      if (t + e > 0) {
+        fdps[n++] = e * (1 + 1 / r) * 100.0 / (t + e);
+      }
+    }
+    if (n == 0) {
+      return "no runs with results";
+    }
+    Arrays.sort(fdps, 0, n);
+    return fdps[0] + "%, " + fdps[(n - 1) / 4] + "%, " + fdps[(n - 1) / 2] + "%, " + fdps[(n - 1) * 3 / 4] + "%, " + fdps[n - 1] + "%";
+  }
+
+  static String csvField(String s) {
+    return s.indexOf(',') < 0 && s.indexOf('"') < 0 ? s : "\"" + s.replace("\"", "\"\"") + "\"";
+  }
+}
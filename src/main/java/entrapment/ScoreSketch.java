@@ -0,0 +1,201 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size summary of the (CScore, label) observations, used by DiannEntrapmentQValue --bins instead of the SparseScoreHistogram. The
+ * observations are counted in cells that are logarithmically spaced in 1 - CScore, which are finest at the high CScores where the q-values are
+ * small, and compact() merges neighbouring cells into at most maxBins bins. The memory does not depend on the number of rows.
+ * <p>
+ * The counts are exact and the threshold of a bin is the lowest CScore in it, so the FDP of a bin is the exact FDP at its threshold. The
+ * q-value of a bin is the minimum FDP over fewer thresholds than with exact CScores, so it is never lower than the exact q-values of the
+ * precursors in the bin and at most errorBounds() higher. The cells are merged so that each bin holds at most a share alpha of the target and entrapment precursors at or above
+ * its threshold, with the smallest alpha that gives at most maxBins bins, which keeps the bounds small.
+ * <p>
+ * The reported q-values of a bin are the minimum of its rows, because the folding of SparseScoreHistogram depends on the reading order.
+ */
+class ScoreSketch {
+
+  static final int cellCount = 1 << 16;
+  private static final double minDistance = 0x1p-40; // 1 - CScore, the first cell holds the CScores above 1 - minDistance
+  private static final double logGamma = Math.log(1 / minDistance) / (cellCount - 2);
+
+  private final int maxBins;
+  // by cell, from the highest CScores to the lowest
+  private final long[] targetCounts = new long[cellCount];
+  private final long[] decoyCounts = new long[cellCount];
+  private final long[] entrapmentTargetCounts = new long[cellCount];
+  private final long[] entrapmentDecoyCounts = new long[cellCount];
+  private final double[] minScores = new double[cellCount];
+  private final double[] reportedRunQValues = new double[cellCount];
+  private final double[] reportedGlobalQValues = new double[cellCount];
+
+  ScoreSketch(int maxBins) {
+    this.maxBins = maxBins;
+    Arrays.fill(minScores, Double.POSITIVE_INFINITY);
+    Arrays.fill(reportedRunQValues, Double.NaN);
+    Arrays.fill(reportedGlobalQValues, Double.NaN);
+  }
+
+  void add(double cscore, double decoyCscore, boolean isEntrapment, double runQValue, double globalQValue) {
+    int cell = cell(cscore);
+    if (isEntrapment) {
+      ++entrapmentTargetCounts[cell];
+    } else {
+      ++targetCounts[cell];
+    }
+    if (cscore < minScores[cell]) {
+      minScores[cell] = cscore;
+    }
+    reportedRunQValues[cell] = min(reportedRunQValues[cell], runQValue);
+    reportedGlobalQValues[cell] = min(reportedGlobalQValues[cell], globalQValue);
+
+    if (decoyCscore > 0) {
+      int decoyCell = cell(decoyCscore);
+      if (isEntrapment) {
+        ++entrapmentDecoyCounts[decoyCell];
+      } else {
+        ++decoyCounts[decoyCell];
+      }
+      if (decoyCscore < minScores[decoyCell]) {
+        minScores[decoyCell] = decoyCscore;
+      }
+    }
+  }
+
+  void merge(ScoreSketch other) {
+    for (int i = 0; i < cellCount; ++i) {
+      targetCounts[i] += other.targetCounts[i];
+      decoyCounts[i] += other.decoyCounts[i];
+      entrapmentTargetCounts[i] += other.entrapmentTargetCounts[i];
+      entrapmentDecoyCounts[i] += other.entrapmentDecoyCounts[i];
+      minScores[i] = Math.min(minScores[i], other.minScores[i]);
+      reportedRunQValues[i] = min(reportedRunQValues[i], other.reportedRunQValues[i]);
+      reportedGlobalQValues[i] = min(reportedGlobalQValues[i], other.reportedGlobalQValues[i]);
+    }
+  }
+
+  // Cell i > 0 holds the distances 1 - CScore in (minDistance * gamma^(i - 1), minDistance * gamma^i]. The last cell holds the negative CScores.
+  static int cell(double score) {
+    double distance = 1 - score;
+    if (distance <= minDistance) {
+      return 0;
+    }
+    if (!(distance <= 1)) {
+      return cellCount - 1;
+    }
+    return Math.max(1, Math.min(cellCount - 2, (int) Math.ceil(Math.log(distance / minDistance) / logGamma)));
+  }
+
+  // The bins in ascending order of the CScores, like SparseScoreHistogram.compact().
+  SparseScoreHistogram.Bins compact() {
+    int[] cells = new int[cellCount];
+    int cellsUsed = 0;
+    for (int i = 0; i < cellCount; ++i) {
+      if (targetCounts[i] + decoyCounts[i] + entrapmentTargetCounts[i] + entrapmentDecoyCounts[i] > 0) {
+        cells[cellsUsed++] = i;
+      }
+    }
+    int[] binStarts = new int[cellsUsed + 1];
+    int binCount = mergeCells(cells, cellsUsed, 0, binStarts);
+    if (binCount > maxBins) {
+      double low = 0;
+      double high = 1; // one bin
+      for (int i = 0; i < 50; ++i) {
+        double alpha = (low + high) / 2;
+        if (mergeCells(cells, cellsUsed, alpha, binStarts) <= maxBins) {
+          high = alpha;
+        } else {
+          low = alpha;
+        }
+      }
+      binCount = mergeCells(cells, cellsUsed, high, binStarts);
+    }
+
+    double[] thresholds = new double[binCount];
+    long[] binTargetCounts = new long[binCount];
+    long[] binDecoyCounts = new long[binCount];
+    long[] binEntrapmentTargetCounts = new long[binCount];
+    long[] binEntrapmentDecoyCounts = new long[binCount];
+    double[] binReportedRunQValues = new double[binCount];
+    double[] binReportedGlobalQValues = new double[binCount];
+    for (int bin = 0; bin < binCount; ++bin) {
+      int k = binCount - 1 - bin;
+      thresholds[k] = Double.POSITIVE_INFINITY;
+      binReportedRunQValues[k] = Double.NaN;
+      binReportedGlobalQValues[k] = Double.NaN;
+      for (int i = binStarts[bin]; i < binStarts[bin + 1]; ++i) {
+        int cell = cells[i];
+        thresholds[k] = Math.min(thresholds[k], minScores[cell]);
+        binTargetCounts[k] += targetCounts[cell];
+        binDecoyCounts[k] += decoyCounts[cell];
+        binEntrapmentTargetCounts[k] += entrapmentTargetCounts[cell];
+        binEntrapmentDecoyCounts[k] += entrapmentDecoyCounts[cell];
+        binReportedRunQValues[k] = min(binReportedRunQValues[k], reportedRunQValues[cell]);
+        binReportedGlobalQValues[k] = min(binReportedGlobalQValues[k], reportedGlobalQValues[cell]);
+      }
+    }
+    return new SparseScoreHistogram.Bins(thresholds, binTargetCounts, binDecoyCounts, binEntrapmentTargetCounts, binEntrapmentDecoyCounts, binReportedRunQValues, binReportedGlobalQValues);
+  }
+
+  // Fills the first used cell of each bin and returns the number of bins. A cell joins the bin before it as long as the bin holds at most alpha
+  // of the target and entrapment precursors at or above its threshold.
+  private int mergeCells(int[] cells, int cellsUsed, double alpha, int[] binStarts) {
+    int binCount = 0;
+    long above = 0;
+    long inBin = 0;
+    for (int i = 0; i < cellsUsed; ++i) {
+      long count = targetCounts[cells[i]] + entrapmentTargetCounts[cells[i]];
+      if (binCount > 0 && inBin + count <= alpha * (above + inBin + count)) {
+        inBin += count;
+      } else {
+        above += inBin;
+        inBin = count;
+        binStarts[binCount++] = i;
+      }
+    }
+    binStarts[binCount] = cellsUsed;
+    return binCount;
+  }
+
+  // How much higher the entrapment q-value (ET / (NT + ET)) of each bin can be than the exact q-value of the precursors in it. Moving the
+  // threshold within bin j changes the FDP by at most n_j / N_j, the share of bin j in the N_j precursors at or above its threshold, so the exact
+  // q-value, the minimum FDP at or below a CScore, is at least the minimum of FDP_j - n_j / N_j over the bins at or below it.
+  static double[] errorBounds(long[] targetCounts, long[] entrapmentTargetCounts, double[] qValues) {
+    double[] lowerFdps = new double[qValues.length];
+    long targetCount = 0;
+    long entrapmentCount = 0;
+    for (int i = qValues.length - 1; i >= 0; --i) {
+      long binCount = targetCounts[i] + entrapmentTargetCounts[i];
+      targetCount += binCount;
+      entrapmentCount += entrapmentTargetCounts[i];
+      lowerFdps[i] = targetCount == 0 ? 0 : Math.min((double) entrapmentCount / targetCount, 1) - (double) binCount / targetCount;
+    }
+    double[] bounds = new double[qValues.length];
+    double lowerQValue = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < qValues.length; ++i) {
+      lowerQValue = Math.min(lowerQValue, lowerFdps[i]);
+      bounds[i] = qValues[i] - Math.max(lowerQValue, 0);
+    }
+    return bounds;
+  }
+
+  // The minimum, ignoring the NaNs of the empty cells.
+  private static double min(double a, double b) {
+    return Double.isNaN(a) ? b : Double.isNaN(b) ? a : Math.min(a, b);
+  }
+}
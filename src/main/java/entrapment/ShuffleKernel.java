@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Arrays;
+
+/**
+ * The shuffling of GenerateDatabase.shuffleSeqFY without per-segment objects. The N shuffled proteins are built in place in one reusable char
+ * matrix: every row starts as a copy of the protein, so the M, the cleavage sites and the short segments are already at their positions, and
+ * each segment is shuffled inside its row, starting from the previous row like the shared shuffle array of the original code. The
+ * java.util.Random of each (segment, shuffled protein) is inlined as its 48-bit LCG, and duplicate shuffles are found by hashes of the char
+ * ranges with an exact comparison on a hash match, so the shuffled proteins are exactly the same as before. One instance per thread.
+ */
+class ShuffleKernel {
+
+  private static final long multiplier = 0x5DEECE66DL;
+  private static final long addend = 0xBL;
+  private static final long mask = (1L << 48) - 1;
+
+  private char[] rows = new char[0]; // N rows of the protein length
+  private long[] hashes = new long[0]; // of the current segment in each row
+  private final Span peptide = new Span();
+
+  String[] shuffle(String sequence, Digester digester, int N, int uniqueAttempts, PeptideIndex.Session session) {
+    int length = sequence.length();
+    if (rows.length < N * length) {
+      rows = new char[Math.max(N * length, rows.length * 2)];
+    }
+    if (hashes.length < N) {
+      hashes = new long[Math.max(N, hashes.length * 2)];
+    }
+    char[] rows = this.rows;
+    for (int l = 0; l < N; ++l) {
+      sequence.getChars(0, length, rows, l * length);
+    }
+
+    boolean startsWithM = sequence.startsWith("M");
+    int offset = startsWithM ? 1 : 0; // of the sequence to be shuffled
+    int shuffledLength = length - offset;
+    int[] cutSiteArray = digester.cleavageSites(offset == 0 ? sequence : sequence.substring(1));
+    peptide.array = rows;
+
+    int time = 0;
+    for (int k = 0; k <= cutSiteArray.length; ++k) {
+      int startIdx = k == 0 ? 0 : cutSiteArray[k - 1] + 1;
+      int endIdx = k == cutSiteArray.length ? shuffledLength : cutSiteArray[k];
+      int segmentLength = endIdx - startIdx;
+      if (segmentLength <= 2) {
+        continue;
+      }
+      int segmentStart = offset + startIdx;
+      boolean powerOfTwo = (segmentLength & (segmentLength - 1)) == 0;
+      long targetHash = hash(sequence, segmentStart, segmentLength);
+      for (int l = 0; l < N; ++l) {
+        int rowSegmentStart = l * length + segmentStart;
+        if (l > 0) {
+          System.arraycopy(rows, rowSegmentStart - length, rows, rowSegmentStart, segmentLength);
+        }
+        long seed = (l ^ multiplier) & mask; // new Random(l)
+        boolean shuffleAgain;
+        int attempts = 0;
+        do {
+          for (int i = 0; i < segmentLength; ++i) {
+            int j;
+            do {
+              // Random.nextInt(segmentLength)
+              seed = (seed * multiplier + addend) & mask;
+              j = (int) (seed >>> 17);
+              if (powerOfTwo) {
+                j = (int) ((segmentLength * (long) j) >> 31);
+              } else {
+                for (int u = j; u - (j = u % segmentLength) + (segmentLength - 1) < 0; u = (int) (seed >>> 17)) {
+                  seed = (seed * multiplier + addend) & mask;
+                }
+              }
+            } while (j == i);
+            char temp = rows[rowSegmentStart + i];
+            rows[rowSegmentStart + i] = rows[rowSegmentStart + j];
+            rows[rowSegmentStart + j] = temp;
+          }
+          ++time;
+          long hash = hash(rows, rowSegmentStart, segmentLength);
+          hashes[l] = hash;
+          boolean duplicate = hash == targetHash && equals(rows, rowSegmentStart, sequence, segmentStart, segmentLength);
+          for (int m = 0; m < l && !duplicate; ++m) {
+            duplicate = hashes[m] == hash && equals(rows, rowSegmentStart, m * length + segmentStart, segmentLength);
+          }
+          if (session == null) {
+            shuffleAgain = time < 10 && duplicate;
+          } else {
+            ++attempts;
+            // with the M of the first segment and the cleavage site after the segment
+            peptide.start = k == 0 ? l * length : rowSegmentStart;
+            peptide.end = rowSegmentStart + segmentLength + (endIdx == shuffledLength ? 0 : 1);
+            shuffleAgain = attempts < uniqueAttempts && (duplicate || !session.isUnique(peptide));
+          }
+        } while (shuffleAgain);
+        if (session != null) {
+          session.add(peptide);
+        }
+      }
+    }
+
+    String[] output = new String[N];
+    for (int l = 0; l < N; ++l) {
+      output[l] = new String(rows, l * length, length);
+    }
+    return output;
+  }
+
+  private static long hash(String s, int start, int length) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = start; i < start + length; ++i) {
+      hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static long hash(char[] a, int start, int length) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = start; i < start + length; ++i) {
+      hash = (hash ^ a[i]) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static boolean equals(char[] a, int start1, String s, int start2, int length) {
+    for (int i = 0; i < length; ++i) {
+      if (a[start1 + i] != s.charAt(start2 + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean equals(char[] a, int start1, int start2, int length) {
+    return Arrays.equals(a, start1, start1 + length, a, start2, start2 + length);
+  }
+
+
+  // A view of a char range, so that the peptides can be checked without creating strings.
+  private static class Span implements CharSequence {
+
+    char[] array;
+    int start;
+    int end;
+
+    @Override
+    public int length() {
+      return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return array[start + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new String(array, this.start + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return new String(array, start, end - start);
+    }
+  }
+}
@@ -0,0 +1,508 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects (CScore, label) observations in primitive arrays and compacts them into per-bin counts over the observed bins only.
+ * The bins are the same as the dense arrays used before ((int) (score / binSize)), so the compacted counts are the non-empty bins of those arrays.
+ * With a bin size of 0, every distinct score is a bin of its own and the bins are the exact scores.
+ * <p>
+ * With a spill directory, the observations held in memory are sorted and written to a run file whenever there are maxBufferedRows of them, and
+ * compact() merges the runs. Only the bins are then held in memory, whose number is limited by the score range and the bin size (or by the
+ * distinct scores in exact mode) rather than by the number of rows.
+ */
+class SparseScoreHistogram {
+
+  private final double binSize;
+  private final boolean exact;
+  private final Path spillDirectory; // null if nothing is spilled
+  private final int maxBufferedRows;
+  // in reading order, each sorted by key and then in reading order
+  private final List<Path> scoreRuns = new ArrayList<>();
+  private final List<Path> decoyRuns = new ArrayList<>();
+
+  // (bin << 32) | row, so that sorting keeps the rows of the same bin in reading order. In exact mode, the rank of the score among the
+  // distinct keys takes the place of the bin once the rows are sorted.
+  private long[] scoreKeys = new long[1 << 12];
+  private boolean[] entrapments = new boolean[1 << 12];
+  private double[] runQValues = new double[1 << 12];
+  private double[] globalQValues = new double[1 << 12];
+  private int scoreCount = 0;
+
+  // (bin << 1) | isEntrapment, or (rank << 1) | isEntrapment in exact mode
+  private long[] decoyKeys = new long[1 << 12];
+  private int decoyCount = 0;
+
+  // Exact mode only: the keys of the scores and the decoy scores (see scoreKey()), and the sorted distinct keys that the ranks refer to.
+  private long[] scoreBits;
+  private long[] decoyBits;
+  private long[] distinctKeys = null;
+
+  SparseScoreHistogram(double binSize) {
+    this(binSize, null, Integer.MAX_VALUE);
+  }
+
+  SparseScoreHistogram(double binSize, Path spillDirectory, int maxBufferedRows) {
+    this.binSize = binSize;
+    exact = binSize == 0;
+    if (exact) {
+      scoreBits = new long[scoreKeys.length];
+      decoyBits = new long[decoyKeys.length];
+    }
+    this.spillDirectory = spillDirectory;
+    this.maxBufferedRows = Math.max(maxBufferedRows, 1 << 12);
+  }
+
+  // The memory of a row held in memory: scoreKeys, entrapments, runQValues, globalQValues and decoyKeys, and in exact mode also scoreBits,
+  // decoyBits and their copy while sorting.
+  static int bytesPerRow(double binSize) {
+    return binSize == 0 ? 65 : 33;
+  }
+
+  void add(double cscore, double decoyCscore, boolean isEntrapment, double runQValue, double globalQValue) {
+    ensureScoreCapacity(scoreCount + 1);
+    if (exact) {
+      scoreBits[scoreCount] = scoreKey(cscore);
+      scoreKeys[scoreCount] = scoreCount;
+    } else {
+      scoreKeys[scoreCount] = ((long) bin(cscore) << 32) | scoreCount;
+    }
+    entrapments[scoreCount] = isEntrapment;
+    runQValues[scoreCount] = runQValue;
+    globalQValues[scoreCount] = globalQValue;
+    ++scoreCount;
+
+    if (decoyCscore > 0) {
+      ensureDecoyCapacity(decoyCount + 1);
+      if (exact) {
+        decoyBits[decoyCount] = scoreKey(decoyCscore);
+        decoyKeys[decoyCount++] = isEntrapment ? 1 : 0;
+      } else {
+        decoyKeys[decoyCount++] = ((long) bin(decoyCscore) << 1) | (isEntrapment ? 1 : 0);
+      }
+    }
+
+    if (spillDirectory != null && scoreCount >= maxBufferedRows) {
+      spill();
+    }
+  }
+
+  // Appends the observations of the other histogram as if they were added after the ones in this histogram.
+  void merge(SparseScoreHistogram other) {
+    if (spillDirectory != null && scoreCount > 0 && (!other.scoreRuns.isEmpty() || scoreCount + other.scoreCount > maxBufferedRows)) {
+      // The rows in memory come before the runs of the other histogram.
+      spill();
+    }
+    scoreRuns.addAll(other.scoreRuns);
+    decoyRuns.addAll(other.decoyRuns);
+
+    ensureScoreCapacity(scoreCount + other.scoreCount);
+    for (int i = 0; i < other.scoreCount; ++i) {
+      scoreKeys[scoreCount + i] = (other.scoreKeys[i] & 0xffffffff00000000L) | ((int) other.scoreKeys[i] + scoreCount);
+    }
+    System.arraycopy(other.entrapments, 0, entrapments, scoreCount, other.scoreCount);
+    System.arraycopy(other.runQValues, 0, runQValues, scoreCount, other.scoreCount);
+    System.arraycopy(other.globalQValues, 0, globalQValues, scoreCount, other.scoreCount);
+    if (exact) {
+      System.arraycopy(other.scoreBits, 0, scoreBits, scoreCount, other.scoreCount);
+    }
+    scoreCount += other.scoreCount;
+
+    ensureDecoyCapacity(decoyCount + other.decoyCount);
+    System.arraycopy(other.decoyKeys, 0, decoyKeys, decoyCount, other.decoyCount);
+    if (exact) {
+      System.arraycopy(other.decoyBits, 0, decoyBits, decoyCount, other.decoyCount);
+    }
+    decoyCount += other.decoyCount;
+  }
+
+  int bin(double score) {
+    return (int) (score / binSize);
+  }
+
+  double binSize() {
+    return binSize;
+  }
+
+  // A long with the same order as the scores.
+  static long scoreKey(double score) {
+    long bits = Double.doubleToLongBits(score);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+
+  static double score(long key) {
+    return Double.longBitsToDouble(key ^ ((key >> 63) & Long.MAX_VALUE));
+  }
+
+  // The CScore threshold of a bin.
+  private double threshold(long key) {
+    return exact ? score(key) : (int) key * binSize;
+  }
+
+  // Deletes the run files.
+  Bins compact() {
+    Cursor scores;
+    Cursor decoys;
+    if (scoreRuns.isEmpty()) {
+      sort();
+      scores = new ScoreArrayCursor();
+      decoys = new DecoyArrayCursor();
+    } else {
+      spill();
+      scores = new MergeCursor(scoreRuns, true);
+      decoys = new MergeCursor(decoyRuns, false);
+    }
+
+    try {
+      int capacity = 1 << 10;
+      double[] thresholds = new double[capacity];
+      long[] targetCounts = new long[capacity];
+      long[] decoyCounts = new long[capacity];
+      long[] entrapmentTargetCounts = new long[capacity];
+      long[] entrapmentDecoyCounts = new long[capacity];
+      double[] reportedRunQValues = new double[capacity];
+      double[] reportedGlobalQValues = new double[capacity];
+
+      int k = 0;
+      boolean hasScore = scores.next();
+      boolean hasDecoy = decoys.next();
+      while (hasScore || hasDecoy) {
+        if (k == capacity) {
+          capacity *= 2;
+          thresholds = Arrays.copyOf(thresholds, capacity);
+          targetCounts = Arrays.copyOf(targetCounts, capacity);
+          decoyCounts = Arrays.copyOf(decoyCounts, capacity);
+          entrapmentTargetCounts = Arrays.copyOf(entrapmentTargetCounts, capacity);
+          entrapmentDecoyCounts = Arrays.copyOf(entrapmentDecoyCounts, capacity);
+          reportedRunQValues = Arrays.copyOf(reportedRunQValues, capacity);
+          reportedGlobalQValues = Arrays.copyOf(reportedGlobalQValues, capacity);
+        }
+        long key = !hasScore ? decoys.key : !hasDecoy ? scores.key : Math.min(scores.key, decoys.key);
+        thresholds[k] = threshold(key);
+        double reportedRunQValue = Double.NaN;
+        double reportedGlobalQValue = Double.NaN;
+        while (hasScore && scores.key == key) {
+          if (scores.entrapment) {
+            ++entrapmentTargetCounts[k];
+          } else {
+            ++targetCounts[k];
+          }
+          // Same folding as the dense arrays: keep the first value unless a later one differs by more than 1e-6, then keep the minimum.
+          if (Double.isNaN(reportedRunQValue)) {
+            reportedRunQValue = scores.runQValue;
+          } else if (Math.abs(reportedRunQValue - scores.runQValue) > 1e-6) {
+            reportedRunQValue = Math.min(reportedRunQValue, scores.runQValue);
+          }
+          if (Double.isNaN(reportedGlobalQValue)) {
+            reportedGlobalQValue = scores.globalQValue;
+          } else if (Math.abs(reportedGlobalQValue - scores.globalQValue) > 1e-6) {
+            reportedGlobalQValue = Math.min(reportedGlobalQValue, scores.globalQValue);
+          }
+          hasScore = scores.next();
+        }
+        while (hasDecoy && decoys.key == key) {
+          if (decoys.entrapment) {
+            ++entrapmentDecoyCounts[k];
+          } else {
+            ++decoyCounts[k];
+          }
+          hasDecoy = decoys.next();
+        }
+        reportedRunQValues[k] = reportedRunQValue;
+        reportedGlobalQValues[k] = reportedGlobalQValue;
+        ++k;
+      }
+
+      return new Bins(Arrays.copyOf(thresholds, k), Arrays.copyOf(targetCounts, k), Arrays.copyOf(decoyCounts, k), Arrays.copyOf(entrapmentTargetCounts, k), Arrays.copyOf(entrapmentDecoyCounts, k), Arrays.copyOf(reportedRunQValues, k), Arrays.copyOf(reportedGlobalQValues, k));
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    } finally {
+      scores.close();
+      decoys.close();
+      deleteRuns();
+    }
+  }
+
+  // Sorts the rows in memory by key and then in reading order. In exact mode, the keys are ranked among the distinct keys first, so that the
+  // rank and the row fit into one long.
+  private void sort() {
+    if (exact) {
+      long[] keys = Arrays.copyOf(scoreBits, scoreCount + decoyCount);
+      System.arraycopy(decoyBits, 0, keys, scoreCount, decoyCount);
+      Arrays.sort(keys);
+      int distinctCount = 0;
+      for (long key : keys) {
+        if (distinctCount == 0 || keys[distinctCount - 1] != key) {
+          keys[distinctCount++] = key;
+        }
+      }
+      distinctKeys = Arrays.copyOf(keys, distinctCount);
+      for (int i = 0; i < scoreCount; ++i) {
+        scoreKeys[i] = ((long) Arrays.binarySearch(distinctKeys, scoreBits[i]) << 32) | i;
+      }
+      for (int i = 0; i < decoyCount; ++i) {
+        decoyKeys[i] = ((long) Arrays.binarySearch(distinctKeys, decoyBits[i]) << 1) | (decoyKeys[i] & 1);
+      }
+    }
+    Arrays.sort(scoreKeys, 0, scoreCount);
+    Arrays.sort(decoyKeys, 0, decoyCount);
+  }
+
+  // The key of a bin or of a rank in exact mode.
+  private long key(long binOrRank) {
+    return exact ? distinctKeys[(int) binOrRank] : binOrRank;
+  }
+
+  // Writes the rows in memory to a score run and a decoy run, each sorted like compact() reads them.
+  private void spill() {
+    try {
+      sort();
+      Path scoreRun = Files.createTempFile(spillDirectory, "scores", ".run");
+      scoreRuns.add(scoreRun);
+      try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(scoreRun), 1 << 16))) {
+        for (int i = 0; i < scoreCount; ++i) {
+          int row = (int) scoreKeys[i];
+          outputStream.writeLong(key(scoreKeys[i] >> 32));
+          outputStream.writeBoolean(entrapments[row]);
+          outputStream.writeDouble(runQValues[row]);
+          outputStream.writeDouble(globalQValues[row]);
+        }
+      }
+      Path decoyRun = Files.createTempFile(spillDirectory, "decoys", ".run");
+      decoyRuns.add(decoyRun);
+      try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(decoyRun), 1 << 16))) {
+        for (int i = 0; i < decoyCount; ++i) {
+          outputStream.writeLong(key(decoyKeys[i] >> 1));
+          outputStream.writeBoolean((decoyKeys[i] & 1) == 1);
+        }
+      }
+    } catch (IOException ex) {
+      deleteRuns();
+      throw new UncheckedIOException(ex);
+    }
+    scoreCount = 0;
+    decoyCount = 0;
+    distinctKeys = null;
+  }
+
+  private void deleteRuns() {
+    for (Path run : scoreRuns) {
+      run.toFile().delete();
+    }
+    for (Path run : decoyRuns) {
+      run.toFile().delete();
+    }
+    scoreRuns.clear();
+    decoyRuns.clear();
+  }
+
+  private void ensureScoreCapacity(int capacity) {
+    if (capacity > scoreKeys.length) {
+      int newLength = Math.max(Math.min(scoreKeys.length * 2, maxBufferedRows), capacity);
+      scoreKeys = Arrays.copyOf(scoreKeys, newLength);
+      entrapments = Arrays.copyOf(entrapments, newLength);
+      runQValues = Arrays.copyOf(runQValues, newLength);
+      globalQValues = Arrays.copyOf(globalQValues, newLength);
+      if (exact) {
+        scoreBits = Arrays.copyOf(scoreBits, newLength);
+      }
+    }
+  }
+
+  private void ensureDecoyCapacity(int capacity) {
+    if (capacity > decoyKeys.length) {
+      int newLength = Math.max(Math.min(decoyKeys.length * 2, maxBufferedRows), capacity);
+      decoyKeys = Arrays.copyOf(decoyKeys, newLength);
+      if (exact) {
+        decoyBits = Arrays.copyOf(decoyBits, newLength);
+      }
+    }
+  }
+
+
+  // The observations in the order of compact(). next() fills the fields of the next observation.
+  private abstract static class Cursor {
+
+    long key; // the bin, or the key of the score in exact mode
+    boolean entrapment;
+    double runQValue;
+    double globalQValue;
+
+    abstract boolean next() throws IOException;
+
+    void close() {
+    }
+  }
+
+
+  private class ScoreArrayCursor extends Cursor {
+
+    private int i = 0;
+
+    @Override
+    boolean next() {
+      if (i == scoreCount) {
+        return false;
+      }
+      int row = (int) scoreKeys[i];
+      key = key(scoreKeys[i] >> 32);
+      entrapment = entrapments[row];
+      runQValue = runQValues[row];
+      globalQValue = globalQValues[row];
+      ++i;
+      return true;
+    }
+  }
+
+
+  private class DecoyArrayCursor extends Cursor {
+
+    private int i = 0;
+
+    @Override
+    boolean next() {
+      if (i == decoyCount) {
+        return false;
+      }
+      key = key(decoyKeys[i] >> 1);
+      entrapment = (decoyKeys[i] & 1) == 1;
+      ++i;
+      return true;
+    }
+  }
+
+
+  private static class RunCursor extends Cursor {
+
+    final int order;
+    private final boolean scores;
+    private final DataInputStream inputStream;
+
+    RunCursor(Path run, boolean scores, int order) throws IOException {
+      this.order = order;
+      this.scores = scores;
+      inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+    }
+
+    @Override
+    boolean next() throws IOException {
+      try {
+        if (scores) {
+          key = inputStream.readLong();
+          entrapment = inputStream.readBoolean();
+          runQValue = inputStream.readDouble();
+          globalQValue = inputStream.readDouble();
+        } else {
+          key = inputStream.readLong();
+          entrapment = inputStream.readBoolean();
+        }
+        return true;
+      } catch (EOFException ex) {
+        return false;
+      }
+    }
+
+    @Override
+    void close() {
+      try {
+        inputStream.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+
+  // Merges the runs by key. The rows of a key from an earlier run come first, so the rows of a bin stay in reading order.
+  private static class MergeCursor extends Cursor {
+
+    private final List<RunCursor> runs = new ArrayList<>();
+    private final PriorityQueue<RunCursor> queue = new PriorityQueue<>((a, b) -> a.key != b.key ? Long.compare(a.key, b.key) : Integer.compare(a.order, b.order));
+    private RunCursor current = null;
+
+    MergeCursor(List<Path> runs, boolean scores) {
+      try {
+        for (Path run : runs) {
+          RunCursor cursor = new RunCursor(run, scores, this.runs.size());
+          this.runs.add(cursor);
+          if (cursor.next()) {
+            queue.add(cursor);
+          }
+        }
+      } catch (IOException ex) {
+        close();
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    @Override
+    boolean next() throws IOException {
+      if (current != null && current.next()) {
+        queue.add(current);
+      }
+      current = queue.poll();
+      if (current == null) {
+        return false;
+      }
+      key = current.key;
+      entrapment = current.entrapment;
+      runQValue = current.runQValue;
+      globalQValue = current.globalQValue;
+      return true;
+    }
+
+    @Override
+    void close() {
+      for (RunCursor run : runs) {
+        run.close();
+      }
+    }
+  }
+
+
+  static class Bins {
+
+    final double[] thresholds; // the CScore threshold of each bin, ascending
+    final long[] targetCounts;
+    final long[] decoyCounts;
+    final long[] entrapmentTargetCounts;
+    final long[] entrapmentDecoyCounts;
+    final double[] reportedRunQValues;
+    final double[] reportedGlobalQValues;
+
+    public Bins(double[] thresholds, long[] targetCounts, long[] decoyCounts, long[] entrapmentTargetCounts, long[] entrapmentDecoyCounts, double[] reportedRunQValues, double[] reportedGlobalQValues) {
+      this.thresholds = thresholds;
+      this.targetCounts = targetCounts;
+      this.decoyCounts = decoyCounts;
+      this.entrapmentTargetCounts = entrapmentTargetCounts;
+      this.entrapmentDecoyCounts = entrapmentDecoyCounts;
+      this.reportedRunQValues = reportedRunQValues;
+      this.reportedGlobalQValues = reportedGlobalQValues;
+    }
+  }
+}
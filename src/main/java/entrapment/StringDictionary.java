@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps distinct strings to dense int IDs in the order they are first seen. The strings are kept as UTF-8 bytes in one pool, and a byte range
+ * can be looked up without creating a String, so interning a value that is already known does not allocate.
+ */
+class StringDictionary {
+
+  private byte[] pool = new byte[1 << 12];
+  private int poolSize = 0;
+  private int[] offsets = new int[1 << 8]; // the bytes of ID i are pool[offsets[i], offsets[i + 1])
+  private int size = 0;
+
+  private int[] table = new int[1 << 8]; // ID + 1, 0 for an empty slot
+  private int[] hashes = new int[1 << 8]; // the hash of each ID
+
+  int intern(byte[] bytes, int start, int end) {
+    int hash = hash(bytes, start, end);
+    int mask = table.length - 1;
+    int slot = hash & mask;
+    while (table[slot] != 0) {
+      int id = table[slot] - 1;
+      if (hashes[id] == hash && equals(id, bytes, start, end)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return add(bytes, start, end, hash, slot);
+  }
+
+  int intern(String s) {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    return intern(bytes, 0, bytes.length);
+  }
+
+  String get(int id) {
+    return new String(pool, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+  }
+
+  int size() {
+    return size;
+  }
+
+  // Interns all strings of the other dictionary and returns the ID in this dictionary of each of its IDs.
+  int[] internAll(StringDictionary other) {
+    int[] ids = new int[other.size];
+    for (int i = 0; i < other.size; ++i) {
+      ids[i] = intern(other.pool, other.offsets[i], other.offsets[i + 1]);
+    }
+    return ids;
+  }
+
+  private int add(byte[] bytes, int start, int end, int hash, int slot) {
+    int length = end - start;
+    if (poolSize + length > pool.length) {
+      pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+    }
+    System.arraycopy(bytes, start, pool, poolSize, length);
+    poolSize += length;
+
+    if (size + 2 > offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      hashes = Arrays.copyOf(hashes, hashes.length * 2);
+    }
+    int id = size++;
+    offsets[id + 1] = poolSize;
+    hashes[id] = hash;
+    table[slot] = id + 1;
+
+    // keep the load factor at most 1/2
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return id;
+  }
+
+  private void rehash() {
+    table = new int[table.length * 2];
+    int mask = table.length - 1;
+    for (int id = 0; id < size; ++id) {
+      int slot = hashes[id] & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = id + 1;
+    }
+  }
+
+  private boolean equals(int id, byte[] bytes, int start, int end) {
+    int offset = offsets[id];
+    if (offsets[id + 1] - offset != end - start) {
+      return false;
+    }
+    for (int i = start; i < end; ++i, ++offset) {
+      if (pool[offset] != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static int hash(byte[] bytes, int start, int end) {
+    int hash = 1;
+    for (int i = start; i < end; ++i) {
+      hash = 31 * hash + bytes[i];
+    }
+    return hash ^ (hash >>> 16);
+  }
+}
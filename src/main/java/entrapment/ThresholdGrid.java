@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.util.Arrays;
+
+/**
+ * All combinations of a set of run-wise and a set of global q-value thresholds, for counting the rows of every combination in one pass. A row is
+ * counted once in the cell of the smallest thresholds that its q-values are below, and the count of a combination is the sum of the cells that are
+ * not above it in either dimension (a 2D prefix sum).
+ * <p>
+ * The combinations are numbered run threshold major, with the thresholds in ascending order.
+ */
+class ThresholdGrid {
+
+  final double[] runThresholds;
+  final double[] globalThresholds;
+
+  ThresholdGrid(double[] runThresholds, double[] globalThresholds) {
+    this.runThresholds = Arrays.stream(runThresholds).sorted().distinct().toArray();
+    this.globalThresholds = Arrays.stream(globalThresholds).sorted().distinct().toArray();
+  }
+
+  int cellCount() {
+    return runThresholds.length * globalThresholds.length;
+  }
+
+  // -1 if the q-values are not below the largest thresholds.
+  int cell(double runQValue, double globalQValue) {
+    int i = firstAbove(runThresholds, runQValue);
+    int j = firstAbove(globalThresholds, globalQValue);
+    if (i == runThresholds.length || j == globalThresholds.length) {
+      return -1;
+    }
+    return i * globalThresholds.length + j;
+  }
+
+  double runThreshold(int combination) {
+    return runThresholds[combination / globalThresholds.length];
+  }
+
+  double globalThreshold(int combination) {
+    return globalThresholds[combination % globalThresholds.length];
+  }
+
+  // The number of rows of each combination. The cells can be several blocks of cellCount() cells, e.g. one per run, and each block is summed on its own.
+  long[] cumulativeCounts(long[] cellCounts) {
+    int n = globalThresholds.length;
+    long[] counts = new long[cellCounts.length];
+    for (int block = 0; block < cellCounts.length; block += cellCount()) {
+      for (int i = 0; i < runThresholds.length; ++i) {
+        long rowSum = 0;
+        for (int j = 0; j < n; ++j) {
+          rowSum += cellCounts[block + i * n + j];
+          counts[block + i * n + j] = rowSum + (i > 0 ? counts[block + (i - 1) * n + j] : 0);
+        }
+      }
+    }
+    return counts;
+  }
+
+  // The number of distinct keys of each combination in blocks of cellCount() per group, where a key can be in several cells. The group of a key is
+  // its upper 32 bits, e.g. the run ID of a (run ID << 32) | PG ID pair.
+  long[] distinctCounts(LongHashSet[] cellKeys, int groupCount) {
+    int n = globalThresholds.length;
+    long[] counts = new long[groupCount * cellCount()];
+    if (cellKeys.length == 1) {
+      for (long key : cellKeys[0].toArray()) {
+        ++counts[(int) (key >>> 32)];
+      }
+      return counts;
+    }
+    // Accumulated along the global thresholds: the keys of run threshold i are those of the cells not above (i, j). The keys of run threshold
+    // i - 1 are a subset, so a key only needs to be added up to the first run threshold that already has it.
+    int m = runThresholds.length;
+    LongHashSet[] keys = new LongHashSet[m];
+    for (int i = 0; i < m; ++i) {
+      keys[i] = new LongHashSet();
+    }
+    long[] groupCounts = new long[m * groupCount];
+    for (int j = 0; j < n; ++j) {
+      for (int a = 0; a < m; ++a) {
+        for (long key : cellKeys[a * n + j].toArray()) {
+          for (int i = a; i < m && keys[i].add(key); ++i) {
+            ++groupCounts[i * groupCount + (int) (key >>> 32)];
+          }
+        }
+      }
+      for (int i = 0; i < m; ++i) {
+        for (int group = 0; group < groupCount; ++group) {
+          counts[group * cellCount() + i * n + j] = groupCounts[i * groupCount + group];
+        }
+      }
+    }
+    return counts;
+  }
+
+  // Sums the blocks of cellCount() into one.
+  long[] total(long[] counts) {
+    long[] total = new long[cellCount()];
+    for (int i = 0; i < counts.length; ++i) {
+      total[i % total.length] += counts[i];
+    }
+    return total;
+  }
+
+  // The first threshold that the q-value is below. NaN is not below any.
+  private static int firstAbove(double[] thresholds, double qValue) {
+    int low = 0;
+    int high = thresholds.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (qValue < thresholds[mid]) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+}
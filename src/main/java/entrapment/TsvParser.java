@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a (possibly gzip or zstd compressed) TSV file with a header line into an accumulator, either line by line or in chunks split at line
+ * boundaries on a fork-join pool. The chunk accumulators are merged in file order, so the result of the chunked path is the same as the sequential one.
+ * The chunks skip a header line in the middle of the file, e.g. of concatenated reports, if it is the same as the first one. If it is not, the
+ * file is parsed again sequentially, which resolves the columns at every header line.
+ */
+abstract class TsvParser<A extends TsvParser.Accumulator<A>> {
+
+  private final byte[] headerPrefix;
+  private int maxColumn = Integer.MAX_VALUE;
+  private long minChunkSize = 1 << 24;
+
+  TsvParser(String headerPrefix) {
+    this.headerPrefix = headerPrefix.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  // Smaller chunks for tests.
+  void setMinChunkSize(long minChunkSize) {
+    this.minChunkSize = minChunkSize;
+  }
+
+  // Resolves the column indices from the header line and returns the largest column index that parseRow reads.
+  abstract int parseHeader(TsvTokenizer tokenizer, Path path) throws IOException;
+
+  abstract A newAccumulator();
+
+  abstract void parseRow(TsvTokenizer tokenizer, A accumulator);
+
+  A parse(Path path, int threads) throws Exception {
+    if (threads <= 1 || CompressedInput.compression(path) != 0) {
+      // A compressed file cannot be split into chunks. It is decompressed on other threads while this thread parses it.
+      return parseSequentially(path, threads);
+    }
+
+    String header;
+    long headerEnd;
+    try (TsvTokenizer tokenizer = new TsvTokenizer(path)) {
+      if (!tokenizer.nextLine() || !tokenizer.startsWith(headerPrefix)) {
+        // The chunks need the header up front. Leave anything unusual to the sequential path.
+        return parseSequentially(path, threads);
+      }
+      readHeader(tokenizer, path);
+      header = tokenizer.line();
+      headerEnd = tokenizer.offset();
+    }
+
+    long[] boundaries = chunkBoundaries(path, headerEnd, threads);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      List<Future<A>> futures = new ArrayList<>();
+      for (int i = 0; i < boundaries.length - 1; ++i) {
+        long start = boundaries[i];
+        long end = boundaries[i + 1];
+        futures.add(pool.submit(() -> parseChunk(path, start, end, header)));
+      }
+      A accumulator = newAccumulator();
+      boolean headerChanged = false;
+      for (Future<A> future : futures) {
+        A chunkAccumulator = future.get();
+        if (chunkAccumulator == null) {
+          headerChanged = true;
+        } else if (!headerChanged) {
+          accumulator.merge(chunkAccumulator);
+        }
+      }
+      if (headerChanged) {
+        return parseSequentially(path, threads);
+      }
+      return accumulator;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private A parseSequentially(Path path, int threads) throws Exception {
+    A accumulator = newAccumulator();
+    try (TsvTokenizer tokenizer = new TsvTokenizer(CompressedInput.open(path, threads), Long.MAX_VALUE, TsvTokenizer.defaultBufferSize)) {
+      while (tokenizer.nextLine()) {
+        if (tokenizer.startsWith(headerPrefix)) {
+          readHeader(tokenizer, path);
+        } else {
+          parseRow(tokenizer, accumulator);
+        }
+      }
+    }
+    return accumulator;
+  }
+
+  private void readHeader(TsvTokenizer tokenizer, Path path) throws IOException {
+    tokenizer.splitAll();
+    maxColumn = parseHeader(tokenizer, path);
+    tokenizer.setMaxColumn(maxColumn);
+  }
+
+  // Returns null if the chunk has a header line other than the first one.
+  private A parseChunk(Path path, long start, long end, String header) throws Exception {
+    A accumulator = newAccumulator();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        TsvTokenizer tokenizer = new TsvTokenizer(channel.position(start), end - start, (int) Math.min(TsvTokenizer.defaultBufferSize, end - start + 1))) {
+      tokenizer.setMaxColumn(maxColumn);
+      while (tokenizer.nextLine()) {
+        if (!tokenizer.startsWith(headerPrefix)) {
+          parseRow(tokenizer, accumulator);
+        } else if (!tokenizer.line().equals(header)) {
+          return null;
+        }
+      }
+    }
+    return accumulator;
+  }
+
+  // Splits [headerEnd, file size) into about four chunks per thread. Every boundary is moved to the byte after the next '\n'.
+  private long[] chunkBoundaries(Path path, long headerEnd, int threads) throws Exception {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long chunkSize = Math.max(minChunkSize, (size - headerEnd) / (threads * 4L) + 1);
+      List<Long> boundaries = new ArrayList<>();
+      boundaries.add(headerEnd);
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+      long target = headerEnd + chunkSize;
+      while (target < size) {
+        long boundary = -1;
+        long position = target;
+        while (boundary < 0 && position < size) {
+          buffer.clear();
+          int n = channel.read(buffer, position);
+          for (int i = 0; i < n; ++i) {
+            if (buffer.get(i) == '\n') {
+              boundary = position + i + 1;
+              break;
+            }
+          }
+          position += Math.max(n, 0);
+        }
+        if (boundary < 0 || boundary >= size) {
+          break;
+        }
+        boundaries.add(boundary);
+        target = boundary + chunkSize;
+      }
+      boundaries.add(size);
+
+      long[] output = new long[boundaries.size()];
+      for (int i = 0; i < output.length; ++i) {
+        output[i] = boundaries.get(i);
+      }
+      return output;
+    }
+  }
+
+
+  interface Accumulator<A> {
+
+    // Adds the counts of the other accumulator, which holds the lines after the ones in this accumulator.
+    void merge(A other);
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a tab-separated file through a large byte buffer and splits each line into field ranges without creating any String.
+ * Lines are trimmed and blank lines are skipped, the same as line.trim() followed by line.isEmpty() on a BufferedReader line.
+ * Only the first (maxColumn + 1) fields are located, and fields are materialized or parsed only when they are asked for.
+ */
+class TsvTokenizer implements Closeable {
+
+  static final int defaultBufferSize = 1 << 22;
+
+  private static final double[] powersOfTen = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  private final ReadableByteChannel channel;
+  private long remaining;
+  private byte[] buffer;
+  private long bufferOffset = 0;
+  private int position = 0;
+  private int limit = 0;
+  private boolean endOfInput = false;
+
+  private int lineStart = 0;
+  private int lineEnd = 0;
+  private int maxColumn = Integer.MAX_VALUE;
+  private int[] fieldStarts = new int[64];
+  private int[] fieldEnds = new int[64];
+  private int fieldCount = 0;
+
+  TsvTokenizer(Path path) throws IOException {
+    this(FileChannel.open(path, StandardOpenOption.READ), Long.MAX_VALUE, defaultBufferSize);
+  }
+
+  // Reads at most length bytes from the channel. The channel is closed by close().
+  TsvTokenizer(ReadableByteChannel channel, long length, int bufferSize) {
+    this.channel = channel;
+    this.remaining = length;
+    this.buffer = new byte[bufferSize];
+  }
+
+  // Fields after maxColumn are not located. The line is still read to its end.
+  void setMaxColumn(int maxColumn) {
+    this.maxColumn = maxColumn;
+  }
+
+  boolean nextLine() throws IOException {
+    while (true) {
+      int newline = indexOfNewline(position);
+      while (newline < 0) {
+        if (endOfInput) {
+          if (position == limit) {
+            return false;
+          }
+          newline = limit; // last line without a trailing newline
+          break;
+        }
+        int scanned = limit - position;
+        fill();
+        newline = indexOfNewline(position + scanned);
+      }
+
+      int start = position;
+      int end = newline;
+      position = newline < limit ? newline + 1 : limit;
+      while (start < end && (buffer[start] & 0xff) <= ' ') {
+        ++start;
+      }
+      while (end > start && (buffer[end - 1] & 0xff) <= ' ') {
+        --end;
+      }
+      if (start < end) {
+        lineStart = start;
+        lineEnd = end;
+        split(maxColumn);
+        return true;
+      }
+    }
+  }
+
+  // Locates all fields of the current line regardless of maxColumn, e.g. for a header line.
+  void splitAll() {
+    split(Integer.MAX_VALUE);
+  }
+
+  boolean startsWith(byte[] prefix) {
+    if (lineEnd - lineStart < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; ++i) {
+      if (buffer[lineStart + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Number of bytes consumed so far, i.e. the offset of the next line relative to where the tokenizer started reading.
+  long offset() {
+    return bufferOffset + position;
+  }
+
+  int fieldCount() {
+    return fieldCount;
+  }
+
+  byte[] buffer() {
+    return buffer;
+  }
+
+  // Start of the field with the surrounding white spaces removed.
+  int start(int column) {
+    checkColumn(column);
+    int start = fieldStarts[column];
+    int end = fieldEnds[column];
+    while (start < end && (buffer[start] & 0xff) <= ' ') {
+      ++start;
+    }
+    return start;
+  }
+
+  // End of the field with the surrounding white spaces removed.
+  int end(int column) {
+    checkColumn(column);
+    int start = fieldStarts[column];
+    int end = fieldEnds[column];
+    while (end > start && (buffer[end - 1] & 0xff) <= ' ') {
+      --end;
+    }
+    return end;
+  }
+
+  String getString(int column) {
+    int start = start(column);
+    return new String(buffer, start, end(column) - start, StandardCharsets.UTF_8);
+  }
+
+  // An empty field is NaN, like a null in a Parquet report.
+  double getDouble(int column) {
+    int start = start(column);
+    int end = end(column);
+    return start == end ? Double.NaN : parseDouble(buffer, start, end);
+  }
+
+  String line() {
+    return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  // Same result as Double.parseDouble. Plain decimals with at most 15 significant digits and a small exponent are converted with one exact
+  // multiplication or division (correctly rounded), everything else falls back to Double.parseDouble.
+  static double parseDouble(byte[] bytes, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+      negative = bytes[i] == '-';
+      ++i;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean seenDigit = false;
+    boolean seenDot = false;
+    for (; i < end; ++i) {
+      byte b = bytes[i];
+      if (b >= '0' && b <= '9') {
+        seenDigit = true;
+        if (mantissa == 0 && b == '0') {
+          if (seenDot) {
+            --exponent;
+          }
+          continue;
+        }
+        if (++digits > 15) {
+          return slowParseDouble(bytes, start, end);
+        }
+        mantissa = mantissa * 10 + (b - '0');
+        if (seenDot) {
+          --exponent;
+        }
+      } else if (b == '.' && !seenDot) {
+        seenDot = true;
+      } else {
+        break;
+      }
+    }
+    if (!seenDigit) {
+      return slowParseDouble(bytes, start, end);
+    }
+    if (i < end) {
+      if (bytes[i] != 'e' && bytes[i] != 'E') {
+        return slowParseDouble(bytes, start, end);
+      }
+      ++i;
+      boolean negativeExponent = false;
+      if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+        negativeExponent = bytes[i] == '-';
+        ++i;
+      }
+      if (i == end || end - i > 4) {
+        return slowParseDouble(bytes, start, end);
+      }
+      int e = 0;
+      for (; i < end; ++i) {
+        if (bytes[i] < '0' || bytes[i] > '9') {
+          return slowParseDouble(bytes, start, end);
+        }
+        e = e * 10 + (bytes[i] - '0');
+      }
+      exponent += negativeExponent ? -e : e;
+    }
+
+    double value;
+    if (mantissa == 0) {
+      value = 0;
+    } else if (exponent >= 0 && exponent < powersOfTen.length) {
+      value = mantissa * powersOfTen[exponent];
+    } else if (exponent < 0 && -exponent < powersOfTen.length) {
+      value = mantissa / powersOfTen[-exponent];
+    } else {
+      return slowParseDouble(bytes, start, end);
+    }
+    return negative ? -value : value;
+  }
+
+  private static double slowParseDouble(byte[] bytes, int start, int end) {
+    return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+  }
+
+  private void split(int maxColumn) {
+    fieldCount = 0;
+    int start = lineStart;
+    for (int i = lineStart; i < lineEnd && fieldCount < maxColumn; ++i) {
+      if (buffer[i] == '\t') {
+        addField(start, i);
+        start = i + 1;
+      }
+    }
+    int end = lineEnd;
+    if (fieldCount == maxColumn) {
+      end = start;
+      while (end < lineEnd && buffer[end] != '\t') {
+        ++end;
+      }
+    }
+    addField(start, end);
+  }
+
+  private void addField(int start, int end) {
+    if (fieldCount == fieldStarts.length) {
+      fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+      fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+    }
+    fieldStarts[fieldCount] = start;
+    fieldEnds[fieldCount] = end;
+    ++fieldCount;
+  }
+
+  private void checkColumn(int column) {
+    if (column >= fieldCount) {
+      throw new IllegalStateException("Column " + column + " does not exist in line: " + line());
+    }
+  }
+
+  private int indexOfNewline(int from) {
+    for (int i = from; i < limit; ++i) {
+      if (buffer[i] == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Moves the unread bytes to the front of the buffer, growing it if a single line does not fit, and reads more bytes from the channel.
+  private void fill() throws IOException {
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, limit - position);
+      bufferOffset += position;
+      limit -= position;
+      position = 0;
+    } else if (limit == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, limit, (int) Math.min(buffer.length - limit, remaining));
+    int n = 0;
+    while (byteBuffer.hasRemaining() && (n = channel.read(byteBuffer)) >= 0) {
+      if (n == 0) {
+        break;
+      }
+    }
+    int read = byteBuffer.position() - limit;
+    remaining -= read;
+    limit = byteBuffer.position();
+    if (n < 0 || remaining == 0) {
+      endOfInput = true;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchEvaluateTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void run() throws Exception {
+    Path fastaPath = folder.newFile("db.fasta").toPath();
+    Files.write(fastaPath, ">sp|P1|A\nPEPTIDEK\n>sp|P2|B\nPEPTIDER\n>sp|entrapment_P2|B\nEPTPIDER\n".getBytes());
+    Path reportPath = folder.newFile("report.tsv").toPath();
+    Files.write(reportPath, ("File.Name\tRun\tProtein.Group\tQ.Value\tGlobal.Q.Value\tPG.Q.Value\tGlobal.PG.Q.Value\tCScore\tDecoy.CScore\n"
+        + "a.raw\tA\tP1\t0.001\t0.001\t0.001\t0.001\t0.9\t0.1\n"
+        + "a.raw\tA\tP1\t0.02\t0.001\t0.001\t0.001\t0.8\t0\n"
+        + "b.raw\tB\tentrapment_P2\t0.001\t0.001\t0.001\t0.001\t0.9\t0\n").getBytes());
+    Path brokenPath = folder.newFile("broken.tsv").toPath();
+    Files.write(brokenPath, "File.Name\tRun\tProtein.Group\tQ.Value\tGlobal.Q.Value\tPG.Q.Value\tGlobal.PG.Q.Value\tCScore\tDecoy.CScore\na.raw\tA\tP1\n".getBytes());
+    // a missing column, which the standalone tools report before they exit
+    Path missingColumnPath = folder.newFile("missing_column.tsv").toPath();
+    Files.write(missingColumnPath, "File.Name\tRun\tProtein.Group\tQ.Value\tGlobal.Q.Value\tPG.Q.Value\tCScore\tDecoy.CScore\na.raw\tA\tP1\t0.001\t0.001\t0.001\t0.9\t0\n".getBytes());
+    Path peptidePath = folder.newFile("peptide.tsv").toPath();
+    Files.write(peptidePath, "Peptide\tProteins\nPEPTIDEK\tsp|P1|A\n".getBytes());
+    Path jobPath = folder.newFile("jobs.txt").toPath();
+    Files.write(jobPath, ("# two jobs on the same fasta file and three that fail\n"
+        + "CalculateFDP\t" + fastaPath + "\t0\t" + reportPath + "\t0.01,0.05\t0.01\t0.01\t0.01\n"
+        + "\n"
+        + "CalculateFDP\t" + fastaPath + "\t0\t" + brokenPath + "\t0.01\t0.01\t0.01\t0.01\n"
+        + "CalculateFDP\t" + fastaPath + "\t0\t" + reportPath + "\t0.01\t0.01\t0.05\t0.01\n"
+        + "CalculateFDP\t" + fastaPath + "\t0\t" + missingColumnPath + "\t0.01\t0.01\t0.01\t0.01\n"
+        + "CalculateFDPPeptideTsv\t" + fastaPath + "\t0\t" + peptidePath + "\n").getBytes());
+
+    List<BatchEvaluate.Job> jobs = BatchEvaluate.readJobs(jobPath);
+    assertEquals(5, jobs.size());
+    // a reservation larger than the heap runs the jobs one by one
+    List<List<String[]>> rows = BatchEvaluate.run(jobs, 2, 1, Integer.MAX_VALUE);
+    assertEquals(5, rows.size());
+
+    List<String[]> rows1 = rows.get(0);
+    assertEquals(3, rows1.size());
+    assertArrayEquals(new String[]{"1", "CalculateFDP", fastaPath.toString(), reportPath.toString(), "precursor", "0.01", "0.01", "0.5", "1", "1", "1", "0"}, Arrays.copyOf(rows1.get(0), 12));
+    assertEquals("2", rows1.get(1)[8]);
+    assertEquals("protein", rows1.get(2)[4]);
+    assertEquals("", rows1.get(2)[9]);
+    assertEquals(String.valueOf(1 * (1 + 1 / 0.5) / 2), rows1.get(0)[12]);
+    assertEquals("", rows1.get(0)[BatchEvaluate.columns.length - 1]);
+
+    List<String[]> rows2 = rows.get(1);
+    assertEquals(1, rows2.size());
+    assertEquals("", rows2.get(0)[4]);
+    assertFalse(rows2.get(0)[BatchEvaluate.columns.length - 1].isEmpty());
+
+    assertEquals("0.05", rows.get(2).get(1)[5]);
+
+    for (int i = 3; i < 5; ++i) {
+      assertEquals(1, rows.get(i).size());
+      assertTrue(rows.get(i).get(0)[BatchEvaluate.columns.length - 1], rows.get(i).get(0)[BatchEvaluate.columns.length - 1].contains("missing in the result file"));
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressedInputTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void decompress() throws Exception {
+    byte[] data = randomText(3_000_000);
+    Path plain = write("plain.fasta.gz", data); // the name does not matter
+    assertEquals(0, CompressedInput.compression(plain));
+
+    ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(gzip)) {
+      outputStream.write(data);
+    }
+    check(write("gzip", gzip.toByteArray()), 1, data);
+    check(write("bgzf", bgzf(data)), 1, data);
+    // a BGZF part followed by a gzip member
+    byte[] half = Arrays.copyOf(data, data.length / 2);
+    ByteArrayOutputStream tail = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(tail)) {
+      outputStream.write(data, half.length, data.length - half.length);
+    }
+    check(write("mixed", concat(bgzf(half), tail.toByteArray())), 1, data);
+
+    ByteArrayOutputStream zstd = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new ZstdOutputStream(zstd)) {
+      outputStream.write(data);
+    }
+    check(write("zstd", zstd.toByteArray()), 2, data);
+    List<byte[]> frames = new ArrayList<>();
+    // a skippable frame first, which is also recognized as zstd
+    frames.add(new byte[]{0x50, 0x2a, 0x4d, 0x18, 3, 0, 0, 0, 1, 2, 3});
+    for (int start = 0; start < data.length; start += 300_000) {
+      frames.add(Zstd.compress(Arrays.copyOfRange(data, start, Math.min(data.length, start + 300_000)), 3));
+    }
+    byte[] multiFrame = concat(frames.toArray(new byte[0][]));
+    check(write("multi.zst", multiFrame), 2, data);
+
+    byte[] truncated = Arrays.copyOf(multiFrame, multiFrame.length - 10);
+    byte[] corrupt = bgzf(data);
+    corrupt[corrupt.length / 2] ^= 1;
+    for (byte[] bytes : new byte[][]{truncated, corrupt}) {
+      Path path = write("broken", bytes);
+      for (int threads : new int[]{1, 4}) {
+        try (ReadableByteChannel channel = new CompressedInput(path, threads)) {
+          readAll(channel);
+          fail();
+        } catch (IOException expected) {
+        }
+      }
+    }
+  }
+
+  @Test
+  public void fasta() throws Exception {
+    String fasta = "MKV\n>sp|P1|A\r\nPEP TIDE \n\n  KR\n>sp|entrapment_P1|A \nEPTPIDE\n  >sp|P2|B\n>sp|P3|C\nAAA";
+    Path plain = write("db.fasta", fasta.getBytes());
+    ByteArrayOutputStream zstd = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new ZstdOutputStream(zstd)) {
+      outputStream.write(fasta.getBytes());
+    }
+    Path compressed = write("db.fasta.zst", zstd.toByteArray());
+    List<String> expected = new ArrayList<>();
+    FastaReader.forEach(plain, 1, (header, sequence) -> expected.add(header + "\t" + sequence));
+    assertEquals(5, expected.size());
+    List<String> records = new ArrayList<>();
+    FastaReader.forEach(compressed, 2, (header, sequence) -> records.add(header + "\t" + sequence));
+    assertEquals(expected, records);
+    assertEquals(FastaSummary.scan(plain, 0, 0).crc32c, FastaSummary.scan(compressed, 0, 0).crc32c);
+    assertArrayEquals(FastaSummary.scan(plain, 0, 0).entrapmentProteinCounts, FastaSummary.scan(compressed, 0, 0).entrapmentProteinCounts);
+  }
+
+  private void check(Path path, int compression, byte[] expected) throws Exception {
+    assertEquals(compression, CompressedInput.compression(path));
+    for (int threads : new int[]{1, 4}) {
+      try (ReadableByteChannel channel = CompressedInput.open(path, threads)) {
+        assertArrayEquals(path.toString(), expected, readAll(channel));
+      }
+    }
+  }
+
+  private static byte[] readAll(ReadableByteChannel channel) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ByteBuffer buffer = ByteBuffer.allocate(100_000);
+    while (channel.read(buffer) >= 0) {
+      output.write(buffer.array(), 0, buffer.position());
+      buffer.clear();
+    }
+    return output.toByteArray();
+  }
+
+  // Blocks of at most 64 KB like bgzip, with the empty block at the end.
+  private static byte[] bgzf(byte[] data) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (int start = 0; start <= data.length; start += 0xff00) {
+      int length = Math.min(0xff00, data.length - start);
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      deflater.setInput(data, start, length);
+      deflater.finish();
+      byte[] deflated = new byte[length + 1024];
+      int deflatedLength = deflater.deflate(deflated);
+      deflater.end();
+      CRC32 crc32 = new CRC32();
+      crc32.update(data, start, length);
+      ByteBuffer block = ByteBuffer.allocate(18 + deflatedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+      block.put(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0});
+      block.putShort((short) (block.capacity() - 1));
+      block.put(deflated, 0, deflatedLength);
+      block.putInt((int) crc32.getValue());
+      block.putInt(length);
+      output.write(block.array(), 0, block.capacity());
+      if (length == 0) {
+        break;
+      }
+    }
+    return output.toByteArray();
+  }
+
+  private static byte[] randomText(int length) {
+    Random random = new Random(1);
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      data[i] = random.nextInt(60) == 0 ? (byte) '\n' : (byte) "ACDEFGHIKLMNPQRSTVWY".charAt(random.nextInt(20));
+    }
+    return data;
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (byte[] part : parts) {
+      output.write(part, 0, part.length);
+    }
+    return output.toByteArray();
+  }
+
+  private Path write(String name, byte[] bytes) throws IOException {
+    Path path = folder.getRoot().toPath().resolve(name);
+    Files.write(path, bytes);
+    return path;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CsvWriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void numbers() throws Exception {
+    double[] doubles = {1, 0.001, 1e-4, 1234567, 1e7, 6e-7, -2.5, 100, 0.1 + 0.2, 0.9999998999999999, 1.0386159E-10, 3.2336767E-16, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, Double.NEGATIVE_INFINITY, -0.0, 0};
+    long[] longs = {0, 7, -7, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+    Path path = folder.getRoot().toPath().resolve("numbers.csv");
+    try (CsvWriter writer = new CsvWriter(path)) {
+      writer.field("value");
+      writer.endRow();
+      for (double value : doubles) {
+        writer.field(value).endRow();
+      }
+      for (long value : longs) {
+        writer.field(value).endRow();
+      }
+    }
+    List<String> lines = Files.readAllLines(path);
+    assertEquals(1 + doubles.length + longs.length, lines.size());
+    assertEquals("value", lines.get(0));
+    for (int i = 0; i < doubles.length; ++i) {
+      assertEquals(Double.toString(doubles[i]), lines.get(1 + i));
+    }
+    for (int i = 0; i < longs.length; ++i) {
+      assertEquals(Long.toString(longs[i]), lines.get(1 + doubles.length + i));
+    }
+  }
+
+  // More rows than the buffer holds. The digits parse back to the same double and are never longer than those of Double.toString, which are
+  // not always the shortest before Java 19.
+  @Test
+  public void roundTrip() throws Exception {
+    Random random = new Random(5);
+    double[] values = new double[200000];
+    for (int i = 0; i < values.length; ++i) {
+      switch (i % 4) {
+        case 0:
+          values[i] = random.nextDouble();
+          break;
+        case 1:
+          values[i] = random.nextInt(10000000) * DiannEntrapmentQValue.binSize;
+          break;
+        case 2:
+          values[i] = (float) (random.nextDouble() * Math.pow(10, -random.nextInt(20)));
+          break;
+        default:
+          values[i] = Double.longBitsToDouble(random.nextLong());
+      }
+    }
+    Path path = folder.getRoot().toPath().resolve("values.csv");
+    try (CsvWriter writer = new CsvWriter(path)) {
+      for (int i = 0; i < values.length; ++i) {
+        writer.field(i).field(values[i]).endRow();
+      }
+    }
+    List<String> lines = Files.readAllLines(path);
+    assertEquals(values.length, lines.size());
+    for (int i = 0; i < values.length; ++i) {
+      String[] fields = lines.get(i).split(",");
+      assertEquals(String.valueOf(i), fields[0]);
+      if (!Double.isNaN(values[i])) {
+        assertEquals(values[i], Double.parseDouble(fields[1]), 0);
+        assertTrue(fields[1].length() <= Double.toString(values[i]).length());
+      }
+    }
+  }
+}
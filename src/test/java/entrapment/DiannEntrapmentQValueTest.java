@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiannEntrapmentQValueTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void curve() throws Exception {
+    double[] thresholds = {0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8};
+    long[] targetCounts = {5, 4, 3, 0, 3, 2, 2, 9};
+    long[] decoyCounts = {3, 1, 1, 2, 0, 0, 0, 0};
+    long[] entrapmentTargetCounts = {3, 1, 0, 0, 1, 0, 0, 1};
+    long[] entrapmentDecoyCounts = {1, 0, 0, 1, 0, 0, 0, 0};
+    double[] reportedQValues = {0.05, 0.04, 0.03, Double.NaN, 0.02, 0.015, 0.01, 0.001};
+    double[] entrapmentQValues = DiannEntrapmentQValue.calculateQValue(targetCounts, decoyCounts, entrapmentTargetCounts, entrapmentDecoyCounts, 3);
+    DiannEntrapmentQValue.Entry entry = new DiannEntrapmentQValue.Entry(thresholds, targetCounts, decoyCounts, entrapmentTargetCounts, entrapmentDecoyCounts, reportedQValues, reportedQValues, entrapmentQValues, null, 0, 0, 0, 0, 0, 0, 0, null);
+    Path path = folder.getRoot().toPath().resolve("q.csv");
+
+    DiannEntrapmentQValue.writeQValues(path, entry);
+    List<String> rows = Files.readAllLines(path);
+    assertEquals(8, rows.size()); // without the bin of 0.4, which only has decoys
+    assertEquals("0.8,9,0,1,0,0.001,0.001," + entrapmentQValues[7], rows.get(1));
+
+    // 0.8 to 0.6 and 0.5 to 0.3 have the same entrapment q-values
+    assertEquals(entrapmentQValues[7], entrapmentQValues[5], 0);
+    assertEquals(entrapmentQValues[4], entrapmentQValues[2], 0);
+    assertNotEquals(entrapmentQValues[5], entrapmentQValues[4], 0);
+    DiannEntrapmentQValue.writeQValues(path, entry, DiannEntrapmentQValue.curveBreakpoints);
+    rows = Files.readAllLines(path);
+    assertEquals(5, rows.size());
+    assertEquals("0.6,13,0,1,0,0.015,0.015," + entrapmentQValues[5], rows.get(1));
+    assertEquals("0.3,6,3,1,1,0.03,0.03," + entrapmentQValues[2], rows.get(2));
+    assertEquals("0.2,4,1,1,0,0.04,0.04," + entrapmentQValues[1], rows.get(3));
+    assertEquals("0.1,5,3,3,1,0.05,0.05," + entrapmentQValues[0], rows.get(4));
+
+    // two points of about the same number of target and entrapment precursors
+    DiannEntrapmentQValue.writeQValues(path, entry, 2);
+    rows = Files.readAllLines(path);
+    assertEquals(3, rows.size());
+    assertEquals("0.3,19,3,2,1,0.03,0.03," + entrapmentQValues[2], rows.get(1));
+    assertEquals("0.1,9,4,4,1,0.05,0.05," + entrapmentQValues[0], rows.get(2));
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiannReportTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void chunksMatchSequential() throws Exception {
+    Path path = folder.newFile("report.tsv").toPath();
+    Files.write(path, generatedReport(5).getBytes());
+
+    DiannReport.Counts sequential = newReport().parse(path, 1);
+    DiannReport report = newReport();
+    report.setMinChunkSize(1 << 12); // chunk boundaries in the middle of the runs and of the lines
+    DiannReport.Counts chunked = report.parse(path, 4);
+    assertEquals(5, sequential.runs.size());
+    assertSameCounts(sequential, chunked);
+    // One lookup per row, counted by the classifiers of all chunks.
+    assertEquals(sequential.classifier.hitCount() + sequential.classifier.missCount(), chunked.classifier.hitCount() + chunked.classifier.missCount());
+  }
+
+  @Test
+  public void chunksWithAnotherHeader() throws Exception {
+    // The same report twice, the second time with the run and global q-value columns swapped.
+    String report1 = generatedReport(2);
+    StringBuilder content = new StringBuilder(report1);
+    String[] lines = report1.split("\n");
+    List<String> columns = Arrays.asList(lines[0].split("\t"));
+    int[] swaps = {columns.indexOf("Q.Value"), columns.indexOf("Global.Q.Value"), columns.indexOf("PG.Q.Value"), columns.indexOf("Global.PG.Q.Value")};
+    for (String line : lines) {
+      String[] fields = line.split("\t", -1);
+      for (int i = 0; i < swaps.length; i += 2) {
+        String field = fields[swaps[i]];
+        fields[swaps[i]] = fields[swaps[i + 1]];
+        fields[swaps[i + 1]] = field;
+      }
+      content.append(String.join("\t", fields)).append('\n');
+    }
+    Path path = folder.newFile("report.tsv").toPath();
+    Files.write(path, content.toString().getBytes());
+
+    DiannReport.Counts sequential = newReport().parse(path, 1);
+    DiannReport report = newReport();
+    report.setMinChunkSize(1 << 12); // a chunk with the second header
+    assertSameCounts(sequential, report.parse(path, 4));
+  }
+
+  // A report of GenerateReports with 50 target and 50 entrapment proteins.
+  private static String generatedReport(int runs) throws Exception {
+    List<GenerateReports.Protein> targetProteins = new ArrayList<>();
+    List<GenerateReports.Protein> entrapmentProteins = new ArrayList<>();
+    for (int i = 0; i < 50; ++i) {
+      targetProteins.add(new GenerateReports.Protein("sp|P" + i + "|PROT" + i + "_HUMAN Protein OS=Homo sapiens GN=G" + i, "MPEPTIDEKAAAAAAAAAAAAAAAAAAAAR", i));
+      entrapmentProteins.add(new GenerateReports.Protein("entrapment_0_sp|entrapment_0_P" + i + "|entrapment_0_PROT" + i + "_HUMAN Protein GN=entrapment_0_G" + i, "MTIDEPEPKAAAAAAAAAAAAAAAAAAAR", -1 - i));
+    }
+    String[] args = {"--runs=" + runs, "--precursors=2000", "--proteins=60", "--entrapment-fraction=0.2"};
+    StringWriter writer = new StringWriter();
+    new GenerateReports(targetProteins, entrapmentProteins, Options.parse(args, 0, GenerateReports.optionKeys)).writeReport(writer);
+    return writer.toString();
+  }
+
+  // report.parquet was written from this report by DuckDB 1.1.3 with
+  // COPY (SELECT * REPLACE (CAST("Q.Value" AS FLOAT) AS "Q.Value", CAST("Global.Q.Value" AS FLOAT) AS "Global.Q.Value", CAST("PG.Q.Value" AS DOUBLE) AS "PG.Q.Value",
+  //   CAST("Global.PG.Q.Value" AS DOUBLE) AS "Global.PG.Q.Value", CAST("CScore" AS DOUBLE) AS "CScore", CAST("Decoy.CScore" AS DOUBLE) AS "Decoy.CScore")
+  //   FROM read_csv('report.tsv', delim='\t', header=true, all_varchar=true)) TO 'report.parquet' (FORMAT PARQUET, ROW_GROUP_SIZE 2048)
+  // It has three row groups, nulls for the empty fields, dictionary pages for the runs and protein groups except for the unique protein groups
+  // of the last row group, which are plain, and float q-values like the reports of DIA-NN 2.
+  @Test
+  public void parquetMatchesTsv() throws Exception {
+    Path tsvPath = folder.newFile("report.tsv").toPath();
+    Files.write(tsvPath, parquetReport().getBytes(StandardCharsets.US_ASCII));
+    Path parquetPath = Paths.get(DiannReportTest.class.getResource("report.parquet").toURI());
+    ParquetFile parquetFile = new ParquetFile(parquetPath);
+    assertEquals(3, parquetFile.rowGroupCount());
+    parquetFile.close();
+
+    DiannReport.Counts expected = newReport().parse(tsvPath, 1);
+    assertEquals(3, expected.runs.size());
+    assertSameCounts(expected, newReport().parse(parquetPath, 1));
+    assertSameCounts(expected, newReport().parse(parquetPath, 3));
+  }
+
+  static String parquetReport() {
+    StringBuilder report = new StringBuilder("File.Name\tRun\tProtein.Group\tQ.Value\tGlobal.Q.Value\tPG.Q.Value\tGlobal.PG.Q.Value\tCScore\tDecoy.CScore\tPrecursor.Id\n");
+    Random random = new Random(4);
+    String[] pgs = new String[40];
+    for (int i = 0; i < pgs.length; ++i) {
+      pgs[i] = i % 4 == 0 ? "entrapment_P" + i : i % 4 == 1 ? "P" + i + ";entrapment_P" + (i + 1) : "P" + i;
+    }
+    int rowCount = 5000;
+    for (int i = 0; i < rowCount; ++i) {
+      int run = i * 3 / rowCount;
+      String pg = i % 97 == 0 ? "" : i >= 4096 ? (i % 3 == 0 ? "entrapment_P" : "P") + i : pgs[random.nextInt(pgs.length)];
+      float runQValue = random.nextInt(60) * 0.001f;
+      float globalQValue = random.nextInt(60) * 0.001f;
+      double pgQValue = random.nextInt(30) * 0.002;
+      String globalPGQValue = i % 13 == 0 ? "" : String.valueOf(random.nextInt(30) * 0.002);
+      double cscore = random.nextInt(2000) / 2000.0;
+      String decoyCscore = i % 5 == 0 ? "" : i % 5 == 1 ? "0" : String.valueOf(random.nextInt(900) / 1000.0);
+      report.append("run").append(run).append(".raw\trun").append(run).append('\t').append(pg).append('\t')
+          .append((double) runQValue).append('\t').append((double) globalQValue).append('\t').append(pgQValue).append('\t').append(globalPGQValue).append('\t')
+          .append(cscore).append('\t').append(decoyCscore).append("\tPEPTIDE").append(i % 500).append("2\n");
+    }
+    return report.toString();
+  }
+
+  private static DiannReport newReport() {
+    return new DiannReport("entrapment_", new double[]{0.005, 0.01, 0.05}, new double[]{0.01, 0.05}, new double[]{0.01, 0.05}, new double[]{0.005, 0.01}, 0.001);
+  }
+
+  static void assertSameCounts(DiannReport.Counts expected, DiannReport.Counts actual) {
+    assertEquals(expected.runs.size(), actual.runs.size());
+    for (int i = 0; i < expected.runs.size(); ++i) {
+      assertEquals(expected.runs.get(i), actual.runs.get(i));
+    }
+    assertArrayEquals(expected.targetPrecursorCountsByRun(), actual.targetPrecursorCountsByRun());
+    assertArrayEquals(expected.decoyPrecursorCountsByRun(), actual.decoyPrecursorCountsByRun());
+    assertArrayEquals(expected.entrapmentPrecursorCountsByRun(), actual.entrapmentPrecursorCountsByRun());
+    assertArrayEquals(expected.decoyEntrapmentPrecursorCountsByRun(), actual.decoyEntrapmentPrecursorCountsByRun());
+    assertArrayEquals(expected.targetProteinCountsByRun(), actual.targetProteinCountsByRun());
+    assertArrayEquals(expected.entrapmentProteinCountsByRun(), actual.entrapmentProteinCountsByRun());
+    assertEquals(expected.thereAreDecoyScoreLargerThanTargetScore, actual.thereAreDecoyScoreLargerThanTargetScore);
+
+    SparseScoreHistogram.Bins expectedBins = expected.histogram.compact();
+    SparseScoreHistogram.Bins bins = actual.histogram.compact();
+    assertArrayEquals(expectedBins.thresholds, bins.thresholds, 0);
+    assertArrayEquals(expectedBins.targetCounts, bins.targetCounts);
+    assertArrayEquals(expectedBins.decoyCounts, bins.decoyCounts);
+    assertArrayEquals(expectedBins.entrapmentTargetCounts, bins.entrapmentTargetCounts);
+    assertArrayEquals(expectedBins.entrapmentDecoyCounts, bins.entrapmentDecoyCounts);
+    assertArrayEquals(expectedBins.reportedRunQValues, bins.reportedRunQValues, 0);
+    assertArrayEquals(expectedBins.reportedGlobalQValues, bins.reportedGlobalQValues, 0);
+  }
+}
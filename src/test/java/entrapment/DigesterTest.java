@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class DigesterTest {
+
+  @Test
+  public void cleavageSites() {
+    Random random = new Random(1);
+    String[][] rules = {{"KR", "P"}, {"KR", "-"}, {"D", "P"}, {"FWYL", "P"}, {"A-F", "KM"}};
+    for (String[] rule : rules) {
+      for (boolean cleavageFromCTerm : new boolean[]{true, false}) {
+        Digester digester = new Digester(rule[0], rule[1], cleavageFromCTerm);
+        Pattern pattern = regex(rule[0], rule[1], cleavageFromCTerm);
+        for (int i = 0; i < 1000; ++i) {
+          StringBuilder sb = new StringBuilder();
+          int length = random.nextInt(60);
+          for (int j = 0; j < length; ++j) {
+            sb.append("ACDEFGHKLMNPQRSTVWY".charAt(random.nextInt(19)));
+          }
+          List<Integer> expected = new ArrayList<>();
+          Matcher matcher = pattern.matcher(sb);
+          while (matcher.find()) {
+            expected.add(matcher.start());
+          }
+          int[] sites = digester.cleavageSites(sb);
+          assertEquals(sb.toString(), expected.size(), sites.length);
+          for (int j = 0; j < sites.length; ++j) {
+            assertEquals(sb.toString(), (int) expected.get(j), sites[j]);
+          }
+        }
+      }
+    }
+  }
+
+  // The regular expressions used before the lookup tables.
+  private static Pattern regex(String cleavageSite, String protectionSite, boolean cleavageFromCTerm) {
+    if (protectionSite.contentEquals("-")) {
+      return Pattern.compile("[" + cleavageSite + "]");
+    } else if (cleavageFromCTerm) {
+      return Pattern.compile("[" + cleavageSite + "](?![" + protectionSite + "])");
+    } else {
+      return Pattern.compile("(?<![" + protectionSite + "])" + "[" + cleavageSite + "]");
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class EntrapmentClassifierTest {
+
+  @Test
+  public void isEntrapment() {
+    // A tiny table so that groups evict each other.
+    EntrapmentClassifier classifier = new EntrapmentClassifier("entrapment_", ';', false, 2);
+    String[] groups = {"entrapment_P1", "P1", "entrapment_P1;entrapment_P2", "entrapment_P1;P2", "entrapment_P1;", ";;", "", "entrapment_P1; entrapment_P2"};
+    for (int round = 0; round < 3; ++round) {
+      for (String group : groups) {
+        assertEquals(group, reference(group, ";", false), classifier.isEntrapment(group));
+      }
+    }
+    assertEquals(3 * groups.length, classifier.hitCount() + classifier.missCount());
+    assertTrue(classifier.missCount() > groups.length);
+
+    classifier = new EntrapmentClassifier("_p_target", ',', true, EntrapmentClassifier.defaultCapacity);
+    String[] mappedProteins = {"sp|P1_p_target|A, sp|P2_p_target|B", "sp|P1_p_target|A, sp|P2|B", "sp|P1_p_target|A, ,", " , sp|P1_p_target|A"};
+    for (int round = 0; round < 3; ++round) {
+      for (String group : mappedProteins) {
+        assertEquals(group, reference(group, ",", true), classifier.isEntrapment(group));
+      }
+    }
+    assertEquals(mappedProteins.length, classifier.missCount());
+    assertEquals(2 * mappedProteins.length, classifier.hitCount());
+    EntrapmentClassifier other = new EntrapmentClassifier("_p_target", ',', true, EntrapmentClassifier.defaultCapacity);
+    other.isEntrapment(mappedProteins[0]);
+    other.isEntrapment(mappedProteins[0]);
+    classifier.merge(other);
+    assertEquals("Protein group classification cache: 9 hits, 5 misses", classifier.counters());
+
+    byte[] bytes = "xx_p_targetxx".getBytes(StandardCharsets.US_ASCII);
+    assertTrue(classifier.containsMarker(bytes, 2, 11));
+    assertFalse(classifier.containsMarker(bytes, 3, 13));
+  }
+
+  private static boolean reference(String group, String delimiter, boolean trim) {
+    for (String p : group.split(delimiter)) {
+      if (!(trim ? p.trim() : p).contains(delimiter.equals(";") ? "entrapment_" : "_p_target")) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastaManifestWriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void manifest() throws Exception {
+    Path fastaPath = folder.newFile("db.fasta").toPath();
+    Files.write(fastaPath, (">sp|P1|A_HUMAN Protein A OS=Homo sapiens GN=A\nMAAAAAAAKPEPTIDEKSHORTKDDDDDDDRLLLLLLLLLLK\n"
+        + ">sp|P2|B_HUMAN Protein B OS=Homo sapiens GN=B\nMEYMAESTDRAADFQLHTHVNDGTEFGGSIYQKAAFVAYALAFPRAALEEANGEIEKAAMEALVVEVT\n").getBytes(StandardCharsets.US_ASCII));
+    GenerateDatabase.main(new String[]{fastaPath.toString(), "KR", "P", "1", "3", "0"});
+
+    // The summary from the manifest is the same as the one from scanning the fasta file.
+    Path outputPath = fastaPath.resolveSibling("target_shuffle_db.fasta");
+    FastaSummary summary = FastaSummary.load(outputPath);
+    FastaSummary scanned = FastaSummary.scan(outputPath, 0, 0);
+    assertEquals(scanned.crc32c, summary.crc32c);
+    assertArrayEquals(scanned.entrapmentProteinCounts, summary.entrapmentProteinCounts);
+    assertArrayEquals(scanned.nonEntrapmentProteinCounts, summary.nonEntrapmentProteinCounts);
+    assertEquals(6, summary.entrapmentProteinCounts[0]);
+
+    Properties properties = new Properties();
+    try (InputStream inputStream = Files.newInputStream(FastaSummary.sidecarPath(outputPath))) {
+      properties.load(inputStream);
+    }
+    assertEquals("3.0", properties.getProperty("r"));
+    assertEquals("KR", properties.getProperty("cut_sites"));
+    List<String> peptideCounts = Files.readAllLines(outputPath.resolveSibling(properties.getProperty("peptide_counts")));
+    assertEquals(9, peptideCounts.size());
+    assertEquals("sp|P1|A_HUMAN\t6", peptideCounts.get(1));
+    assertTrue(peptideCounts.get(2).startsWith("entrapment_0_sp|entrapment_0_P1|entrapment_0_A_HUMAN\t"));
+
+    // The peptide counts are compressed like the fasta files.
+    Path compressedFastaPath = folder.newFolder("zstd").toPath().resolve("db.fasta");
+    Files.copy(fastaPath, compressedFastaPath);
+    GenerateDatabase.main(new String[]{compressedFastaPath.toString(), "KR", "P", "1", "3", "0", "--compression=zstd"});
+    Path compressedPeptideCountPath = compressedFastaPath.resolveSibling("target_shuffle_db.fasta.peptides.tsv.zst");
+    assertEquals(2, CompressedInput.compression(compressedPeptideCountPath));
+    try (InputStream inputStream = Channels.newInputStream(CompressedInput.open(compressedPeptideCountPath, 1))) {
+      assertEquals(String.join("\n", peptideCounts) + "\n", new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII));
+    }
+  }
+
+  @Test
+  public void countPeptides() throws Exception {
+    Digester digester = new Digester("KR", "P", true);
+    String[] sequences = {"MAAAAAAAKPEPTIDEKSHORTKDDDDDDDRLLLLLLLLLLK", "MEYMAESTDRAADFQLHTHVNDGTEFGGSIYQKAAFVAYALAFPRAALEEANGEIEKAAMEALVVEVT", "", "K", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"};
+    for (String sequence : sequences) {
+      StringWriter writer = new StringWriter();
+      GenerateDatabase.writePeptide(writer, sequence, sequence, digester);
+      int lineCount = writer.toString().isEmpty() ? 0 : writer.toString().split("\n").length;
+      assertEquals(sequence, lineCount / 4, GenerateDatabase.countPeptides(sequence, digester));
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32C;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastaReaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void next() throws Exception {
+    Random random = new Random(1);
+    String[] pieces = {">", "sp|P1|A_HUMAN", " ", "\t", "\n", "\r\n", "\r", "MAAK", "PEPTIDE", "entrapment_", "x>y"};
+    Path fastaPath = folder.newFile("db.fasta").toPath();
+    for (int i = 0; i < 300; ++i) {
+      StringBuilder sb = new StringBuilder();
+      int length = random.nextInt(60);
+      for (int j = 0; j < length; ++j) {
+        sb.append(pieces[random.nextInt(pieces.length)]);
+      }
+      String content = sb.toString();
+      Files.write(fastaPath, content.getBytes(StandardCharsets.US_ASCII));
+      List<String[]> expected = reference(content);
+      for (int windowSize : new int[]{1 << 9, Integer.MAX_VALUE - 8}) {
+        try (FastaReader reader = new FastaReader(fastaPath, windowSize)) {
+          for (String[] record : expected) {
+            assertTrue(content, reader.next());
+            assertEquals(content, record[0], reader.header());
+            assertEquals(content, record[1], reader.sequence());
+            assertEquals(content, record[0] != null && record[0].contains("entrapment_"), reader.headerContains("entrapment_".getBytes(StandardCharsets.US_ASCII)));
+          }
+          assertFalse(content, reader.next());
+          CRC32C crc32c = new CRC32C();
+          crc32c.update(content.getBytes(StandardCharsets.US_ASCII));
+          assertEquals(crc32c.getValue(), reader.crc32c());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void window() throws Exception {
+    Path fastaPath = folder.newFile("db.fasta").toPath();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      sb.append(">sp|P").append(i).append("|A\n").append("MAAKPEPTIDE\n").append(i % 7 == 0 ? "\n" : "").append("KR\n");
+    }
+    Files.write(fastaPath, sb.toString().getBytes(StandardCharsets.US_ASCII));
+    try (FastaReader reader = new FastaReader(fastaPath, 29)) {
+      for (int i = 0; i < 100; ++i) {
+        assertTrue(reader.next());
+        assertEquals("sp|P" + i + "|A", reader.header());
+        assertEquals("MAAKPEPTIDEKR", reader.sequence());
+      }
+      assertFalse(reader.next());
+    }
+    // A record needs to fit into the window.
+    try (FastaReader reader = new FastaReader(fastaPath, 16)) {
+      reader.next();
+      reader.sequence();
+      fail();
+    } catch (java.io.IOException expected) {
+    }
+
+    FastaIndex index = FastaIndex.load(fastaPath);
+    assertEquals(100, index.proteinCount());
+    assertEquals(-1, index.offset("P100"));
+    assertTrue(Files.isRegularFile(FastaIndex.sidecarPath(fastaPath)));
+    index = FastaIndex.load(fastaPath);
+    try (FastaReader reader = new FastaReader(fastaPath, 29)) {
+      for (int i : new int[]{42, 3, 99, 0}) {
+        reader.seek(index.offset("P" + i));
+        assertTrue(reader.next());
+        assertEquals("sp|P" + i + "|A", reader.header());
+        assertEquals("MAAKPEPTIDEKR", reader.sequence());
+      }
+    }
+    assertEquals("P1", FastaIndex.accession("sp|P1|A_HUMAN desc"));
+    assertEquals("P1", FastaIndex.accession("P1 desc|x"));
+    assertEquals("P1", FastaIndex.accession("tr|P1 desc"));
+  }
+
+  // The records of reading the trimmed lines.
+  private static List<String[]> reference(String content) throws Exception {
+    List<String[]> records = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(new StringReader(content));
+    String header = null;
+    StringBuilder sequence = new StringBuilder();
+    boolean hasRecord = false;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.startsWith(">")) {
+        if (hasRecord || sequence.length() > 0) {
+          records.add(new String[]{header, sequence.toString()});
+        }
+        hasRecord = true;
+        header = line.substring(1);
+        sequence.setLength(0);
+      } else {
+        sequence.append(line);
+      }
+    }
+    if (hasRecord || sequence.length() > 0) {
+      records.add(new String[]{header, sequence.toString()});
+    }
+    return records;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastaSummaryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void summaryEntrapments() throws Exception {
+    Path fastaPath = folder.newFile("db.fasta").toPath();
+    write(fastaPath, ">sp|P1|A\nMAAK\n  >sp|entrapment_P1|A\nMAKA\n>sp|P2_p_target|B\nMKKA\n");
+
+    CalculateFDP.Entry1 entry1 = FastaSummary.summaryEntrapments(fastaPath, "entrapment_");
+    assertEquals(2, entry1.nonEntrapmentProteinCount);
+    assertEquals(1, entry1.entrapmentProteinCount);
+    assertTrue(Files.isRegularFile(FastaSummary.sidecarPath(fastaPath)));
+
+    // The sidecar file is trusted while the size and the modification time match.
+    FileTime lastModified = Files.getLastModifiedTime(fastaPath);
+    write(fastaPath, ">sp|P1|A\nMAAK\n  >sp|entrapment_P1|A\nMAKA\n>sp|P2|B_p_target\nMKKA\n");
+    Files.setLastModifiedTime(fastaPath, lastModified);
+    assertEquals(1, FastaSummary.load(fastaPath).entrapmentProteinCounts[1]);
+
+    write(fastaPath, ">sp|P1|A\nMAAK\n>sp|entrapment_P1|A\nMAKA\n>sp|P2_p_target|B\nMKKA\n>sp|P3_p_target|C\nMKKA\n");
+    Files.setLastModifiedTime(fastaPath, lastModified);
+    entry1 = FastaSummary.summaryEntrapments(fastaPath, "_p_target");
+    assertEquals(2, entry1.nonEntrapmentProteinCount);
+    assertEquals(2, entry1.entrapmentProteinCount);
+    assertEquals(FastaSummary.scan(fastaPath, 0, 0).crc32c, FastaSummary.load(fastaPath).crc32c);
+
+    // A read-only directory only loses the cache.
+    File readOnly = folder.newFolder("read_only");
+    Path readOnlyFastaPath = readOnly.toPath().resolve("db.fasta");
+    write(readOnlyFastaPath, ">sp|entrapment_P1|A\nMAKA\n");
+    assertTrue(readOnly.setWritable(false));
+    assertEquals(1, FastaSummary.summaryEntrapments(readOnlyFastaPath, "entrapment_").entrapmentProteinCount);
+    assertTrue(readOnly.setWritable(true));
+  }
+
+  @Test
+  public void extraProperties() throws Exception {
+    Path fastaPath = folder.newFile("db.fasta").toPath();
+    write(fastaPath, ">sp|P1|A\nMAAK\n>sp|entrapment_P1|A\nMAKA\n");
+    Map<String, String> manifest = new HashMap<>();
+    manifest.put("cut_sites", "KR");
+    manifest.put("entrapment_style", "0");
+    FastaSummary summary = FastaSummary.load(fastaPath);
+    summary.putProteinCounts(manifest, 0);
+    summary.write(FastaSummary.sidecarPath(fastaPath), manifest);
+
+    // A stale sidecar file is rewritten with the same manifest and the new protein numbers.
+    write(fastaPath, ">sp|P1|A\nMAAK\n>sp|entrapment_P1|A\nMAKA\n>sp|entrapment_P2|B\nMAKA\n");
+    Files.setLastModifiedTime(fastaPath, FileTime.fromMillis(Files.getLastModifiedTime(fastaPath).toMillis() + 1000));
+    assertEquals(2, FastaSummary.load(fastaPath).entrapmentProteinCounts[0]);
+    Properties properties = new Properties();
+    try (InputStream inputStream = Files.newInputStream(FastaSummary.sidecarPath(fastaPath))) {
+      properties.load(inputStream);
+    }
+    assertEquals("KR", properties.getProperty("cut_sites"));
+    assertEquals("2", properties.getProperty("entrapment_proteins"));
+    assertEquals("2.0", properties.getProperty("r"));
+  }
+
+  private static void write(Path path, String content) throws Exception {
+    Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32C;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastaWriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void write() throws Exception {
+    // More than the buffer, with some non-ASCII headers.
+    Random random = new Random(1);
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 3 << 20) {
+      sb.append(random.nextInt(100) == 0 ? ">sp|P1|A Protéine\n" : ">sp|P1|A Protein\n");
+      for (int i = random.nextInt(1000); i > 0; --i) {
+        sb.append("ACDEFGHIKLMNPQRSTVWY".charAt(random.nextInt(20)));
+      }
+      sb.append('\n');
+    }
+    String content = sb.toString();
+    byte[] expected = content.getBytes(Charset.defaultCharset());
+    CRC32C crc32c = new CRC32C();
+    crc32c.update(expected, 0, expected.length);
+
+    for (String compression : FastaWriter.compressions) {
+      Path path = folder.getRoot().toPath().resolve("db.fasta" + FastaWriter.extension(compression));
+      FastaWriter writer = new FastaWriter(path);
+      int i = 0;
+      while (i < content.length()) {
+        int end = Math.min(content.length(), i + random.nextInt(300));
+        switch (random.nextInt(3)) {
+          case 0:
+            writer.write(content, i, end - i);
+            break;
+          case 1:
+            writer.write(content.substring(i, end).toCharArray());
+            break;
+          default:
+            for (int j = i; j < end; ++j) {
+              writer.write(content.charAt(j));
+            }
+        }
+        i = end;
+        if (random.nextInt(1000) == 0) {
+          writer.flush();
+        }
+      }
+      writer.close();
+      assertEquals(compression, crc32c.getValue(), writer.crc32c());
+
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      try (InputStream inputStream = FastaWriter.newInputStream(path)) {
+        byte[] buffer = new byte[1 << 16];
+        int length;
+        while ((length = inputStream.read(buffer)) > 0) {
+          outputStream.write(buffer, 0, length);
+        }
+      }
+      assertArrayEquals(compression, expected, outputStream.toByteArray());
+    }
+  }
+
+  @Test
+  public void flush() throws Exception {
+    Path path = folder.getRoot().toPath().resolve("db.fasta");
+    try (FastaWriter writer = new FastaWriter(path)) {
+      writer.write(">sp|P1|A Protein\nMAAK\n");
+      assertEquals(0, Files.size(path));
+      writer.flush();
+      assertEquals(22, Files.size(path));
+    }
+  }
+}
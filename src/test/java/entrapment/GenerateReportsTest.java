@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class GenerateReportsTest {
+
+  @Test
+  public void reports() throws Exception {
+    List<GenerateReports.Protein> targetProteins = new ArrayList<>();
+    List<GenerateReports.Protein> entrapmentProteins = new ArrayList<>();
+    for (int i = 0; i < 20; ++i) {
+      targetProteins.add(new GenerateReports.Protein("sp|P" + i + "|PROT" + i + "_HUMAN Protein OS=Homo sapiens GN=G" + i, "MPEPTIDEKAAAAAAAAAAAAAAAAAAAAR", i));
+      entrapmentProteins.add(new GenerateReports.Protein("entrapment_0_sp|entrapment_0_P" + i + "|entrapment_0_PROT" + i + "_HUMAN Protein GN=entrapment_0_G" + i, "MTIDEPEPKAAAAAAAAAAAAAAAAAAAR", -1 - i));
+    }
+    String[] args = {"--runs=3", "--precursors=1000", "--peptides=500", "--proteins=30", "--entrapment-fraction=0.2"};
+    GenerateReports generator = new GenerateReports(targetProteins, entrapmentProteins, Options.parse(args, 0, GenerateReports.optionKeys));
+
+    StringWriter writer1 = new StringWriter();
+    generator.writeReport(writer1);
+    StringWriter writer2 = new StringWriter();
+    new GenerateReports(targetProteins, entrapmentProteins, Options.parse(args, 0, GenerateReports.optionKeys)).writeReport(writer2);
+    assertEquals(writer1.toString(), writer2.toString());
+
+    Path path = Files.createTempFile("report", ".tsv");
+    try {
+      Files.write(path, writer1.toString().getBytes());
+      DiannReport.Counts counts = new DiannReport("entrapment_", 2, 2, 2, 2, 0).parse(path, 1);
+      assertEquals(3000, counts.targetPrecursorCounts()[0] + counts.entrapmentPrecursorCounts()[0]);
+      assertEquals(0.2, counts.entrapmentPrecursorCounts()[0] / 3000.0, 0.05);
+      assertFalse(counts.thereAreDecoyScoreLargerThanTargetScore);
+    } finally {
+      Files.delete(path);
+    }
+
+    StringWriter peptideWriter = new StringWriter();
+    generator.writePeptideTsv(peptideWriter);
+    assertEquals(501, peptideWriter.toString().split("\n").length);
+
+    StringWriter proteinWriter = new StringWriter();
+    generator.writeProteinTsv(proteinWriter);
+    String[] lines = proteinWriter.toString().split("\n");
+    assertEquals(27, lines.length); // all 20 targets and 6 entrapment proteins
+    int entrapmentCount = 0;
+    for (String line : lines) {
+      if (line.startsWith("entrapment_")) {
+        ++entrapmentCount;
+      }
+    }
+    assertEquals(6, entrapmentCount);
+  }
+}
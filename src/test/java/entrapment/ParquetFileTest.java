@@ -0,0 +1,46 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import com.github.luben.zstd.Zstd;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+public class ParquetFileTest {
+
+  @Test
+  public void decompress() throws Exception {
+    byte[] expected = "abcabcabcabcX".getBytes(StandardCharsets.US_ASCII);
+
+    // length 13, literal "abc", a copy of 9 bytes at offset 3 overlapping its own output, literal "X"
+    byte[] snappy = {13, 0x08, 'a', 'b', 'c', 0x15, 3, 0x00, 'X'};
+    assertArrayEquals(expected, ParquetFile.decompress(1, snappy, 0, snappy.length, expected.length));
+
+    ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+    try (GZIPOutputStream outputStream = new GZIPOutputStream(gzip)) {
+      outputStream.write(expected);
+    }
+    assertArrayEquals(expected, ParquetFile.decompress(2, gzip.toByteArray(), 0, gzip.size(), expected.length));
+
+    byte[] zstd = Zstd.compress(expected);
+    byte[] padded = new byte[zstd.length + 5];
+    System.arraycopy(zstd, 0, padded, 2, zstd.length);
+    assertArrayEquals(expected, ParquetFile.decompress(6, padded, 2, zstd.length, expected.length));
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PeptideIndexTest {
+
+  @Test
+  public void session() {
+    PeptideIndex index = new PeptideIndex(1 << 20, 7);
+    index.addTargetPeptides("MAAAAAAAKPEPTIDEKSHORTKDDDDDDDR", new Digester("KR", "P", true));
+    index.finishTargetPeptides();
+    assertEquals(2, index.targetPeptideCount()); // MAAAAAAAKPEPTIDEK and DDDDDDDR, SHORTK is too short
+
+    PeptideIndex.Session session1 = index.newSession(false);
+    assertFalse(session1.isUnique("DDDDDDDR"));
+    assertTrue(session1.isUnique("DDDDDDER"));
+    assertTrue(session1.isUnique("SHORTK"));
+    session1.add("DDDDDDER");
+    assertFalse(session1.isUnique("DDDDDDER"));
+
+    // A session that does not see the emitted peptides cannot be committed after the same peptide was emitted.
+    PeptideIndex.Session session2 = index.newSession(false);
+    assertTrue(session2.isUnique("DDDDDDER"));
+    session2.add("DDDDDDER");
+    assertTrue(index.commit(session1));
+    assertFalse(index.commit(session2));
+
+    PeptideIndex.Session session3 = index.newSession(true);
+    assertFalse(session3.isUnique("DDDDDDER"));
+    session3.add("DDDDDDER");
+    assertTrue(index.commit(session3));
+    assertEquals(1, index.nonUniquePeptideCount());
+  }
+
+  @Test
+  public void minPeptideLength() {
+    PeptideIndex index = new PeptideIndex(1 << 20, 6);
+    index.addTargetPeptides("MAAAAAAAKPEPTIDEKSHLLTKDDDDDDDR", new Digester("KR", "P", true));
+    index.finishTargetPeptides();
+    assertEquals(3, index.targetPeptideCount()); // SHLLTK too
+
+    PeptideIndex.Session session = index.newSession(true);
+    assertFalse(session.isUnique("SHLLTK"));
+    assertTrue(session.isUnique("SHLTK"));
+  }
+
+  @Test
+  public void memoryBudgetTooSmall() {
+    // Too small for the table of the entrapment peptides, which is reported to GenerateDatabase.main instead of exiting.
+    PeptideIndex index = new PeptideIndex(1 << 16, 7);
+    index.addTargetPeptides("MAAAAAAAKPEPTIDEKDDDDDDDR", new Digester("KR", "P", true));
+    try {
+      index.finishTargetPeptides();
+      fail();
+    } catch (IllegalStateException expected) {
+      assertTrue(expected.getMessage().startsWith("The memory budget of the peptide index is too small"));
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class PeptideRuleTest {
+
+  @Test
+  public void peptides() {
+    Random random = new Random(1);
+    Digester digester = new Digester("KR", "P", true);
+    for (int[] bounds : new int[][]{{7, 35, 1}, {1, 100, 0}, {6, 12, 3}}) {
+      PeptideRule rule = new PeptideRule(bounds[0], bounds[1], bounds[2]);
+      for (int i = 0; i < 500; ++i) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(80);
+        for (int j = 0; j < length; ++j) {
+          sb.append("ACDEKPRKLMR".charAt(random.nextInt(11)));
+        }
+        List<Integer> expected = reference(sb.toString(), digester, rule);
+        int[] peptides = rule.peptides(sb, digester);
+        assertEquals(sb.toString(), expected.size(), peptides.length);
+        for (int j = 0; j < peptides.length; ++j) {
+          assertEquals(sb.toString(), (int) expected.get(j), peptides[j]);
+        }
+        assertEquals(peptides.length / 2, rule.peptideCount(sb, digester));
+      }
+    }
+  }
+
+  @Test
+  public void peptideSet() {
+    PeptideSet set = new PeptideSet(16);
+    for (long i = 0; i < 10000; ++i) {
+      assertTrue(set.add(PeptideIndex.fingerprint("PEPTIDE" + i)));
+    }
+    for (long i = 0; i < 10000; ++i) {
+      assertFalse(set.add(PeptideIndex.fingerprint("PEPTIDE" + i)));
+    }
+    assertEquals(10000, set.size());
+    assertEquals(PeptideIndex.fingerprint("TIDE"), PeptideIndex.fingerprint("PEPTIDE", 3, 7));
+  }
+
+  // Every substring between two boundaries with at most maxMissedCleavages boundaries in between.
+  private static List<Integer> reference(String sequence, Digester digester, PeptideRule rule) {
+    List<Integer> boundaries = new ArrayList<>();
+    boundaries.add(0);
+    for (int site : digester.cleavageSites(sequence)) {
+      if (site + 1 < sequence.length()) {
+        boundaries.add(site + 1);
+      }
+    }
+    if (!sequence.isEmpty()) {
+      boundaries.add(sequence.length());
+    }
+    List<Integer> peptides = new ArrayList<>();
+    for (int i = 0; i < boundaries.size(); ++i) {
+      for (int j = i + 1; j < boundaries.size() && j - i - 1 <= rule.maxMissedCleavages; ++j) {
+        int length = boundaries.get(j) - boundaries.get(i);
+        if (length >= rule.minLength && length <= rule.maxLength) {
+          peptides.add(boundaries.get(i));
+          peptides.add(boundaries.get(j));
+        }
+      }
+    }
+    return peptides;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PreviousDatabaseTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void entrapments() throws Exception {
+    String p1 = ">sp|P1|A_HUMAN Protein A GN=A\nMEYMAESTDRAADFQLHTHVNDGTEFGGSIYQKAAFVAYALAFPRAALEEANGEIEK\n";
+    String p2 = ">sp|P2|B_HUMAN Protein B GN=B\nMDPLFQQTHKAICQFFLQGRAAAIIIDDDKLLLLLLLR\n";
+    String p3 = ">sp|P3|C_HUMAN Protein C GN=C\nMAAAAAAAKPEPTIDEKSHORTKDDDDDDDRLLLLLLLLLLK\n";
+    String p2Changed = ">sp|P2|B_HUMAN Protein B GN=B\nMDPLFQQTHKAICQFFLQGRAAAIIIDDDKLLLLLLLRW\n";
+    String p4 = ">tr|P4|D_HUMAN Protein D\nMKKKPEPTIDEPEPTIDER\n";
+    for (String style : new String[]{"0", "1"}) {
+      Path previousFolder = folder.newFolder("previous" + style).toPath();
+      Path freshFolder = folder.newFolder("fresh" + style).toPath();
+      Path fastaPath = previousFolder.resolve("db.fasta");
+      write(fastaPath, p1 + p2 + p3);
+      GenerateDatabase.main(new String[]{fastaPath.toString(), "KR", "P", "1", "2", style});
+
+      // P1 moved, P2 changed, P3 removed and P4 added
+      write(fastaPath, p2Changed + p4 + p1);
+      write(freshFolder.resolve("db.fasta"), p2Changed + p4 + p1);
+      Path outputPath = previousFolder.resolve("target_shuffle_db.fasta");
+      GenerateDatabase.main(new String[]{fastaPath.toString(), "KR", "P", "1", "2", style, "--previous=" + outputPath});
+      GenerateDatabase.main(new String[]{freshFolder.resolve("db.fasta").toString(), "KR", "P", "1", "2", style});
+      for (String name : new String[]{"target_shuffle_db.fasta", "target_shuffle_pep_db.fasta", "target_shuffle_db.fasta.peptides.tsv"}) {
+        assertArrayEquals(name, Files.readAllBytes(freshFolder.resolve(name)), Files.readAllBytes(previousFolder.resolve(name)));
+      }
+
+      // A peptides.tsv that has been replaced since is not used.
+      Path previousPath = previousFolder.resolve("target_shuffle_db.fasta.previous");
+      int N = style.equals("0") ? 2 : 1;
+      Map<String, String> manifest = new HashMap<>();
+      manifest.put("cut_sites", "KR");
+      manifest.put("protect_sites", "P");
+      manifest.put("cleavage_from_c_term", "true");
+      manifest.put("entrapment_proteins_per_target", String.valueOf(N));
+      manifest.put("entrapment_style", style);
+      try (PreviousDatabase previous = PreviousDatabase.open(previousPath, FastaSummary.sidecarPath(previousPath), manifest, PeptideRule.defaultRule, N, Integer.parseInt(style))) {
+        PreviousDatabase.Entrapments entrapments = previous.entrapments("sp|P3|C_HUMAN", "MAAAAAAAKPEPTIDEKSHORTKDDDDDDDRLLLLLLLLLLK");
+        assertArrayEquals(GenerateDatabase.shuffleSeqFY("MAAAAAAAKPEPTLDEKSHORTKDDDDDDDRLLLLLLLLLLK", new Digester("KR", "P", true), N), entrapments.sequences);
+        assertNull(entrapments.peptideCounts);
+        assertNull(previous.entrapments("sp|P3|C_HUMAN", "MAAAAAAAKPEPTIDEKSHORTKDDDDDDDRLLLLLLLLLLL"));
+        assertNull(previous.entrapments("sp|P5|E_HUMAN", "MAAAAAAAKPEPTIDEKSHORTKDDDDDDDRLLLLLLLLLLK"));
+        assertEquals(1, previous.reusedCount());
+      }
+      Path freshPath = freshFolder.resolve("target_shuffle_db.fasta");
+      try (PreviousDatabase previous = PreviousDatabase.open(freshPath, FastaSummary.sidecarPath(freshPath), manifest, PeptideRule.defaultRule, N, Integer.parseInt(style))) {
+        PreviousDatabase.Entrapments entrapments = previous.entrapments("sp|P4|D_HUMAN", "MKKKPEPTIDEPEPTIDER");
+        assertEquals(N + 1, entrapments.peptideCounts.length);
+        assertEquals(GenerateDatabase.countPeptides("MKKKPEPTLDEPEPTLDER", new Digester("KR", "P", true)), entrapments.peptideCounts[0]);
+        assertEquals(GenerateDatabase.countPeptides(entrapments.sequences[N - 1], new Digester("KR", "P", true)), entrapments.peptideCounts[N]);
+      }
+    }
+  }
+
+  private static void write(Path path, String content) throws Exception {
+    Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+  }
+}
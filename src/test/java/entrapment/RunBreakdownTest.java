@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+
+public class RunBreakdownTest {
+
+  @Test
+  public void counts() throws Exception {
+    String report = "File.Name\tRun\tProtein.Group\tQ.Value\tGlobal.Q.Value\tPG.Q.Value\tGlobal.PG.Q.Value\tCScore\tDecoy.CScore\n"
+        + "a.raw\tA\tP1\t0.001\t0.001\t0.001\t0.001\t0.9\t0.1\n"
+        + "a.raw\tA\tP1\t0.02\t0.001\t0.001\t0.001\t0.8\t0\n"
+        + "b.raw\tB\tentrapment_P2\t0.001\t0.001\t0.001\t0.001\t0.9\t0\n"
+        + "a.raw\tA\tentrapment_P2\t0.001\t0.001\t0.02\t0.001\t0.9\t0\n"
+        + "b.raw\tB\tP1\t0.001\t0.001\t0.001\t0.001\t0.9\t0\n";
+    Path path = Files.createTempFile("report", ".tsv");
+    try {
+      Files.write(path, report.getBytes());
+      DiannReport.Counts counts = new DiannReport("entrapment_", new double[]{0.01, 0.05}, new double[]{0.01}, new double[]{0.01, 0.05}, new double[]{0.01}, 0).parse(path, 1);
+      RunBreakdown runBreakdown = new RunBreakdown(counts);
+      assertArrayEquals(new String[]{"A", "B"}, runBreakdown.runs);
+      // run A with 0.01 and 0.05, then run B
+      assertArrayEquals(new long[]{1, 2, 1, 1}, runBreakdown.targetPrecursorCounts);
+      assertArrayEquals(new long[]{1, 1, 0, 0}, runBreakdown.decoyPrecursorCounts);
+      assertArrayEquals(new long[]{1, 1, 1, 1}, runBreakdown.entrapmentPrecursorCounts);
+      assertArrayEquals(new long[]{1, 1, 1, 1}, runBreakdown.targetProteinCounts);
+      assertArrayEquals(new long[]{0, 1, 1, 1}, runBreakdown.entrapmentProteinCounts);
+      assertArrayEquals(new long[]{2, 3}, counts.targetPrecursorCounts());
+      assertArrayEquals(new long[]{1, 2}, counts.entrapmentProteinCounts());
+    } finally {
+      Files.delete(path);
+    }
+  }
+}
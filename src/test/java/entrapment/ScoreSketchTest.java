@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class ScoreSketchTest {
+
+  @Test
+  public void cells() {
+    assertEquals(0, ScoreSketch.cell(1));
+    assertEquals(0, ScoreSketch.cell(1 - 0x1p-41));
+    assertEquals(ScoreSketch.cellCount - 2, ScoreSketch.cell(0));
+    assertEquals(ScoreSketch.cellCount - 1, ScoreSketch.cell(-0.1));
+    int last = 0;
+    for (double score = 1 - 0x1p-40; score > 0; score -= (1 - score) * 0.01) {
+      int cell = ScoreSketch.cell(score);
+      assertTrue(cell >= last);
+      last = cell;
+    }
+  }
+
+  // The q-value of the bin of each CScore is the exact q-value or at most the error bound higher.
+  @Test
+  public void errorBound() {
+    Random random = new Random(4);
+    SparseScoreHistogram exact = new SparseScoreHistogram(0);
+    ScoreSketch[] chunks = {new ScoreSketch(50), new ScoreSketch(50)};
+    ScoreSketch sketch = new ScoreSketch(50);
+    for (int i = 0; i < 50000; ++i) {
+      boolean isEntrapment = random.nextInt(10) == 0;
+      // the entrapments have lower scores on average
+      double cscore = 1 - Math.pow(random.nextDouble(), isEntrapment ? 0.5 : 4);
+      double decoyCscore = random.nextBoolean() ? 0 : 1 - Math.sqrt(random.nextDouble());
+      double runQValue = random.nextDouble() * 0.01;
+      exact.add(cscore, decoyCscore, isEntrapment, runQValue, runQValue);
+      sketch.add(cscore, decoyCscore, isEntrapment, runQValue, runQValue);
+      chunks[i % 2].add(cscore, decoyCscore, isEntrapment, runQValue, runQValue);
+    }
+
+    SparseScoreHistogram.Bins exactBins = exact.compact();
+    double[] exactQValues = DiannEntrapmentQValue.calculateQValue(exactBins.targetCounts, exactBins.decoyCounts, exactBins.entrapmentTargetCounts, exactBins.entrapmentDecoyCounts, 3);
+    SparseScoreHistogram.Bins bins = sketch.compact();
+    double[] qValues = DiannEntrapmentQValue.calculateQValue(bins.targetCounts, bins.decoyCounts, bins.entrapmentTargetCounts, bins.entrapmentDecoyCounts, 3);
+    double[] errorBounds = ScoreSketch.errorBounds(bins.targetCounts, bins.entrapmentTargetCounts, qValues);
+    assertTrue(bins.thresholds.length <= 50);
+    assertEquals(sum(exactBins.targetCounts), sum(bins.targetCounts));
+    assertEquals(sum(exactBins.decoyCounts), sum(bins.decoyCounts));
+    assertEquals(sum(exactBins.entrapmentTargetCounts), sum(bins.entrapmentTargetCounts));
+    assertEquals(sum(exactBins.entrapmentDecoyCounts), sum(bins.entrapmentDecoyCounts));
+    assertEquals(exactBins.thresholds[0], bins.thresholds[0], 0);
+
+    // the cumulative counts at the thresholds of the bins are exact
+    long exactCount = 0;
+    long count = 0;
+    for (int i = exactBins.thresholds.length - 1, k = bins.thresholds.length - 1; k >= 0; --k) {
+      for (; i >= 0 && exactBins.thresholds[i] >= bins.thresholds[k]; --i) {
+        exactCount += exactBins.targetCounts[i] + exactBins.entrapmentTargetCounts[i];
+      }
+      count += bins.targetCounts[k] + bins.entrapmentTargetCounts[k];
+      assertEquals(exactCount, count);
+    }
+
+    int k = 0;
+    for (int i = 0; i < exactBins.thresholds.length; ++i) {
+      while (k + 1 < bins.thresholds.length && bins.thresholds[k + 1] <= exactBins.thresholds[i]) {
+        ++k;
+      }
+      if (exactBins.targetCounts[i] + exactBins.entrapmentTargetCounts[i] > 0) {
+        assertTrue(qValues[k] >= exactQValues[i] - 1e-12);
+        assertTrue(qValues[k] <= exactQValues[i] + errorBounds[k] + 1e-12);
+      }
+    }
+
+    // The sketch does not depend on the order of the rows.
+    chunks[1].merge(chunks[0]);
+    SparseScoreHistogram.Bins mergedBins = chunks[1].compact();
+    assertArrayEquals(bins.thresholds, mergedBins.thresholds, 0);
+    assertArrayEquals(bins.targetCounts, mergedBins.targetCounts);
+    assertArrayEquals(bins.entrapmentDecoyCounts, mergedBins.entrapmentDecoyCounts);
+    assertArrayEquals(bins.reportedRunQValues, mergedBins.reportedRunQValues, 0);
+  }
+
+  private static long sum(long[] counts) {
+    long sum = 0;
+    for (long count : counts) {
+      sum += count;
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class ShuffleKernelTest {
+
+  @Test
+  public void shuffle() {
+    Random random = new Random(1);
+    Digester digester = new Digester("KR", "P", true);
+    ShuffleKernel kernel = new ShuffleKernel();
+    for (int i = 0; i < 2000; ++i) {
+      String sequence = i % 2 == 0 ? randomProtein(random, random.nextInt(200)) : randomProtein(random, random.nextInt(40), "AGKR");
+      int N = 1 + random.nextInt(12);
+      assertArrayEquals(sequence, reference(sequence, digester, N, null), kernel.shuffle(sequence, digester, N, 100, null));
+    }
+
+    // Short alphabets make duplicate and non-unique shuffles common.
+    PeptideIndex index1 = new PeptideIndex(1 << 20, 7);
+    PeptideIndex index2 = new PeptideIndex(1 << 20, 7);
+    String[] targets = new String[500];
+    for (int i = 0; i < targets.length; ++i) {
+      targets[i] = randomProtein(random, 10 + random.nextInt(100), "AGKR");
+      index1.addTargetPeptides(targets[i], digester);
+      index2.addTargetPeptides(targets[i], digester);
+    }
+    index1.finishTargetPeptides();
+    index2.finishTargetPeptides();
+    for (String sequence : targets) {
+      int N = 1 + random.nextInt(4);
+      PeptideIndex.Session session1 = index1.newSession(true);
+      PeptideIndex.Session session2 = index2.newSession(true);
+      assertArrayEquals(sequence, reference(sequence, digester, N, session1), kernel.shuffle(sequence, digester, N, 100, session2));
+      index1.commit(session1);
+      index2.commit(session2);
+    }
+    assertEquals(index1.nonUniquePeptideCount(), index2.nonUniquePeptideCount());
+    assertTrue(index2.nonUniquePeptideCount() > 0);
+  }
+
+  private static String randomProtein(Random random, int length) {
+    return randomProtein(random, length, "ACDEFGHIKLMNPQRSTVWY");
+  }
+
+  private static String randomProtein(Random random, int length, String residues) {
+    StringBuilder sb = new StringBuilder();
+    if (random.nextBoolean()) {
+      sb.append('M');
+    }
+    for (int i = 0; i < length; ++i) {
+      sb.append(residues.charAt(random.nextInt(residues.length())));
+    }
+    return sb.toString();
+  }
+
+  // The shuffling before ShuffleKernel.
+  private static String[] reference(String sequence, Digester digester, int N, PeptideIndex.Session session) {
+    String sequenceToBeShuffled;
+    if (sequence.startsWith("M")) {
+      sequenceToBeShuffled = sequence.substring(1);
+    } else {
+      sequenceToBeShuffled = sequence;
+    }
+
+    int[] cutSiteArray = digester.cleavageSites(sequenceToBeShuffled);
+
+    int time = 0;
+
+    StringBuilder[] shuffledProteins = new StringBuilder[N];
+    for (int i = 0; i < N; ++i) {
+      shuffledProteins[i] = new StringBuilder();
+      if (sequence.startsWith("M")) {
+        shuffledProteins[i].append("M");
+      }
+    }
+
+    int startIdx;
+    int endIdx;
+    Set<String> generatedShuffles = new HashSet<>();
+    for (int k = 0; k <= cutSiteArray.length; ++k) {
+      startIdx = k == 0 ? 0 : cutSiteArray[k - 1] + 1;
+      endIdx = k == cutSiteArray.length ? sequenceToBeShuffled.length() : cutSiteArray[k];
+      if (endIdx - startIdx > 2) {
+        String targetSequence = sequenceToBeShuffled.substring(startIdx, endIdx);
+        char[] targetArray = targetSequence.toCharArray();
+        char[] shuffleArray = new char[targetArray.length];
+        System.arraycopy(targetArray, 0, shuffleArray, 0, targetArray.length);
+        generatedShuffles.clear();
+        for (int l = 0; l < N; ++l) {
+          Random random = new Random(l);
+          String shuffledSequence;
+          String peptide = null;
+          int attempts = 0;
+          do {
+            for (int i = 0; i < shuffleArray.length; ++i) {
+              int j = random.nextInt(shuffleArray.length);
+              while (j == i) {
+                j = random.nextInt(shuffleArray.length);
+              }
+              char temp = shuffleArray[i];
+              shuffleArray[i] = shuffleArray[j];
+              shuffleArray[j] = temp;
+            }
+            shuffledSequence = String.valueOf(shuffleArray);
+            ++time;
+            if (session != null) {
+              ++attempts;
+              peptide = (k == 0 && sequence.startsWith("M") ? "M" : "") + shuffledSequence + (endIdx == sequenceToBeShuffled.length() ? "" : sequenceToBeShuffled.charAt(endIdx));
+            }
+          } while (session == null ?
+              time < 10 && (targetSequence.contentEquals(shuffledSequence) || generatedShuffles.contains(shuffledSequence)) :
+              attempts < 100 && (targetSequence.contentEquals(shuffledSequence) || generatedShuffles.contains(shuffledSequence) || !session.isUnique(peptide)));
+          generatedShuffles.add(shuffledSequence);
+          if (session != null) {
+            session.add(peptide);
+          }
+          shuffledProteins[l].append(shuffledSequence).append(endIdx == sequenceToBeShuffled.length() ? "" : sequenceToBeShuffled.charAt(endIdx));
+        }
+      } else {
+        for (int l = 0; l < N; ++l) {
+          shuffledProteins[l].append(sequenceToBeShuffled, startIdx, endIdx).append(endIdx == sequenceToBeShuffled.length() ? "" : sequenceToBeShuffled.charAt(endIdx));
+        }
+      }
+    }
+
+    String[] output = new String[N];
+    for (int i = 0; i < N; ++i) {
+      output[i] = shuffledProteins[i].toString();
+    }
+
+    return output;
+  }
+}
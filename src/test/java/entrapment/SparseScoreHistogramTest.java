@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SparseScoreHistogramTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void compactMatchesDenseBins() {
+    double binSize = 0.001;
+    int binCount = (int) (1 / binSize) + 1;
+    long[] targetCounts = new long[binCount];
+    long[] decoyCounts = new long[binCount];
+    long[] entrapmentTargetCounts = new long[binCount];
+    long[] entrapmentDecoyCounts = new long[binCount];
+    double[] reportedRunQValues = new double[binCount];
+    Arrays.fill(reportedRunQValues, Double.NaN);
+
+    SparseScoreHistogram histogram = new SparseScoreHistogram(binSize);
+    Random random = new Random(1);
+    for (int i = 0; i < 5000; ++i) {
+      double cscore = random.nextInt(800) / 1000.0 + random.nextDouble() * 0.2;
+      double decoyCscore = random.nextBoolean() ? 0 : random.nextDouble();
+      boolean isEntrapment = random.nextInt(3) == 0;
+      double runQValue = random.nextInt(5) * 1e-7 + random.nextInt(3) * 0.01;
+      histogram.add(cscore, decoyCscore, isEntrapment, runQValue, runQValue);
+
+      int bin = (int) (cscore / binSize);
+      if (Double.isNaN(reportedRunQValues[bin])) {
+        reportedRunQValues[bin] = runQValue;
+      } else if (Math.abs(reportedRunQValues[bin] - runQValue) > 1e-6) {
+        reportedRunQValues[bin] = Math.min(reportedRunQValues[bin], runQValue);
+      }
+      if (isEntrapment) {
+        ++entrapmentTargetCounts[bin];
+        if (decoyCscore > 0) {
+          ++entrapmentDecoyCounts[(int) (decoyCscore / binSize)];
+        }
+      } else {
+        ++targetCounts[bin];
+        if (decoyCscore > 0) {
+          ++decoyCounts[(int) (decoyCscore / binSize)];
+        }
+      }
+    }
+
+    SparseScoreHistogram.Bins bins = histogram.compact();
+    int k = 0;
+    for (int i = 0; i < binCount; ++i) {
+      if (targetCounts[i] + decoyCounts[i] + entrapmentTargetCounts[i] + entrapmentDecoyCounts[i] == 0) {
+        continue;
+      }
+      assertEquals(i * binSize, bins.thresholds[k], 0);
+      assertEquals(targetCounts[i], bins.targetCounts[k]);
+      assertEquals(decoyCounts[i], bins.decoyCounts[k]);
+      assertEquals(entrapmentTargetCounts[i], bins.entrapmentTargetCounts[k]);
+      assertEquals(entrapmentDecoyCounts[i], bins.entrapmentDecoyCounts[k]);
+      assertEquals(Double.doubleToLongBits(reportedRunQValues[i]), Double.doubleToLongBits(bins.reportedRunQValues[k]));
+      ++k;
+    }
+    assertEquals(k, bins.thresholds.length);
+  }
+
+  @Test
+  public void spill() {
+    Path directory = folder.getRoot().toPath();
+    SparseScoreHistogram inMemory = new SparseScoreHistogram(0.001);
+    SparseScoreHistogram spilled = new SparseScoreHistogram(0.001, directory, 0); // at least 4096 rows
+    // chunks merged in reading order, with and without runs of their own
+    SparseScoreHistogram[] chunks = {new SparseScoreHistogram(0.001, directory, 5000), new SparseScoreHistogram(0.001, directory, 5000), new SparseScoreHistogram(0.001, directory, 5000)};
+    Random random = new Random(2);
+    for (int i = 0; i < 30000; ++i) {
+      double cscore = random.nextDouble();
+      double decoyCscore = random.nextBoolean() ? 0 : random.nextDouble();
+      boolean isEntrapment = random.nextInt(3) == 0;
+      double runQValue = random.nextInt(5) * 1e-7 + random.nextInt(3) * 0.01;
+      inMemory.add(cscore, decoyCscore, isEntrapment, runQValue, runQValue / 2);
+      spilled.add(cscore, decoyCscore, isEntrapment, runQValue, runQValue / 2);
+      chunks[i < 12000 ? 0 : i < 14000 ? 1 : 2].add(cscore, decoyCscore, isEntrapment, runQValue, runQValue / 2);
+    }
+    chunks[0].merge(chunks[1]);
+    chunks[0].merge(chunks[2]);
+    assertTrue(folder.getRoot().list().length > 0);
+
+    SparseScoreHistogram.Bins expected = inMemory.compact();
+    for (SparseScoreHistogram histogram : new SparseScoreHistogram[]{spilled, chunks[0]}) {
+      SparseScoreHistogram.Bins bins = histogram.compact();
+      assertArrayEquals(expected.thresholds, bins.thresholds, 0);
+      assertArrayEquals(expected.targetCounts, bins.targetCounts);
+      assertArrayEquals(expected.decoyCounts, bins.decoyCounts);
+      assertArrayEquals(expected.entrapmentTargetCounts, bins.entrapmentTargetCounts);
+      assertArrayEquals(expected.entrapmentDecoyCounts, bins.entrapmentDecoyCounts);
+      assertArrayEquals(expected.reportedRunQValues, bins.reportedRunQValues, 0);
+      assertArrayEquals(expected.reportedGlobalQValues, bins.reportedGlobalQValues, 0);
+    }
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void spillAfterMergeReachesTheCap() {
+    Path directory = folder.getRoot().toPath();
+    SparseScoreHistogram histogram = new SparseScoreHistogram(0.001, directory, 4096);
+    SparseScoreHistogram other = new SparseScoreHistogram(0.001, directory, 4096);
+    for (int i = 0; i < 2048; ++i) {
+      histogram.add(i / 4096.0, 0, false, 0, 0);
+      other.add((i + 2048) / 4096.0, 0, false, 0, 0);
+    }
+    histogram.merge(other);
+    assertEquals(0, folder.getRoot().list().length);
+    histogram.add(0.5, 0, false, 0, 0);
+    assertTrue(folder.getRoot().list().length > 0);
+    assertEquals(4097, Arrays.stream(histogram.compact().targetCounts).sum());
+  }
+
+  @Test
+  public void exact() {
+    Path directory = folder.getRoot().toPath();
+    SparseScoreHistogram histogram = new SparseScoreHistogram(0);
+    SparseScoreHistogram spilled = new SparseScoreHistogram(0, directory, 0);
+    // target count, decoy count, entrapment target count, entrapment decoy count and the folded reported q-value by score
+    TreeMap<Double, double[]> expected = new TreeMap<>();
+    Random random = new Random(3);
+    for (int i = 0; i < 20000; ++i) {
+      double cscore = random.nextBoolean() ? random.nextInt(1000) / 999.0 : random.nextDouble();
+      double decoyCscore = random.nextBoolean() ? 0 : random.nextInt(1000) / 999.0;
+      boolean isEntrapment = random.nextInt(3) == 0;
+      double runQValue = random.nextInt(5) * 1e-7 + random.nextInt(3) * 0.01;
+      histogram.add(cscore, decoyCscore, isEntrapment, runQValue, runQValue);
+      spilled.add(cscore, decoyCscore, isEntrapment, runQValue, runQValue);
+
+      double[] bin = expected.computeIfAbsent(cscore, k -> new double[]{0, 0, 0, 0, Double.NaN});
+      ++bin[isEntrapment ? 2 : 0];
+      if (Double.isNaN(bin[4])) {
+        bin[4] = runQValue;
+      } else if (Math.abs(bin[4] - runQValue) > 1e-6) {
+        bin[4] = Math.min(bin[4], runQValue);
+      }
+      if (decoyCscore > 0) {
+        ++expected.computeIfAbsent(decoyCscore, k -> new double[]{0, 0, 0, 0, Double.NaN})[isEntrapment ? 3 : 1];
+      }
+    }
+
+    SparseScoreHistogram.Bins bins = histogram.compact();
+    assertEquals(expected.size(), bins.thresholds.length);
+    int k = 0;
+    for (Map.Entry<Double, double[]> bin : expected.entrySet()) {
+      assertEquals(bin.getKey(), bins.thresholds[k], 0);
+      assertEquals((long) bin.getValue()[0], bins.targetCounts[k]);
+      assertEquals((long) bin.getValue()[1], bins.decoyCounts[k]);
+      assertEquals((long) bin.getValue()[2], bins.entrapmentTargetCounts[k]);
+      assertEquals((long) bin.getValue()[3], bins.entrapmentDecoyCounts[k]);
+      assertEquals(Double.doubleToLongBits(bin.getValue()[4]), Double.doubleToLongBits(bins.reportedRunQValues[k]));
+      ++k;
+    }
+
+    SparseScoreHistogram.Bins spilledBins = spilled.compact();
+    assertArrayEquals(bins.thresholds, spilledBins.thresholds, 0);
+    assertArrayEquals(bins.targetCounts, spilledBins.targetCounts);
+    assertArrayEquals(bins.entrapmentDecoyCounts, spilledBins.entrapmentDecoyCounts);
+    assertArrayEquals(bins.reportedRunQValues, spilledBins.reportedRunQValues, 0);
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void scoreKeysKeepTheOrder() {
+    double[] scores = {Double.NEGATIVE_INFINITY, -1, -Double.MIN_VALUE, 0, Double.MIN_VALUE, 1e-300, 0.5, 1, Double.POSITIVE_INFINITY};
+    for (int i = 0; i < scores.length; ++i) {
+      assertEquals(scores[i], SparseScoreHistogram.score(SparseScoreHistogram.scoreKey(scores[i])), 0);
+      if (i > 0) {
+        assertTrue(SparseScoreHistogram.scoreKey(scores[i - 1]) < SparseScoreHistogram.scoreKey(scores[i]));
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class StringDictionaryTest {
+
+  @Test
+  public void intern() {
+    Random random = new Random(1);
+    StringDictionary dictionary = new StringDictionary();
+    Map<String, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 100000; ++i) {
+      String s = "run" + random.nextInt(50) + "_P" + random.nextInt(2000) + (random.nextBoolean() ? ";entrapment_0_µ" : "");
+      byte[] bytes = ("\t" + s + "\t").getBytes(StandardCharsets.UTF_8);
+      int id = dictionary.intern(bytes, 1, bytes.length - 1);
+      Integer expectedId = expected.putIfAbsent(s, expected.size());
+      assertEquals(expectedId == null ? expected.size() - 1 : expectedId, id);
+      assertEquals(s, dictionary.get(id));
+    }
+    assertEquals(expected.size(), dictionary.size());
+
+    StringDictionary other = new StringDictionary();
+    other.internAll(dictionary);
+    int[] ids = dictionary.internAll(other);
+    for (int i = 0; i < ids.length; ++i) {
+      assertEquals(i, ids[i]);
+    }
+  }
+
+  @Test
+  public void longHashSet() {
+    Random random = new Random(1);
+    LongHashSet set = new LongHashSet();
+    Set<Long> expected = new HashSet<>();
+    for (int i = 0; i < 100000; ++i) {
+      long key = ((long) random.nextInt(100) << 32) | random.nextInt(5000);
+      assertEquals(expected.add(key), set.add(key));
+    }
+    assertEquals(expected.size(), set.size());
+    for (long key : set.toArray()) {
+      assertTrue(expected.contains(key));
+    }
+    assertFalse(set.contains(1L << 40));
+  }
+}
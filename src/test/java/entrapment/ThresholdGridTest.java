@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class ThresholdGridTest {
+
+  @Test
+  public void counts() {
+    ThresholdGrid grid = new ThresholdGrid(new double[]{0.05, 0.01, 0.005, 0.01}, new double[]{0.01, 0.1});
+    assertEquals(6, grid.cellCount());
+    assertEquals(0.005, grid.runThreshold(0), 0);
+    assertEquals(0.1, grid.globalThreshold(1), 0);
+    assertEquals(-1, grid.cell(Double.NaN, 0));
+    assertEquals(-1, grid.cell(0.05, 0));
+
+    Random random = new Random(1);
+    int n = 10000;
+    double[] runQValues = new double[n];
+    double[] globalQValues = new double[n];
+    long[] keys = new long[n];
+    long[] cellCounts = new long[grid.cellCount()];
+    LongHashSet[] cellKeys = new LongHashSet[grid.cellCount()];
+    for (int i = 0; i < cellKeys.length; ++i) {
+      cellKeys[i] = new LongHashSet();
+    }
+    for (int i = 0; i < n; ++i) {
+      runQValues[i] = random.nextDouble() * 0.06;
+      globalQValues[i] = random.nextDouble() * 0.12;
+      keys[i] = ((long) random.nextInt(3) << 32) | random.nextInt(500); // three runs
+      int cell = grid.cell(runQValues[i], globalQValues[i]);
+      if (cell >= 0) {
+        ++cellCounts[cell];
+        cellKeys[cell].add(keys[i]);
+      }
+    }
+
+    long[] counts = grid.cumulativeCounts(cellCounts);
+    long[] distinctCounts = grid.distinctCounts(cellKeys, 3);
+    long[] totalDistinctCounts = grid.total(distinctCounts);
+    for (int c = 0; c < grid.cellCount(); ++c) {
+      long expectedCount = 0;
+      LongHashSet[] expectedKeys = {new LongHashSet(), new LongHashSet(), new LongHashSet()};
+      for (int i = 0; i < n; ++i) {
+        if (runQValues[i] < grid.runThreshold(c) && globalQValues[i] < grid.globalThreshold(c)) {
+          ++expectedCount;
+          expectedKeys[(int) (keys[i] >>> 32)].add(keys[i]);
+        }
+      }
+      assertEquals(expectedCount, counts[c]);
+      for (int run = 0; run < 3; ++run) {
+        assertEquals(expectedKeys[run].size(), distinctCounts[run * grid.cellCount() + c]);
+      }
+      assertEquals(expectedKeys[0].size() + expectedKeys[1].size() + expectedKeys[2].size(), totalDistinctCounts[c]);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package entrapment;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+public class TsvTokenizerTest {
+
+  @Test
+  public void parseDouble() {
+    Random random = new Random(1);
+    String[] fixed = {"0", "-0", "1", "0.5", ".5", "1.", "1e-05", "1.2345E+3", "0.000012345678901234567", "123456789012345678", "9.99e307", "1e-320", "NaN", "-Infinity", "  0.25 "};
+    for (String s : fixed) {
+      byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+      assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)), Double.doubleToLongBits(TsvTokenizer.parseDouble(bytes, 0, bytes.length)));
+    }
+    for (int i = 0; i < 100000; ++i) {
+      double d = random.nextDouble() * Math.pow(10, random.nextInt(10) - 7);
+      String s = random.nextBoolean() ? Double.toString(d) : String.format("%." + random.nextInt(17) + "f", d);
+      byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+      assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)), Double.doubleToLongBits(TsvTokenizer.parseDouble(bytes, 0, bytes.length)));
+    }
+  }
+
+  @Test
+  public void nextLine() throws Exception {
+    String content = "\n  a\tbb\t\tlong field with spaces \r\n\t\n\r\nc\t 1.5 \n" + "x\ty\tz";
+    byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+    // A tiny buffer makes the lines cross the buffer boundary and forces the buffer to grow.
+    TsvTokenizer tokenizer = new TsvTokenizer(Channels.newChannel(new ByteArrayInputStream(bytes)), Long.MAX_VALUE, 4);
+
+    assertTrue(tokenizer.nextLine());
+    assertEquals(4, tokenizer.fieldCount());
+    assertEquals("a", tokenizer.getString(0));
+    assertEquals("bb", tokenizer.getString(1));
+    assertEquals("", tokenizer.getString(2));
+    assertEquals("long field with spaces", tokenizer.getString(3));
+
+    assertTrue(tokenizer.nextLine());
+    assertEquals("c", tokenizer.getString(0));
+    assertEquals(1.5, tokenizer.getDouble(1), 0);
+
+    tokenizer.setMaxColumn(1);
+    assertTrue(tokenizer.nextLine());
+    assertEquals(2, tokenizer.fieldCount());
+    assertEquals("y", tokenizer.getString(1));
+    tokenizer.splitAll();
+    assertEquals("z", tokenizer.getString(2));
+
+    assertFalse(tokenizer.nextLine());
+    tokenizer.close();
+  }
+}